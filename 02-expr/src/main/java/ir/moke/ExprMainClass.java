@@ -2,9 +2,9 @@ package ir.moke;
 
 import ir.moke.antlr4.ExprLexer;
 import ir.moke.antlr4.ExprParser;
+import ir.moke.common.TwoStageParser;
 import org.antlr.v4.runtime.CharStream;
 import org.antlr.v4.runtime.CharStreams;
-import org.antlr.v4.runtime.CommonTokenStream;
 import org.antlr.v4.runtime.tree.ParseTree;
 
 public class ExprMainClass {
@@ -16,17 +16,12 @@ public class ExprMainClass {
         // Step 1: Create a CharStream from input
         CharStream input = CharStreams.fromString(inputText);
 
-        // Step 2: Create a lexer
-        ExprLexer lexer = new ExprLexer(input);
-
-        // Step 3: Tokenize input
-        CommonTokenStream tokens = new CommonTokenStream(lexer);
-
-        // Step 4: Create a parser
-        ExprParser parser = new ExprParser(tokens);
-
-        // Step 5: Parse starting from the rule "r"
-        ParseTree tree = parser.prog();
+        // Step 2: Lex and parse starting from the rule "prog", with SLL prediction first and full LL only if it fails
+        TwoStageParser.Result<ExprParser, ExprParser.ProgContext> parsed =
+                TwoStageParser.parse(input, ExprLexer::new, ExprParser::new, ExprParser::prog);
+        ExprParser parser = parsed.parser();
+        ParseTree tree = parsed.tree();
+        System.out.println("Parsed with " + parsed.stage() + " prediction");
 
         // Print the parse tree
         System.out.println(tree.toStringTree(parser));
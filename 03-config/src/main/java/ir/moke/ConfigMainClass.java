@@ -2,9 +2,9 @@ package ir.moke;
 
 import ir.moke.antlr4.ConfigLexer;
 import ir.moke.antlr4.ConfigParser;
+import ir.moke.common.TwoStageParser;
 import org.antlr.v4.runtime.CharStream;
 import org.antlr.v4.runtime.CharStreams;
-import org.antlr.v4.runtime.CommonTokenStream;
 import org.antlr.v4.runtime.tree.ParseTree;
 
 import java.util.Map;
@@ -22,17 +22,12 @@ public class ConfigMainClass {
         // Step 1: Create a CharStream from input
         CharStream input = CharStreams.fromString(inputText);
 
-        // Step 2: Create a lexer
-        ConfigLexer lexer = new ConfigLexer(input);
-
-        // Step 3: Tokenize input
-        CommonTokenStream tokens = new CommonTokenStream(lexer);
-
-        // Step 4: Create a parser
-        ConfigParser parser = new ConfigParser(tokens);
-
-        // Step 5: Parse starting from the rule "r"
-        ParseTree tree = parser.config();
+        // Step 2: Lex and parse starting from the rule "config", with SLL prediction first and full LL only if it fails
+        TwoStageParser.Result<ConfigParser, ConfigParser.ConfigContext> parsed =
+                TwoStageParser.parse(input, ConfigLexer::new, ConfigParser::new, ConfigParser::config);
+        ConfigParser parser = parsed.parser();
+        ParseTree tree = parsed.tree();
+        System.out.println("Parsed with " + parsed.stage() + " prediction");
 
         // Print the parse tree
         System.out.println(tree.toStringTree(parser));
@@ -2,9 +2,9 @@ package ir.moke;
 
 import ir.moke.antlr4.SqlLexer;
 import ir.moke.antlr4.SqlParser;
+import ir.moke.common.TwoStageParser;
 import org.antlr.v4.runtime.CharStream;
 import org.antlr.v4.runtime.CharStreams;
-import org.antlr.v4.runtime.CommonTokenStream;
 import org.antlr.v4.runtime.tree.ParseTree;
 
 public class SqlMainClass {
@@ -16,17 +16,12 @@ public class SqlMainClass {
         // Step 1: Create a CharStream from input
         CharStream input = CharStreams.fromString(inputText);
 
-        // Step 2: Create a lexer
-        SqlLexer lexer = new SqlLexer(input);
-
-        // Step 3: Tokenize input
-        CommonTokenStream tokens = new CommonTokenStream(lexer);
-
-        // Step 4: Create a parser
-        SqlParser parser = new SqlParser(tokens);
-
-        // Step 5: Parse starting from the rule "r"
-        ParseTree tree = parser.sql();
+        // Step 2: Lex and parse starting from the rule "sql", with SLL prediction first and full LL only if it fails
+        TwoStageParser.Result<SqlParser, SqlParser.SqlContext> parsed =
+                TwoStageParser.parse(input, SqlLexer::new, SqlParser::new, SqlParser::sql);
+        SqlParser parser = parsed.parser();
+        ParseTree tree = parsed.tree();
+        System.out.println("Parsed with " + parsed.stage() + " prediction");
 
         // Print the parse tree
         System.out.println(tree.toStringTree(parser));
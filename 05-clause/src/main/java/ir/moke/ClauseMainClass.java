@@ -2,9 +2,9 @@ package ir.moke;
 
 import ir.moke.antlr4.ClauseLexer;
 import ir.moke.antlr4.ClauseParser;
+import ir.moke.common.TwoStageParser;
 import org.antlr.v4.runtime.CharStream;
 import org.antlr.v4.runtime.CharStreams;
-import org.antlr.v4.runtime.CommonTokenStream;
 import org.antlr.v4.runtime.tree.ParseTree;
 
 public class ClauseMainClass {
@@ -15,17 +15,12 @@ public class ClauseMainClass {
         // Step 1: Create a CharStream from input
         CharStream input = CharStreams.fromString(inputText);
 
-        // Step 2: Create a lexer
-        ClauseLexer lexer = new ClauseLexer(input);
-
-        // Step 3: Tokenize input
-        CommonTokenStream tokens = new CommonTokenStream(lexer);
-
-        // Step 4: Create a parser
-        ClauseParser parser = new ClauseParser(tokens);
-
-        // Step 5: Parse starting from the rule "r"
-        ParseTree tree = parser.expression();
+        // Step 2: Lex and parse starting from the rule "expression", with SLL prediction first and full LL only if it fails
+        TwoStageParser.Result<ClauseParser, ClauseParser.ExpressionContext> parsed =
+                TwoStageParser.parse(input, ClauseLexer::new, ClauseParser::new, ClauseParser::expression);
+        ClauseParser parser = parsed.parser();
+        ParseTree tree = parsed.tree();
+        System.out.println("Parsed with " + parsed.stage() + " prediction");
 
         // Print the parse tree
         System.out.println(tree.toStringTree(parser));
@@ -3,7 +3,8 @@ grammar FilterGrammer;
 import Common;
 
 program
-    : clauses* EOF
+    : clauses* limit? EOF
+    | FILTER '->' limit EOF
     ;
 
 clauses
@@ -18,6 +19,11 @@ expressions
     | arrayFilter
     ;
 
+limit
+    : LIMIT NUMBER  // first N matching elements
+    | FIRST         // first matching element
+    ;
+
 arrayFilter
     : path '[' expressions ']'
     | path '[' NUMBER ']'
@@ -41,10 +47,17 @@ path
     ;
 
 pathSegment
-    : IDENT ('[' ']')?
-    | ('[' ']').IDENT
-    | IDENT '[' NUMBER ']'
-    | '[' NUMBER ']' IDENT
+    : fieldName ('[' ']')?
+    | ('[' ']').fieldName
+    | fieldName '[' NUMBER ']'
+    | '[' NUMBER ']' fieldName
+    ;
+
+// limit and first are keywords only after an expression, fields can still be named after them
+fieldName
+    : IDENT
+    | LIMIT
+    | FIRST
     ;
 
 comparator
@@ -61,3 +74,5 @@ comparator
     ;
 
 FILTER : 'filter';
+LIMIT  : 'limit';
+FIRST  : 'first';
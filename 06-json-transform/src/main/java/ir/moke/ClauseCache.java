@@ -0,0 +1,87 @@
+package ir.moke;
+
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.Function;
+
+/**
+ * Bounded, thread-safe LRU cache of {@link CompiledClause} keyed by normalized clause text.
+ * <p>
+ * Compilation runs outside the lock, so a slow parse never blocks lookups of other clauses. Two threads missing on the
+ * same clause at the same time may both compile it; the first result stored wins.
+ */
+public final class ClauseCache {
+    public static final int DEFAULT_CAPACITY = 256;
+
+    private final int capacity;
+    private final LinkedHashMap<String, CompiledClause> entries;
+    private final LongAdder hits = new LongAdder();
+    private final LongAdder misses = new LongAdder();
+    private final LongAdder evictions = new LongAdder();
+
+    public ClauseCache(int capacity) {
+        if (capacity < 1) throw new IllegalArgumentException("capacity should be greater than zero");
+        this.capacity = capacity;
+        this.entries = new LinkedHashMap<>(16, 0.75f, true) {
+            @Override
+            protected boolean removeEldestEntry(Map.Entry<String, CompiledClause> eldest) {
+                if (size() <= ClauseCache.this.capacity) return false;
+                evictions.increment();
+                return true;
+            }
+        };
+    }
+
+    public CompiledClause get(String key, Function<String, CompiledClause> compiler) {
+        CompiledClause clause;
+        synchronized (entries) {
+            clause = entries.get(key);
+        }
+        if (clause != null) {
+            hits.increment();
+            return clause;
+        }
+
+        misses.increment();
+        CompiledClause compiled = compiler.apply(key);
+        synchronized (entries) {
+            clause = entries.putIfAbsent(key, compiled);
+        }
+        return clause != null ? clause : compiled;
+    }
+
+    public int capacity() {
+        return capacity;
+    }
+
+    public int size() {
+        synchronized (entries) {
+            return entries.size();
+        }
+    }
+
+    public long hitCount() {
+        return hits.sum();
+    }
+
+    public long missCount() {
+        return misses.sum();
+    }
+
+    public long evictionCount() {
+        return evictions.sum();
+    }
+
+    public void clear() {
+        synchronized (entries) {
+            entries.clear();
+        }
+    }
+
+    @Override
+    public String toString() {
+        return "ClauseCache[size=%d, capacity=%d, hits=%d, misses=%d, evictions=%d]"
+                .formatted(size(), capacity, hitCount(), missCount(), evictionCount());
+    }
+}
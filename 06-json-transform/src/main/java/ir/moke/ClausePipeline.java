@@ -0,0 +1,276 @@
+package ir.moke;
+
+import com.fasterxml.jackson.core.JsonGenerator;
+import com.fasterxml.jackson.core.JsonParser;
+import com.fasterxml.jackson.core.JsonToken;
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.databind.ObjectWriter;
+import com.fasterxml.jackson.databind.SerializationFeature;
+import com.fasterxml.jackson.databind.node.ArrayNode;
+import ir.moke.visitor.FilterEvalVisitor;
+import ir.moke.visitor.ParallelOptions;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * An ordered list of compiled clauses that can be evaluated one top-level array element at a time.
+ * <p>
+ * Every filter and map clause only looks at the element it is applied to, so running all clauses on element 1, then
+ * all clauses on element 2 and so on gives the same result as running clause 1 on the whole array, then clause 2 on
+ * the whole array. The only cross-element state is the element position used by a leading {@code [N]} map selector,
+ * which is tracked per stage by a {@link Cursor}.
+ */
+public final class ClausePipeline {
+    private static final ObjectWriter ARRAY_WRITER = JsonStream.mapper.writer()
+            .without(SerializationFeature.INDENT_OUTPUT);
+    /* Writes stream() output: compact, and without the flush of the target after every element */
+    private static final ObjectMapper STREAM_MAPPER = JsonStream.mapper.copy()
+            .disable(SerializationFeature.INDENT_OUTPUT)
+            .disable(SerializationFeature.FLUSH_AFTER_WRITE_VALUE);
+
+    private final List<CompiledClause> clauses;
+
+    private ClausePipeline(List<CompiledClause> clauses) {
+        this.clauses = List.copyOf(clauses);
+    }
+
+    /**
+     * Compile a list of clauses. Empty entries are skipped, like {@link JsonStream#apply(List)} does.
+     */
+    public static ClausePipeline of(List<String> clauses) {
+        List<CompiledClause> compiled = new ArrayList<>(clauses.size());
+        for (String clause : clauses) {
+            if (clause == null || clause.isEmpty()) continue;
+            compiled.add(JsonStream.compileStage(clause));
+        }
+        return new ClausePipeline(compiled);
+    }
+
+    public static ClausePipeline of(CompiledClause... clauses) {
+        return new ClausePipeline(List.of(clauses));
+    }
+
+    public List<CompiledClause> clauses() {
+        return clauses;
+    }
+
+    public Cursor cursor() {
+        return new Cursor();
+    }
+
+    /**
+     * Apply every clause to a json tree, modifying it in place.
+     * <p>
+     * On a top-level array all clauses run in a single pass over the elements instead of one pass per clause. When
+     * {@code parallel} is given and no clause depends on element positions or has a limit the pass is split across
+     * the pool; otherwise it stops as soon as a limit is reached.
+     */
+    public void applyTo(JsonNode root, ParallelOptions parallel) {
+        if (clauses.size() <= 1 || !(root instanceof ArrayNode array)) {
+            for (CompiledClause clause : clauses) clause.applyTo(root, parallel);
+            return;
+        }
+
+        if (parallel != null && clauses.stream().noneMatch(ClausePipeline::dependsOnOrder)) {
+            new FilterEvalVisitor(root, parallel).filter(this::acceptAnywhere);
+        } else {
+            retainAccepted(array);
+        }
+    }
+
+    /**
+     * @return true when the clause can not be applied to an element without the elements before it: it selects
+     * elements by position, or keeps a limited number of them
+     */
+    static boolean dependsOnOrder(CompiledClause clause) {
+        return clause.usesElementIndex() || clause.limit() >= 0;
+    }
+
+    /**
+     * Apply the pipeline to many small documents, each one on its own. Every result is the compact text
+     * {@code JsonStream.of(document).apply(pipeline).toString()} gives, without the setup of a stream per document:
+     * documents are read and written by shared readers and writers and evaluated in place in one pass over their
+     * elements. Safe to call from several threads at once.
+     * <p>
+     * For documents of a few dozen elements this takes about a quarter less time than a stream per document. Most of
+     * the time left is Jackson reading and writing the text, which a per-document call can not avoid.
+     *
+     * @return the result of every document, in order
+     */
+    public List<String> applyEach(List<String> documents) {
+        Telemetry.Span span = Telemetry.begin(new Telemetry.EvaluateEvent());
+        List<String> results = new ArrayList<>(documents.size());
+        for (String document : documents) results.add(apply(document));
+        span.evaluated(this, documents.size(), results.size());
+        return results;
+    }
+
+    /**
+     * Apply the pipeline to one document, see {@link #applyEach(List)}.
+     *
+     * @return the compact json text of the result
+     */
+    public String apply(String document) {
+        try {
+            JsonNode root = JsonStream.mapper.readTree(document);
+            applyInPlace(root);
+            return root.toString();
+        } catch (IOException e) {
+            throw new RuntimeException(e);
+        }
+    }
+
+    /**
+     * Apply the pipeline to one UTF-8 document, see {@link #applyEach(List)}.
+     *
+     * @return the compact json text of the result in UTF-8
+     */
+    public byte[] apply(byte[] document) {
+        try {
+            JsonNode root = JsonStream.mapper.readTree(document);
+            applyInPlace(root);
+            return ARRAY_WRITER.writeValueAsBytes(root);
+        } catch (IOException e) {
+            throw new RuntimeException(e);
+        }
+    }
+
+    private void applyInPlace(JsonNode root) {
+        if (!(root instanceof ArrayNode array)) {
+            for (CompiledClause clause : clauses) clause.applyTo(root, null);
+            return;
+        }
+        retainAccepted(array);
+    }
+
+    /**
+     * Run the elements through a cursor in order and keep the accepted ones, stopping once a limit is reached.
+     */
+    private void retainAccepted(ArrayNode array) {
+        List<JsonNode> kept = new ArrayList<>(array.size());
+        Cursor cursor = cursor();
+        for (int i = 0; i < array.size() && !cursor.exhausted(); i++) {
+            JsonNode element = array.get(i);
+            if (cursor.accept(element)) kept.add(element);
+        }
+        if (kept.size() < array.size()) {
+            array.removeAll();
+            array.addAll(kept);
+        }
+    }
+
+    /**
+     * Run the element through every clause, for pipelines where no clause looks at the element position.
+     */
+    boolean acceptAnywhere(JsonNode element) {
+        for (CompiledClause clause : clauses) {
+            // any position will do, none of the clauses reads it
+            if (!clause.applyToElement(element, 0)) return false;
+        }
+        return true;
+    }
+
+    /**
+     * Read a top-level json array, or newline delimited json documents, from {@code in} and write the elements that
+     * pass every clause to {@code out}. Only one element is held in memory at a time.
+     * <p>
+     * An array input produces an array output. Any other input is read as a sequence of documents, each one handled
+     * like an element of an array, and produces one document per line, each one ended by a newline. Neither stream
+     * is closed, and {@code out} is only flushed once at the end. Once a clause with a limit has kept its last
+     * element, reading stops and the rest of the input is left unread.
+     *
+     * @return number of elements written
+     */
+    public long stream(InputStream in, OutputStream out) throws IOException {
+        Telemetry.Span span = Telemetry.begin(new Telemetry.EvaluateEvent());
+        Cursor cursor = cursor();
+        long read = 0;
+        long written = 0;
+        try (JsonParser parser = JsonStream.mapper.createParser(in)) {
+            parser.disable(JsonParser.Feature.AUTO_CLOSE_SOURCE);
+            JsonToken token = parser.nextToken();
+            if (token == null) {
+                span.evaluated(this, 0, 0);
+                return 0;
+            }
+
+            boolean array = token == JsonToken.START_ARRAY;
+            try (JsonGenerator generator = STREAM_MAPPER.createGenerator(out)) {
+                generator.disable(JsonGenerator.Feature.AUTO_CLOSE_TARGET);
+                // lines are ended below, not separated by the default space
+                generator.setRootValueSeparator(null);
+                if (array) {
+                    generator.writeStartArray();
+                    token = parser.nextToken();
+                }
+                while (token != null && token != JsonToken.END_ARRAY && !cursor.exhausted()) {
+                    JsonNode element = JsonStream.mapper.readTree(parser);
+                    read++;
+                    if (cursor.accept(element)) {
+                        generator.writeTree(element);
+                        if (!array) generator.writeRaw('\n');
+                        written++;
+                    }
+                    token = parser.nextToken();
+                }
+                if (array) generator.writeEndArray();
+            }
+        }
+        span.evaluated(this, read, written);
+        return written;
+    }
+
+    /**
+     * @return the clause texts joined with {@code " | "}
+     */
+    @Override
+    public String toString() {
+        return String.join(" | ", clauses.stream().map(CompiledClause::text).toList());
+    }
+
+    /**
+     * Evaluation state of one pass over an array. A cursor must see the elements in array order and is not
+     * thread-safe.
+     */
+    public final class Cursor {
+        /* Position of the next element in the array each stage sees, i.e. after all earlier filters */
+        private final int[] positions = new int[clauses.size()];
+        /* Elements each stage kept so far, counted for stages with a limit */
+        private final int[] kept = new int[clauses.size()];
+        private boolean exhausted;
+
+        private Cursor() {
+            for (CompiledClause clause : clauses) {
+                if (clause.limit() == 0) exhausted = true;
+            }
+        }
+
+        /**
+         * Run the element through every clause in order. Map clauses modify it in place.
+         *
+         * @return false when a filter dropped the element
+         */
+        public boolean accept(JsonNode element) {
+            if (exhausted) return false;
+            for (int i = 0; i < positions.length; i++) {
+                CompiledClause clause = clauses.get(i);
+                if (!clause.applyToElement(element, positions[i]++)) return false;
+                if (clause.limit() >= 0 && ++kept[i] == clause.limit()) exhausted = true;
+            }
+            return true;
+        }
+
+        /**
+         * @return true once a clause has kept as many elements as its limit allows: no later element can be accepted
+         * and the pass can stop
+         */
+        public boolean exhausted() {
+            return exhausted;
+        }
+    }
+}
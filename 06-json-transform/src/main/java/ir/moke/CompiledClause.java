@@ -0,0 +1,310 @@
+package ir.moke;
+
+import com.fasterxml.jackson.databind.JsonNode;
+import ir.moke.antlr4.FilterGrammerLexer;
+import ir.moke.antlr4.FilterGrammerParser;
+import ir.moke.antlr4.MapGrammerLexer;
+import ir.moke.antlr4.MapGrammerParser;
+import ir.moke.common.TwoStageParser;
+import ir.moke.compiler.BytecodeCompiler;
+import ir.moke.compiler.FilterCompiler;
+import ir.moke.compiler.FilterPredicate;
+import ir.moke.compiler.MapProgram;
+import ir.moke.visitor.FilterEvalVisitor;
+import ir.moke.visitor.MapEvalVisitor;
+import ir.moke.visitor.ParallelOptions;
+import org.antlr.v4.runtime.CharStream;
+import org.antlr.v4.runtime.CharStreams;
+import org.antlr.v4.runtime.Lexer;
+import org.antlr.v4.runtime.Parser;
+import org.antlr.v4.runtime.TokenStream;
+
+import java.util.List;
+import java.util.Objects;
+import java.util.function.Function;
+import java.util.function.Predicate;
+
+/**
+ * A filter or map clause that has already been lexed and parsed.
+ * <p>
+ * Filters are compiled further into {@link FilterPredicate} trees and map clauses into a {@link MapProgram}. Nothing
+ * is modified after compilation, so a compiled clause can be cached and applied to any number of documents from any
+ * number of threads.
+ */
+public final class CompiledClause {
+    private static final String MAP_SIGNATURE = "map -> ";
+    private static final String FILTER_SIGNATURE = "filter -> ";
+    /*
+     * Lexers and parsers are reset for every clause compiled on the same thread instead of built again. This only
+     * matters on clause cache misses, where it saves about a quarter of the compile time; a virtual thread starts
+     * with fresh ones like before.
+     */
+    private static final ThreadLocal<FilterGrammerLexer> FILTER_LEXER = ThreadLocal.withInitial(() -> new FilterGrammerLexer(null));
+    private static final ThreadLocal<FilterGrammerParser> FILTER_PARSER = ThreadLocal.withInitial(() -> new FilterGrammerParser(null));
+    private static final ThreadLocal<MapGrammerLexer> MAP_LEXER = ThreadLocal.withInitial(() -> new MapGrammerLexer(null));
+    private static final ThreadLocal<MapGrammerParser> MAP_PARSER = ThreadLocal.withInitial(() -> new MapGrammerParser(null));
+
+    public enum Type {
+        FILTER, MAP
+    }
+
+    private final Type type;
+    private final String text;
+    private final List<FilterPredicate> filters;
+    /* Elements a filter clause keeps at most, -1 for all */
+    private final int limit;
+    private final MapProgram mapProgram;
+    private final TwoStageParser.Stage parseStage;
+
+    /* Evaluations before filters are compiled to bytecode, negative to never compile */
+    private static volatile int bytecodeThreshold = Integer.getInteger("ir.moke.bytecode.threshold", -1);
+    /* The filters as evaluated: the predicate trees, or the generated classes once compiled */
+    private volatile List<? extends Predicate<JsonNode>> predicates;
+    /* Approximate number of elements tested so far, updated without synchronization */
+    private int evaluations;
+
+    private CompiledClause(Type type, String text, List<FilterPredicate> filters, int limit, MapProgram mapProgram,
+                           TwoStageParser.Stage parseStage) {
+        this.type = type;
+        this.text = text;
+        this.filters = filters;
+        this.limit = limit;
+        this.mapProgram = mapProgram;
+        this.parseStage = parseStage;
+        this.predicates = filters;
+    }
+
+    public Type type() {
+        return type;
+    }
+
+    /**
+     * @return normalized clause text, e.g. {@code filter -> username = "aaa"}
+     */
+    public String text() {
+        return text;
+    }
+
+    /**
+     * @return {@link TwoStageParser.Stage#SLL} when the clause parsed with SLL prediction, {@link TwoStageParser.Stage#LL}
+     * when it needed the full LL fallback
+     */
+    public TwoStageParser.Stage parseStage() {
+        return parseStage;
+    }
+
+    /**
+     * Compile the filters of every clause to bytecode once it has tested {@code evaluations} elements. Generated
+     * classes inline comparisons of plain paths with literals; see {@link BytecodeCompiler}. Defaults to the
+     * {@code ir.moke.bytecode.threshold} system property, or never.
+     *
+     * @param evaluations element tests before compiling, {@code 0} to compile on first use, negative to never compile
+     */
+    public static void bytecodeThreshold(int evaluations) {
+        bytecodeThreshold = evaluations;
+    }
+
+    public static int bytecodeThreshold() {
+        return bytecodeThreshold;
+    }
+
+    /**
+     * @return true when the filters are evaluated by generated classes
+     */
+    public boolean usesBytecode() {
+        List<? extends Predicate<JsonNode>> current = predicates;
+        return current != filters && !current.isEmpty() && !(current.getFirst() instanceof FilterPredicate);
+    }
+
+    /**
+     * @return compiled filters, one per filter clause in the program; empty for a map clause
+     */
+    List<FilterPredicate> filters() {
+        return type == Type.FILTER ? filters : List.of();
+    }
+
+    /**
+     * @return the number of elements a filter clause ending in {@code limit N} or {@code first} keeps at most, the
+     * first ones in array order that pass its filters; {@code -1} when every passing element is kept
+     */
+    public int limit() {
+        return limit;
+    }
+
+    /**
+     * Apply this clause to the given json tree. The tree is modified in place.
+     */
+    public void applyTo(JsonNode node) {
+        applyTo(node, null);
+    }
+
+    /**
+     * Apply this clause to the given json tree, evaluating filters on large arrays in parallel.
+     *
+     * @param parallel parallel settings, or {@code null} for sequential evaluation; a clause with a {@link #limit()}
+     *                 is always evaluated sequentially and stops at the last element it keeps
+     */
+    public void applyTo(JsonNode node, ParallelOptions parallel) {
+        if (type == Type.FILTER && limit >= 0) {
+            List<? extends Predicate<JsonNode>> current = predicates(node.size());
+            new FilterEvalVisitor(node).filter(element -> matchesAll(current, element), limit);
+        } else if (type == Type.FILTER) {
+            FilterEvalVisitor visitor = new FilterEvalVisitor(node, parallel);
+            predicates(node.size()).forEach(visitor::filter);
+        } else {
+            new MapEvalVisitor(node).apply(mapProgram);
+        }
+    }
+
+    /**
+     * Apply this clause to a single element of a top-level array. Filters decide whether the element is kept, maps
+     * modify it in place. The {@link #limit()} is left to the caller, which sees the elements kept so far.
+     *
+     * @param index position of the element in the array this clause sees, i.e. after any earlier filter
+     * @return false when a filter drops the element
+     */
+    public boolean applyToElement(JsonNode element, int index) {
+        if (type == Type.FILTER) return matchesAll(predicates(1), element);
+        new MapEvalVisitor(element).applyElement(mapProgram, element, index);
+        return true;
+    }
+
+    private static boolean matchesAll(List<? extends Predicate<JsonNode>> filters, JsonNode element) {
+        for (Predicate<JsonNode> filter : filters) {
+            if (!filter.test(element)) return false;
+        }
+        return true;
+    }
+
+    private List<? extends Predicate<JsonNode>> predicates(int count) {
+        List<? extends Predicate<JsonNode>> current = predicates;
+        if (current == filters) {
+            int threshold = bytecodeThreshold;
+            if (threshold >= 0 && (evaluations += count) >= threshold) current = generate();
+        }
+        return current;
+    }
+
+    private synchronized List<? extends Predicate<JsonNode>> generate() {
+        if (predicates != filters) return predicates;
+        try {
+            predicates = filters.stream().map(BytecodeCompiler::compile).toList();
+        } catch (RuntimeException | LinkageError e) {
+            // keep interpreting, a copy of the list so generation is not attempted again
+            predicates = List.copyOf(filters);
+        }
+        return predicates;
+    }
+
+    /**
+     * @return true when {@link #applyToElement(JsonNode, int)} depends on the element position
+     */
+    public boolean usesElementIndex() {
+        return type == Type.MAP && mapProgram.usesElementIndex();
+    }
+
+    /**
+     * Normalize a clause to its canonical text: a lower-case {@code filter -> } / {@code map -> } signature followed by
+     * the trimmed clause body.
+     *
+     * @param clause   raw clause text
+     * @param expected clause type; when {@code null} the type is taken from the clause signature
+     */
+    static String normalize(String clause, Type expected) {
+        Objects.requireNonNull(clause);
+        String body;
+        Type type;
+        if (clause.contains("->")) {
+            String[] parts = clause.split("->", 2);
+            String action = parts[0].trim();
+            if (action.equalsIgnoreCase("filter")) {
+                type = Type.FILTER;
+            } else if (action.equalsIgnoreCase("map")) {
+                type = Type.MAP;
+            } else {
+                type = null;
+            }
+            if (expected != null && type != expected) {
+                throw new IllegalStateException("%s clause should started with : '%s ->'".formatted(name(expected), name(expected)));
+            }
+            if (type == null) throw new IllegalStateException("clause should start with 'map|filter'");
+            body = parts[1].trim();
+        } else {
+            if (expected == null) throw new IllegalStateException("clause should start with 'map|filter'");
+            type = expected;
+            body = clause.trim();
+        }
+        return (type == Type.FILTER ? FILTER_SIGNATURE : MAP_SIGNATURE) + body;
+    }
+
+    /**
+     * Lex and parse a clause that was already {@link #normalize(String, Type) normalized}.
+     */
+    static CompiledClause compile(String normalized) {
+        Telemetry.Span span = Telemetry.begin(new Telemetry.ParseEvent());
+        CompiledClause clause;
+        TwoStageParser.Result<?, ?> parsed;
+        if (normalized.startsWith(FILTER_SIGNATURE)) {
+            TwoStageParser.Result<FilterGrammerParser, FilterGrammerParser.ProgramContext> result =
+                    GrammarCache.parse(() -> parseFilter(normalized));
+            clause = new CompiledClause(Type.FILTER, normalized, FilterCompiler.compile(result.tree()),
+                    FilterCompiler.limit(result.tree()), null, result.stage());
+            parsed = result;
+        } else {
+            TwoStageParser.Result<MapGrammerParser, MapGrammerParser.ProgramContext> result =
+                    GrammarCache.parse(() -> parseMap(normalized));
+            clause = new CompiledClause(Type.MAP, normalized, null, -1, MapProgram.compile(result.tree()), result.stage());
+            parsed = result;
+        }
+        span.parsed(normalized, parsed.stage().name(), parsed.lexNanos(), parsed.parseNanos());
+        GrammarCache.afterParse();
+        return clause;
+    }
+
+    private static TwoStageParser.Result<FilterGrammerParser, FilterGrammerParser.ProgramContext> parseFilter(String filterClause) {
+        // Step 1: Create a CharStream from input
+        CharStream input = CharStreams.fromString(filterClause);
+
+        // Step 2: Lex and parse, with SLL prediction first and full LL only if it fails
+        return TwoStageParser.parse(input, reuseLexer(FILTER_LEXER), reuseParser(FILTER_PARSER), FilterGrammerParser::program);
+    }
+
+    private static TwoStageParser.Result<MapGrammerParser, MapGrammerParser.ProgramContext> parseMap(String mapClause) {
+        // Step 1: Create a CharStream from input
+        CharStream input = CharStreams.fromString(mapClause);
+
+        // Step 2: Lex and parse, with SLL prediction first and full LL only if it fails
+        return TwoStageParser.parse(input, reuseLexer(MAP_LEXER), reuseParser(MAP_PARSER), MapGrammerParser::program);
+    }
+
+    /**
+     * @return the lexer of this thread, reset to read {@code input}
+     */
+    private static <L extends Lexer> Function<CharStream, L> reuseLexer(ThreadLocal<L> lexer) {
+        return input -> {
+            L reused = lexer.get();
+            reused.setInputStream(input);
+            return reused;
+        };
+    }
+
+    /**
+     * @return the parser of this thread, reset to read {@code tokens}
+     */
+    private static <P extends Parser> Function<TokenStream, P> reuseParser(ThreadLocal<P> parser) {
+        return tokens -> {
+            P reused = parser.get();
+            reused.setTokenStream(tokens);
+            return reused;
+        };
+    }
+
+    private static String name(Type type) {
+        return type == Type.FILTER ? "filter" : "map";
+    }
+
+    @Override
+    public String toString() {
+        return text;
+    }
+}
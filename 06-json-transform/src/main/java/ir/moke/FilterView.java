@@ -0,0 +1,363 @@
+package ir.moke;
+
+import com.fasterxml.jackson.core.JsonPointer;
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.node.ArrayNode;
+import com.fasterxml.jackson.databind.node.ObjectNode;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Objects;
+
+/**
+ * The result of a {@link ClausePipeline} over a changing array, kept current one element at a time.
+ * <pre>{@code
+ * FilterView view = FilterView.of(users, ClausePipeline.of(List.of("filter -> profile.age > 30", "map -> adult = 1")));
+ * view.update(12, user);
+ * view.patch(JsonStream.of("[{\"op\": \"remove\", \"path\": \"/3\"}]").toJsonNode());
+ * ArrayNode adults = view.view();
+ * }</pre>
+ * Clauses only look at the element they are applied to, so a change to one element of the source only needs that
+ * element evaluated again; an update costs the clauses on one element instead of a pass over the array. Clauses that
+ * select elements by position, a leading {@code [N]} in a map, are rejected since every insert or delete moves the
+ * elements after it, and so are filters ending in {@code limit N} or {@code first}.
+ * <p>
+ * The view holds an evaluated copy of every element that passes the filters, in source order. The source array is
+ * owned by the view once it is created: it is changed through the view only, and elements are not shared between the
+ * source and the view. Positions in the view are found with a Fenwick tree over the kept elements, in logarithmic
+ * time for updates and appends; inserting or deleting before the end rebuilds it in linear time, like the array
+ * shift the insert or delete does anyway. Not thread-safe.
+ */
+public final class FilterView {
+    private final ArrayNode source;
+    private final ClausePipeline pipeline;
+    /* Evaluated copy of every source element, null where a filter dropped it */
+    private final List<JsonNode> outputs;
+    private final ArrayNode view;
+    private final KeptCounts kept;
+
+    private FilterView(ArrayNode source, ClausePipeline pipeline) {
+        for (CompiledClause clause : pipeline.clauses()) {
+            if (clause.usesElementIndex()) {
+                throw new IllegalArgumentException("Clause selects elements by position and can not be maintained incrementally: " + clause.text());
+            }
+            if (clause.limit() >= 0) {
+                throw new IllegalArgumentException("Clause keeps a limited number of elements and can not be maintained incrementally: " + clause.text());
+            }
+        }
+        this.source = source;
+        this.pipeline = pipeline;
+        this.outputs = new ArrayList<>(source.size());
+        this.view = source.arrayNode();
+        for (JsonNode element : source) {
+            JsonNode output = evaluate(element);
+            outputs.add(output);
+            if (output != null) view.add(output);
+        }
+        this.kept = new KeptCounts(outputs);
+    }
+
+    /**
+     * Evaluate every element of {@code source} once and keep the result current from then on.
+     */
+    public static FilterView of(ArrayNode source, ClausePipeline pipeline) {
+        return new FilterView(Objects.requireNonNull(source), Objects.requireNonNull(pipeline));
+    }
+
+    public static FilterView of(ArrayNode source, CompiledClause... clauses) {
+        return of(source, ClausePipeline.of(clauses));
+    }
+
+    /**
+     * @return the source array, to be read only; changes go through {@link #insert}, {@link #update},
+     * {@link #delete} or {@link #patch}
+     */
+    public ArrayNode source() {
+        return source;
+    }
+
+    /**
+     * @return the elements of the source that pass the filters, transformed by the maps; to be read only, it is kept
+     * current as the source changes
+     */
+    public ArrayNode view() {
+        return view;
+    }
+
+    public ClausePipeline pipeline() {
+        return pipeline;
+    }
+
+    public int size() {
+        return source.size();
+    }
+
+    /**
+     * Append an element to the source.
+     */
+    public void add(JsonNode element) {
+        insert(source.size(), element);
+    }
+
+    /**
+     * Insert an element into the source at {@code index}, moving the elements from there on.
+     */
+    public void insert(int index, JsonNode element) {
+        Objects.requireNonNull(element);
+        Objects.checkIndex(index, source.size() + 1);
+        boolean append = index == source.size();
+        source.insert(index, element);
+        JsonNode output = evaluate(element);
+        outputs.add(index, output);
+        if (append) kept.append(output != null);
+        else kept.rebuild(outputs);
+        if (output != null) view.insert(kept.before(index), output);
+    }
+
+    /**
+     * Replace the element of the source at {@code index}.
+     */
+    public void update(int index, JsonNode element) {
+        Objects.requireNonNull(element);
+        Objects.checkIndex(index, source.size());
+        source.set(index, element);
+        refresh(index);
+    }
+
+    /**
+     * Evaluate the element of the source at {@code index} again, after it was changed in place.
+     */
+    public void refresh(int index) {
+        Objects.checkIndex(index, source.size());
+        JsonNode output = evaluate(source.get(index));
+        JsonNode previous = outputs.set(index, output);
+        int position = kept.before(index);
+        if (previous != null && output != null) {
+            view.set(position, output);
+        } else if (previous != null) {
+            view.remove(position);
+            kept.add(index, -1);
+        } else if (output != null) {
+            view.insert(position, output);
+            kept.add(index, 1);
+        }
+    }
+
+    /**
+     * Remove the element of the source at {@code index}.
+     *
+     * @return the removed element
+     */
+    public JsonNode delete(int index) {
+        Objects.checkIndex(index, source.size());
+        JsonNode output = outputs.remove(index);
+        if (output != null) view.remove(kept.before(index));
+        if (index == outputs.size()) kept.removeLast();
+        else kept.rebuild(outputs);
+        return source.remove(index);
+    }
+
+    /**
+     * Apply a JSON Patch (RFC 6902) to the source. Operations on a whole element, {@code /N} or {@code /-}, insert,
+     * update or delete it; operations inside an element, {@code /N/...}, change it in place and evaluate it again.
+     * <p>
+     * Operations are applied in order. When one fails, with an {@link IllegalArgumentException}, the ones before it
+     * stay applied.
+     */
+    public void patch(JsonNode patch) {
+        if (!patch.isArray()) throw new IllegalArgumentException("JSON Patch should be an array of operations");
+        for (JsonNode operation : patch) {
+            String op = operation.path("op").asText();
+            JsonPointer path = pointer(operation, "path");
+            switch (op) {
+                case "add" -> add(path, value(operation));
+                case "remove" -> remove(path);
+                case "replace" -> replace(path, value(operation));
+                case "move" -> {
+                    JsonPointer from = pointer(operation, "from");
+                    if (path.toString().startsWith(from + "/")) {
+                        throw new IllegalArgumentException("Can not move " + from + " into itself");
+                    }
+                    add(path, remove(from));
+                }
+                case "copy" -> add(path, get(pointer(operation, "from")).deepCopy());
+                case "test" -> {
+                    if (!get(path).equals(value(operation))) {
+                        throw new IllegalArgumentException("Test failed at " + path);
+                    }
+                }
+                default -> throw new IllegalArgumentException("Unknown JSON Patch operation: " + operation);
+            }
+        }
+    }
+
+    private void add(JsonPointer path, JsonNode value) {
+        if (path.matches()) throw new IllegalArgumentException("The source array itself can not be replaced");
+        if (path.tail().matches()) {
+            insert(index(path, true), value);
+            return;
+        }
+        int index = index(path, false);
+        JsonNode parent = source.get(index).at(path.tail().head());
+        String last = path.last().getMatchingProperty();
+        if (parent instanceof ObjectNode object) {
+            object.set(last, value);
+        } else if (parent instanceof ArrayNode array) {
+            int position = last.equals("-") ? array.size() : arrayIndex(path, last, array.size() + 1);
+            array.insert(position, value);
+        } else {
+            throw new IllegalArgumentException("No container at " + path.head());
+        }
+        refresh(index);
+    }
+
+    private void replace(JsonPointer path, JsonNode value) {
+        if (path.matches()) throw new IllegalArgumentException("The source array itself can not be replaced");
+        if (path.tail().matches()) {
+            update(index(path, false), value);
+            return;
+        }
+        int index = index(path, false);
+        JsonNode parent = source.get(index).at(path.tail().head());
+        String last = path.last().getMatchingProperty();
+        if (parent instanceof ObjectNode object && object.has(last)) {
+            object.set(last, value);
+        } else if (parent instanceof ArrayNode array) {
+            array.set(arrayIndex(path, last, array.size()), value);
+        } else {
+            throw new IllegalArgumentException("No value at " + path);
+        }
+        refresh(index);
+    }
+
+    private JsonNode remove(JsonPointer path) {
+        if (path.matches()) throw new IllegalArgumentException("The source array itself can not be removed");
+        if (path.tail().matches()) return delete(index(path, false));
+        int index = index(path, false);
+        JsonNode parent = source.get(index).at(path.tail().head());
+        String last = path.last().getMatchingProperty();
+        JsonNode removed;
+        if (parent instanceof ObjectNode object && object.has(last)) {
+            removed = object.remove(last);
+        } else if (parent instanceof ArrayNode array) {
+            removed = array.remove(arrayIndex(path, last, array.size()));
+        } else {
+            throw new IllegalArgumentException("No value at " + path);
+        }
+        refresh(index);
+        return removed;
+    }
+
+    private JsonNode get(JsonPointer path) {
+        JsonNode value = source.at(path);
+        if (value.isMissingNode()) throw new IllegalArgumentException("No value at " + path);
+        return value;
+    }
+
+    /**
+     * @param end whether {@code -}, the position after the last element, is accepted
+     * @return the source position the first segment of {@code path} refers to
+     */
+    private int index(JsonPointer path, boolean end) {
+        String segment = path.getMatchingProperty();
+        if (end && segment.equals("-")) return source.size();
+        return arrayIndex(path, segment, end ? source.size() + 1 : source.size());
+    }
+
+    private static int arrayIndex(JsonPointer path, String segment, int bound) {
+        int index = segment.isEmpty() || (segment.length() > 1 && segment.startsWith("0")) ? -1 : parseIndex(segment);
+        if (index < 0 || index >= bound) throw new IllegalArgumentException("Invalid array index in " + path);
+        return index;
+    }
+
+    private static int parseIndex(String segment) {
+        for (int i = 0; i < segment.length(); i++) {
+            if (segment.charAt(i) < '0' || segment.charAt(i) > '9') return -1;
+        }
+        try {
+            return Integer.parseInt(segment);
+        } catch (NumberFormatException e) {
+            return -1;
+        }
+    }
+
+    private static JsonPointer pointer(JsonNode operation, String member) {
+        JsonNode pointer = operation.get(member);
+        if (pointer == null || !pointer.isTextual()) {
+            throw new IllegalArgumentException("JSON Patch operation without " + member + ": " + operation);
+        }
+        try {
+            return JsonPointer.compile(pointer.textValue());
+        } catch (IllegalArgumentException e) {
+            throw new IllegalArgumentException("Invalid JSON Pointer in " + operation, e);
+        }
+    }
+
+    private static JsonNode value(JsonNode operation) {
+        JsonNode value = operation.get("value");
+        if (value == null) throw new IllegalArgumentException("JSON Patch operation without value: " + operation);
+        return value.deepCopy();
+    }
+
+    /**
+     * @return an evaluated copy of {@code element}, or {@code null} when a filter drops it
+     */
+    private JsonNode evaluate(JsonNode element) {
+        JsonNode copy = element.deepCopy();
+        return pipeline.acceptAnywhere(copy) ? copy : null;
+    }
+
+    /**
+     * Fenwick tree of the number of kept elements per source position, to find where a source element goes in the
+     * view.
+     */
+    private static final class KeptCounts {
+        /* 1-based, tree[i] holds the count of the positions (i - lowbit(i), i] */
+        private int[] tree;
+        private int size;
+
+        KeptCounts(List<JsonNode> outputs) {
+            rebuild(outputs);
+        }
+
+        /**
+         * Build from scratch in linear time.
+         */
+        void rebuild(List<JsonNode> outputs) {
+            size = outputs.size();
+            if (tree == null || tree.length < size + 1) tree = new int[Math.max(16, size + 1 + (size >> 1))];
+            else Arrays.fill(tree, 0, size + 1, 0);
+            for (int i = 1; i <= size; i++) {
+                tree[i] += outputs.get(i - 1) != null ? 1 : 0;
+                int parent = i + (i & -i);
+                if (parent <= size) tree[parent] += tree[i];
+            }
+        }
+
+        /**
+         * @return number of kept elements before source position {@code index}
+         */
+        int before(int index) {
+            int count = 0;
+            for (int i = index; i > 0; i -= i & -i) count += tree[i];
+            return count;
+        }
+
+        void add(int index, int delta) {
+            for (int i = index + 1; i <= size; i += i & -i) tree[i] += delta;
+        }
+
+        void append(boolean kept) {
+            if (size + 1 == tree.length) tree = Arrays.copyOf(tree, tree.length + (tree.length >> 1));
+            int i = ++size;
+            // the node covers (i - lowbit(i), i]: the new position plus positions already counted
+            tree[i] = (kept ? 1 : 0) + before(i - 1) - before(i - (i & -i));
+        }
+
+        void removeLast() {
+            // nodes below the last position never cover it
+            size--;
+        }
+    }
+}
@@ -0,0 +1,135 @@
+package ir.moke;
+
+import ir.moke.antlr4.FilterGrammerLexer;
+import ir.moke.antlr4.FilterGrammerParser;
+import ir.moke.antlr4.MapGrammerLexer;
+import ir.moke.antlr4.MapGrammerParser;
+import org.antlr.v4.runtime.CharStreams;
+import org.antlr.v4.runtime.CommonTokenStream;
+import org.antlr.v4.runtime.atn.LexerATNSimulator;
+import org.antlr.v4.runtime.atn.ParserATNSimulator;
+import org.antlr.v4.runtime.dfa.DFA;
+
+import java.util.concurrent.atomic.LongAdder;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+import java.util.function.Supplier;
+
+/**
+ * The DFA caches ANTLR builds while predicting filter and map clauses.
+ * <p>
+ * Every lexer and parser of a grammar shares one static DFA per decision, grown on demand as new inputs are seen. A
+ * fresh process starts with empty DFAs, which is why the first clauses parse much slower (see {@link Warmup}). A
+ * process that parses many ad-hoc clauses keeps adding states; {@link #maxDfaStates(int)} puts an upper bound on them.
+ */
+public final class GrammarCache {
+    private static final LexerATNSimulator FILTER_LEXER;
+    private static final ParserATNSimulator FILTER_PARSER;
+    private static final LexerATNSimulator MAP_LEXER;
+    private static final ParserATNSimulator MAP_PARSER;
+
+    /* Held for reading by every parse of the library, for writing by clear(), which swaps the DFAs parses read */
+    private static final ReentrantReadWriteLock PARSES = new ReentrantReadWriteLock();
+
+    private static volatile int maxDfaStates;
+    private static final LongAdder clears = new LongAdder();
+
+    static {
+        // the simulators of any instance give access to the shared DFAs
+        FilterGrammerLexer filterLexer = new FilterGrammerLexer(CharStreams.fromString(""));
+        FILTER_LEXER = filterLexer.getInterpreter();
+        FILTER_PARSER = new FilterGrammerParser(new CommonTokenStream(filterLexer)).getInterpreter();
+        MapGrammerLexer mapLexer = new MapGrammerLexer(CharStreams.fromString(""));
+        MAP_LEXER = mapLexer.getInterpreter();
+        MAP_PARSER = new MapGrammerParser(new CommonTokenStream(mapLexer)).getInterpreter();
+    }
+
+    /**
+     * Number of DFA states per lexer and parser.
+     */
+    public record DfaStats(int filterLexer, int filterParser, int mapLexer, int mapParser) {
+        public int total() {
+            return filterLexer + filterParser + mapLexer + mapParser;
+        }
+    }
+
+    private GrammarCache() {
+    }
+
+    public static DfaStats dfaStates() {
+        return new DfaStats(count(FILTER_LEXER.decisionToDFA), count(FILTER_PARSER.decisionToDFA),
+                count(MAP_LEXER.decisionToDFA), count(MAP_PARSER.decisionToDFA));
+    }
+
+    /**
+     * Drop every DFA state of both grammars. Clauses parsed afterwards are predicted from the ATN again until the DFAs
+     * are rebuilt.
+     * <p>
+     * ANTLR replaces the shared DFAs in place, under the feet of any parse still reading them, so this waits for the
+     * clause and path parses of this library that are in progress and holds new ones back until it is done. Parsers
+     * created directly from the generated classes are not covered and must not run while the DFAs are cleared.
+     */
+    public static void clear() {
+        PARSES.writeLock().lock();
+        try {
+            FILTER_LEXER.clearDFA();
+            FILTER_PARSER.clearDFA();
+            MAP_LEXER.clearDFA();
+            MAP_PARSER.clearDFA();
+        } finally {
+            PARSES.writeLock().unlock();
+        }
+        clears.increment();
+    }
+
+    /**
+     * Run a lex and parse with the grammars, never at the same time as {@link #clear()}.
+     */
+    static <T> T parse(Supplier<T> parse) {
+        PARSES.readLock().lock();
+        try {
+            return parse.get();
+        } finally {
+            PARSES.readLock().unlock();
+        }
+    }
+
+    /**
+     * Clear the DFAs whenever a newly compiled clause leaves more than {@code limit} states in total.
+     *
+     * @param limit maximum number of states, or {@code 0} for no limit
+     */
+    public static void maxDfaStates(int limit) {
+        if (limit < 0) throw new IllegalArgumentException("limit should not be negative");
+        maxDfaStates = limit;
+    }
+
+    public static int maxDfaStates() {
+        return maxDfaStates;
+    }
+
+    /**
+     * @return how many times the DFAs were cleared, explicitly or because of {@link #maxDfaStates(int)}
+     */
+    public static long clearCount() {
+        return clears.sum();
+    }
+
+    /**
+     * Enforce {@link #maxDfaStates(int)}, called after each clause compilation.
+     */
+    static void afterParse() {
+        int limit = maxDfaStates;
+        if (limit > 0 && dfaStates().total() > limit) clear();
+    }
+
+    private static int count(DFA[] dfas) {
+        int states = 0;
+        for (DFA dfa : dfas) {
+            // ANTLR adds states under this lock
+            synchronized (dfa.states) {
+                states += dfa.states.size();
+            }
+        }
+        return states;
+    }
+}
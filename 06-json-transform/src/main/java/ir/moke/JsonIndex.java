@@ -0,0 +1,354 @@
+package ir.moke;
+
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.node.ArrayNode;
+import ir.moke.compiler.CompareOperator;
+import ir.moke.compiler.FilterPath;
+import ir.moke.compiler.FilterPredicate;
+import ir.moke.compiler.Operand;
+
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+
+/**
+ * Secondary index over one path of the elements of a top-level array.
+ * <p>
+ * Numbers and strings found at the path are grouped in hash maps for equality lookups and kept as sorted distinct keys
+ * for range lookups. An index only narrows down the elements a filter has to look at: the compiled predicate is still
+ * evaluated on every candidate, so the result, including the errors raised when strings are compared with numbers, is
+ * the same as a full scan. Elements where the path matches several nodes or a value that is neither a number nor a
+ * string are always candidates.
+ * <p>
+ * Elements a comparison may fail on stay candidates of an {@code and} whose right side rules them out, since the left
+ * side is evaluated on them first. An {@code and}, or a later filter, after a comparison no index answers is therefore
+ * not narrowed down at all.
+ * <p>
+ * An index describes the array as it was when the index was built and is dropped by {@link JsonStream} as soon as the
+ * array changes.
+ */
+final class JsonIndex {
+    private static final int[] NONE = new int[0];
+
+    private final FilterPath path;
+
+    /* Positions, ascending, of the elements whose value is a number, a string or anything else */
+    private final int[] numberPositions;
+    private final int[] stringPositions;
+    private final int[] otherPositions;
+
+    private final Map<Double, int[]> numbers;
+    private final double[] numberKeys;
+    private final int[][] numberGroups;
+
+    private final Map<String, int[]> strings;
+    private final Map<String, int[]> foldedStrings;
+    private final String[] stringKeys;
+    private final int[][] stringGroups;
+
+    private JsonIndex(FilterPath path, int[] numberPositions, int[] stringPositions, int[] otherPositions,
+                      TreeMap<Double, int[]> numbers, TreeMap<String, int[]> strings) {
+        this.path = path;
+        this.numberPositions = numberPositions;
+        this.stringPositions = stringPositions;
+        this.otherPositions = otherPositions;
+
+        this.numbers = new HashMap<>(numbers);
+        this.numberKeys = new double[numbers.size()];
+        this.numberGroups = new int[numbers.size()][];
+        int i = 0;
+        for (Map.Entry<Double, int[]> entry : numbers.entrySet()) {
+            numberKeys[i] = entry.getKey();
+            numberGroups[i++] = entry.getValue();
+        }
+
+        this.strings = new HashMap<>(strings);
+        this.stringKeys = strings.keySet().toArray(String[]::new);
+        this.stringGroups = strings.values().toArray(int[][]::new);
+        Map<String, int[]> folded = new HashMap<>();
+        for (Map.Entry<String, int[]> entry : strings.entrySet()) {
+            folded.merge(fold(entry.getKey()), entry.getValue(), JsonIndex::union);
+        }
+        this.foldedStrings = folded;
+    }
+
+    /**
+     * Index the value {@code path} resolves to in every element of {@code array}.
+     */
+    static JsonIndex build(ArrayNode array, FilterPath path) {
+        Positions numberPositions = new Positions();
+        Positions stringPositions = new Positions();
+        Positions otherPositions = new Positions();
+        TreeMap<Double, Positions> numbers = new TreeMap<>();
+        TreeMap<String, Positions> strings = new TreeMap<>();
+
+        for (int i = 0; i < array.size(); i++) {
+            JsonNode value = path.read(array.get(i));
+            // a path without a match fails every comparison
+            if (value == null) continue;
+            if (value.isNumber()) {
+                numberPositions.add(i);
+                numbers.computeIfAbsent(key(value.doubleValue()), k -> new Positions()).add(i);
+            } else if (value.isTextual()) {
+                stringPositions.add(i);
+                strings.computeIfAbsent(value.textValue(), k -> new Positions()).add(i);
+            } else {
+                otherPositions.add(i);
+            }
+        }
+
+        TreeMap<Double, int[]> numberGroups = new TreeMap<>();
+        numbers.forEach((key, positions) -> numberGroups.put(key, positions.toArray()));
+        TreeMap<String, int[]> stringGroups = new TreeMap<>();
+        strings.forEach((key, positions) -> stringGroups.put(key, positions.toArray()));
+        return new JsonIndex(path, numberPositions.toArray(), stringPositions.toArray(), otherPositions.toArray(),
+                numberGroups, stringGroups);
+    }
+
+    FilterPath path() {
+        return path;
+    }
+
+    /**
+     * Positions of the elements that may pass every filter of {@code clause}, in array order.
+     *
+     * @return candidate positions, or {@code null} when no index applies and every element has to be tested
+     */
+    static int[] candidates(CompiledClause clause, Map<String, JsonIndex> indexes) {
+        List<FilterPredicate> filters = clause.filters();
+        if (filters.isEmpty()) return null;
+        Candidates candidates = candidates(filters.getFirst(), indexes);
+        // later filters only see the elements earlier ones kept, like the right side of an and
+        for (int i = 1; i < filters.size(); i++) candidates = both(candidates, candidates(filters.get(i), indexes));
+        return candidates == null ? null : candidates.positions();
+    }
+
+    /**
+     * Elements a predicate may hold for, or fail on with an exception ({@code positions}), and among them those it may
+     * fail on ({@code failing}). On every other element the predicate is false without an error.
+     */
+    private record Candidates(int[] positions, int[] failing) {
+    }
+
+    /**
+     * @return candidates of {@code left and right}, where {@code null} stands for every element
+     */
+    private static Candidates both(Candidates left, Candidates right) {
+        if (left == null) return null;
+        if (right == null) return left;
+        // the left side is evaluated on elements the right side rules out too, and may fail there
+        return new Candidates(union(intersect(left.positions(), right.positions()), left.failing()),
+                union(left.failing(), right.failing()));
+    }
+
+    private static Candidates candidates(FilterPredicate predicate, Map<String, JsonIndex> indexes) {
+        return switch (predicate) {
+            case FilterPredicate.And and -> both(candidates(and.left(), indexes), candidates(and.right(), indexes));
+            case FilterPredicate.Or or -> {
+                Candidates left = candidates(or.left(), indexes);
+                if (left == null) yield null;
+                Candidates right = candidates(or.right(), indexes);
+                yield right == null ? null : new Candidates(union(left.positions(), right.positions()),
+                        union(left.failing(), right.failing()));
+            }
+            case FilterPredicate.Comparison comparison -> {
+                if (comparison.left() instanceof Operand.Path(FilterPath path)
+                        && comparison.right() instanceof Operand.Literal(JsonNode literal)) {
+                    JsonIndex index = indexes.get(path.text());
+                    yield index == null ? null : index.candidates(comparison.operator(), literal);
+                }
+                if (comparison.left() instanceof Operand.Literal(JsonNode literal)
+                        && comparison.right() instanceof Operand.Path(FilterPath path)) {
+                    JsonIndex index = indexes.get(path.text());
+                    yield index == null ? null : index.candidates(mirror(comparison.operator()), literal);
+                }
+                yield null;
+            }
+            default -> null;
+        };
+    }
+
+    /**
+     * @return the elements where {@code value operator literal} may hold or fail, or {@code null} when the operator
+     * can not be answered from the index
+     */
+    private Candidates candidates(CompareOperator operator, JsonNode literal) {
+        int[] matches;
+        int[] otherType;
+        if (literal.isNumber()) {
+            double key = key(literal.doubleValue());
+            matches = switch (operator) {
+                case EQUAL, EQUAL_IGNORE_CASE -> numbers.getOrDefault(key, NONE);
+                case GREATER -> numberRange(upperBound(key), numberKeys.length);
+                case GREATER_EQUAL -> numberRange(lowerBound(key), numberKeys.length);
+                case LESS -> numberRange(0, lowerBound(key));
+                case LESS_EQUAL -> numberRange(0, upperBound(key));
+                default -> null;
+            };
+            otherType = stringPositions;
+        } else if (literal.isTextual()) {
+            String key = literal.textValue();
+            matches = switch (operator) {
+                case EQUAL -> strings.getOrDefault(key, NONE);
+                case EQUAL_IGNORE_CASE -> foldedStrings.getOrDefault(fold(key), NONE);
+                case GREATER -> stringRange(upperBound(key), stringKeys.length);
+                case GREATER_EQUAL -> stringRange(lowerBound(key), stringKeys.length);
+                case LESS -> stringRange(0, lowerBound(key));
+                case LESS_EQUAL -> stringRange(0, upperBound(key));
+                default -> null;
+            };
+            otherType = numberPositions;
+        } else {
+            return null;
+        }
+        if (matches == null) return null;
+        // values of another type are compared the way a scan would, whatever that gives
+        int[] failing = union(otherType, otherPositions);
+        return new Candidates(union(matches, failing), failing);
+    }
+
+    private int[] numberRange(int from, int to) {
+        return range(numberGroups, from, to);
+    }
+
+    private int[] stringRange(int from, int to) {
+        return range(stringGroups, from, to);
+    }
+
+    private static int[] range(int[][] groups, int from, int to) {
+        int length = 0;
+        for (int i = from; i < to; i++) length += groups[i].length;
+        int[] positions = new int[length];
+        int offset = 0;
+        for (int i = from; i < to; i++) {
+            System.arraycopy(groups[i], 0, positions, offset, groups[i].length);
+            offset += groups[i].length;
+        }
+        Arrays.sort(positions);
+        return positions;
+    }
+
+    /* First key not less than / greater than the given key */
+    private int lowerBound(double key) {
+        int low = 0, high = numberKeys.length;
+        while (low < high) {
+            int mid = (low + high) >>> 1;
+            if (numberKeys[mid] < key) low = mid + 1;
+            else high = mid;
+        }
+        return low;
+    }
+
+    private int upperBound(double key) {
+        int low = 0, high = numberKeys.length;
+        while (low < high) {
+            int mid = (low + high) >>> 1;
+            if (numberKeys[mid] <= key) low = mid + 1;
+            else high = mid;
+        }
+        return low;
+    }
+
+    private int lowerBound(String key) {
+        int low = 0, high = stringKeys.length;
+        while (low < high) {
+            int mid = (low + high) >>> 1;
+            if (stringKeys[mid].compareTo(key) < 0) low = mid + 1;
+            else high = mid;
+        }
+        return low;
+    }
+
+    private int upperBound(String key) {
+        int low = 0, high = stringKeys.length;
+        while (low < high) {
+            int mid = (low + high) >>> 1;
+            if (stringKeys[mid].compareTo(key) <= 0) low = mid + 1;
+            else high = mid;
+        }
+        return low;
+    }
+
+    /**
+     * Operator to use when the literal is on the left, e.g. {@code 30 < age} is looked up as {@code age > 30}.
+     */
+    private static CompareOperator mirror(CompareOperator operator) {
+        return switch (operator) {
+            case GREATER -> CompareOperator.LESS;
+            case GREATER_EQUAL -> CompareOperator.LESS_EQUAL;
+            case LESS -> CompareOperator.GREATER;
+            case LESS_EQUAL -> CompareOperator.GREATER_EQUAL;
+            default -> operator;
+        };
+    }
+
+    /* 0.0 == -0.0 for the comparison operators, they must share a hash key */
+    private static double key(double value) {
+        return value == 0 ? 0.0 : value;
+    }
+
+    /**
+     * Case folding used by {@link String#equalsIgnoreCase(String)}: two strings are equal ignoring case only if their
+     * folded forms are equal.
+     */
+    private static String fold(String value) {
+        StringBuilder sb = new StringBuilder(value.length());
+        value.codePoints().forEach(c -> sb.appendCodePoint(Character.toLowerCase(Character.toUpperCase(c))));
+        return sb.toString();
+    }
+
+    /**
+     * @return positions in both arrays
+     */
+    private static int[] intersect(int[] a, int[] b) {
+        int[] result = new int[Math.min(a.length, b.length)];
+        int i = 0, j = 0, n = 0;
+        while (i < a.length && j < b.length) {
+            if (a[i] < b[j]) i++;
+            else if (a[i] > b[j]) j++;
+            else {
+                result[n++] = a[i];
+                i++;
+                j++;
+            }
+        }
+        return Arrays.copyOf(result, n);
+    }
+
+    private static int[] union(int[] a, int[] b) {
+        if (a.length == 0) return b;
+        if (b.length == 0) return a;
+        int[] result = new int[a.length + b.length];
+        int i = 0, j = 0, n = 0;
+        while (i < a.length && j < b.length) {
+            if (a[i] < b[j]) result[n++] = a[i++];
+            else if (a[i] > b[j]) result[n++] = b[j++];
+            else {
+                result[n++] = a[i++];
+                j++;
+            }
+        }
+        while (i < a.length) result[n++] = a[i++];
+        while (j < b.length) result[n++] = b[j++];
+        return n == result.length ? result : Arrays.copyOf(result, n);
+    }
+
+    /**
+     * Growable list of positions, added in ascending order.
+     */
+    private static final class Positions {
+        private int[] values = new int[4];
+        private int size;
+
+        void add(int position) {
+            if (size == values.length) values = Arrays.copyOf(values, size * 2);
+            values[size++] = position;
+        }
+
+        int[] toArray() {
+            return Arrays.copyOf(values, size);
+        }
+    }
+}
@@ -1,30 +1,60 @@
 package ir.moke;
 
+import com.fasterxml.jackson.core.JsonGenerator;
+import com.fasterxml.jackson.core.JsonParser;
 import com.fasterxml.jackson.core.JsonProcessingException;
 import com.fasterxml.jackson.core.util.DefaultIndenter;
 import com.fasterxml.jackson.core.util.DefaultPrettyPrinter;
 import com.fasterxml.jackson.databind.JsonNode;
 import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.databind.ObjectWriter;
 import com.fasterxml.jackson.databind.SerializationFeature;
-import ir.moke.antlr4.FilterGrammerLexer;
-import ir.moke.antlr4.FilterGrammerParser;
-import ir.moke.antlr4.MapGrammerLexer;
-import ir.moke.antlr4.MapGrammerParser;
-import ir.moke.visitor.FilterEvalVisitor;
-import ir.moke.visitor.MapEvalVisitor;
-import org.antlr.v4.runtime.CharStream;
-import org.antlr.v4.runtime.CharStreams;
-import org.antlr.v4.runtime.CommonTokenStream;
-
+import com.fasterxml.jackson.databind.node.ArrayNode;
+import com.fasterxml.jackson.databind.node.MissingNode;
+import com.fasterxml.jackson.databind.util.ByteBufferBackedInputStream;
+import ir.moke.columnar.ColumnarTable;
+import ir.moke.compiler.FilterCompiler;
+import ir.moke.tape.JsonTape;
+import ir.moke.visitor.ParallelOptions;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.io.OutputStreamWriter;
+import java.io.StringWriter;
+import java.io.Writer;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
 import java.util.List;
+import java.util.Map;
 import java.util.Objects;
+import java.util.concurrent.ForkJoinPool;
 
 public class JsonStream {
-    private static final ObjectMapper mapper = new ObjectMapper();
-    private static final String MAP_SIGNATURE = "map -> ";
-    private static final String FILTER_SIGNATURE = "filter -> ";
-    private String jsonData;
+    static final ObjectMapper mapper = new ObjectMapper();
+    private static final ObjectWriter COMPACT_WRITER;
+    private static final ObjectWriter PRETTY_WRITER;
+    private static final ClauseCache CLAUSE_CACHE = new ClauseCache(ClauseCache.DEFAULT_CAPACITY);
     private JsonNode node;
+    /* Document read from a tape instead, see of(JsonTape); node stays null until a clause needs the tree */
+    private JsonTape tape;
+    /* Offsets in the tape of the elements of the top-level array still selected */
+    private int[] tapeElements;
+    private ParallelOptions parallel;
+    /* Secondary indexes by path text, only valid until the tree changes */
+    private final Map<String, JsonIndex> indexes = new LinkedHashMap<>();
+    /* Evaluate filters over columns of the top-level array, see columnar() */
+    private boolean columnar;
+    private ColumnarTable table;
+    /* Compact text of node, produced lazily and dropped whenever a clause changes the tree */
+    private String text;
 
     static {
         mapper.enable(SerializationFeature.INDENT_OUTPUT);
@@ -32,20 +62,37 @@ public class JsonStream {
         prettyPrinter.indentArraysWith(DefaultIndenter.SYSTEM_LINEFEED_INSTANCE);
         mapper.writer(prettyPrinter);
         mapper.setDefaultPrettyPrinter(prettyPrinter);
+        COMPACT_WRITER = mapper.writer().without(SerializationFeature.INDENT_OUTPUT);
+        PRETTY_WRITER = mapper.writer();
     }
 
     private JsonStream(String jsonData) {
+        Telemetry.Span span = Telemetry.begin(new Telemetry.ReadEvent());
         try {
-            this.jsonData = jsonData;
             this.node = mapper.readTree(jsonData);
         } catch (JsonProcessingException e) {
             throw new RuntimeException(e);
         }
+        span.read(jsonData.length());
+    }
+
+    private JsonStream(byte[] jsonData, int offset, int length) {
+        Telemetry.Span span = Telemetry.begin(new Telemetry.ReadEvent());
+        try {
+            this.node = mapper.readTree(jsonData, offset, length);
+        } catch (IOException e) {
+            throw new RuntimeException(e);
+        }
+        span.read(length);
     }
 
     private JsonStream(JsonNode node) {
         this.node = node;
-        this.jsonData = node.toString();
+    }
+
+    private JsonStream(JsonTape tape, int[] tapeElements) {
+        this.tape = tape;
+        this.tapeElements = tapeElements;
     }
 
     public static JsonStream of(String jsonData) {
@@ -53,134 +100,520 @@ public class JsonStream {
     }
 
     public static JsonStream of(JsonNode node) {
+        // clauses modify the tree in place, keep the caller's node untouched
+        return new JsonStream(Objects.requireNonNull(node).deepCopy());
+    }
+
+    /**
+     * Wrap a tree without copying it, for trees too large to hold twice. The stream takes the tree over: clauses
+     * modify it in place, and the caller must neither read nor change it afterwards except through the stream.
+     */
+    public static JsonStream ofOwned(JsonNode node) {
         return new JsonStream(Objects.requireNonNull(node));
     }
 
-    public JsonStream filter(String filterClause) {
-        try {
-            if (filterClause.contains("->")) {
-                String action = filterClause.split("->", 2)[0];
-                if (action.isEmpty() || !action.trim().equalsIgnoreCase("filter")) {
-                    throw new IllegalStateException("filter clause should started with : 'filter ->'");
+    /**
+     * Read a top-level array straight from a tape. Filters that only compare values are evaluated on the tape and
+     * narrow the selected elements without building a tree, and the result is written straight from the tape too.
+     * The tree of the selected elements is built the first time it is needed: by a map, by a filter narrowing nested
+     * arrays, by {@link #index}, {@link #columnar()} or {@link #toJsonNode()}. The tape itself is never changed and
+     * can back any number of streams. Filters on the tape are evaluated sequentially.
+     * <p>
+     * Any other document is read into a tree right away.
+     */
+    public static JsonStream of(JsonTape tape) {
+        if (!tape.isArray(tape.root())) return new JsonStream(tape.toJsonNode());
+        return new JsonStream(tape, tape.elements(tape.root()));
+    }
+
+    /**
+     * Parse UTF-8 (or UTF-16/32, detected from the first bytes) json without decoding it to a {@link String} first.
+     */
+    public static JsonStream of(byte[] jsonData) {
+        return new JsonStream(jsonData, 0, jsonData.length);
+    }
+
+    /**
+     * Parse the remaining bytes of a buffer. The position of {@code jsonData} is left unchanged.
+     */
+    public static JsonStream of(ByteBuffer jsonData) {
+        if (jsonData.hasArray()) {
+            return new JsonStream(jsonData.array(), jsonData.arrayOffset() + jsonData.position(), jsonData.remaining());
+        }
+        return read(new ByteBufferBackedInputStream(jsonData.duplicate()), jsonData.remaining());
+    }
+
+    /**
+     * Parse a json file through a read-only memory mapping, so the file content is neither copied into the heap nor
+     * decoded to characters before parsing. Files larger than 2GB are read through a stream instead.
+     */
+    public static JsonStream of(Path file) {
+        try (FileChannel channel = FileChannel.open(file, StandardOpenOption.READ)) {
+            long size = channel.size();
+            if (size > Integer.MAX_VALUE) {
+                try (InputStream in = Channels.newInputStream(channel)) {
+                    return read(in, size);
                 }
-            } else {
-                filterClause = FILTER_SIGNATURE + filterClause.trim();
             }
+            MappedByteBuffer buffer = channel.map(FileChannel.MapMode.READ_ONLY, 0, size);
+            return read(new ByteBufferBackedInputStream(buffer), size);
+        } catch (IOException e) {
+            throw new RuntimeException(e);
+        }
+    }
+
+    /**
+     * Parse one json document from a stream of bytes. The stream is not closed.
+     */
+    public static JsonStream of(InputStream jsonData) {
+        return read(Objects.requireNonNull(jsonData), -1);
+    }
+
+    /**
+     * @param length input length in bytes when known, otherwise negative
+     */
+    private static JsonStream read(InputStream in, long length) {
+        Telemetry.Span span = Telemetry.begin(new Telemetry.ReadEvent());
+        JsonNode node;
+        try (JsonParser parser = mapper.createParser(in)) {
+            parser.disable(JsonParser.Feature.AUTO_CLOSE_SOURCE);
+            node = mapper.readTree(parser);
+            if (length < 0) length = parser.currentLocation().getByteOffset();
+        } catch (IOException e) {
+            throw new RuntimeException(e);
+        }
+        span.read(length);
+        // an empty input, as mapper.readTree(String) reports it
+        return new JsonStream(node != null ? node : MissingNode.getInstance());
+    }
+
+    /**
+     * Compile a clause, or return the cached compilation of an equivalent clause.
+     *
+     * @param clause clause text starting with {@code filter ->} or {@code map ->}
+     */
+    public static CompiledClause compile(String clause) {
+        return compile(clause, null);
+    }
+
+    private static CompiledClause compile(String clause, CompiledClause.Type type) {
+        return CLAUSE_CACHE.get(CompiledClause.normalize(clause, type), CompiledClause::compile);
+    }
+
+    /**
+     * Compile a pipeline stage, accepting the same clause forms as {@link #apply(String)}.
+     */
+    static CompiledClause compileStage(String clause) {
+        if (clause.toLowerCase().startsWith("filter")) {
+            return compile(clause, CompiledClause.Type.FILTER);
+        } else if (clause.toLowerCase().startsWith("map")) {
+            return compile(clause, CompiledClause.Type.MAP);
+        } else {
+            throw new IllegalStateException("clause should start with 'map|filter'");
+        }
+    }
 
-            /* Start filtering */
-            CharStream input = CharStreams.fromString(filterClause);
+    public static ClauseCache clauseCache() {
+        return CLAUSE_CACHE;
+    }
 
-            // Step 2: Create a lexer
-            FilterGrammerLexer lexer = new FilterGrammerLexer(input);
+    /**
+     * Report the time spent lexing, parsing, evaluating, reading and writing to {@code listener}. The same phases are
+     * always available as Flight Recorder events in the {@code JSON Transform} category.
+     *
+     * @param listener listener for every stream in the process, or {@code null} to stop reporting
+     */
+    public static void metricsListener(MetricsListener listener) {
+        Telemetry.listener(listener);
+    }
 
-            // Step 3: Tokenize input
-            CommonTokenStream tokens = new CommonTokenStream(lexer);
+    public static MetricsListener metricsListener() {
+        return Telemetry.listener();
+    }
 
-            // Step 4: Create a parser
-            FilterGrammerParser parser = new FilterGrammerParser(tokens);
-            FilterGrammerParser.ProgramContext program = parser.program();
+    public JsonStream filter(String filterClause) {
+        return apply(compile(filterClause, CompiledClause.Type.FILTER));
+    }
 
+    public JsonStream map(String mapClause) {
+        return apply(compile(mapClause, CompiledClause.Type.MAP));
+    }
 
-            // json to ArrayNode Object
-            node = new ObjectMapper().readTree(jsonData);
+    /**
+     * Apply a compiled clause directly on the in-memory tree; the document is never re-serialized between stages.
+     */
+    public JsonStream apply(CompiledClause clause) {
+        Telemetry.Span span = Telemetry.begin(new Telemetry.EvaluateEvent());
+        long elements = elements();
+        evaluate(clause);
+        span.evaluated(clause, elements, elements());
+        return this;
+    }
 
-            // Run visitor
-            FilterEvalVisitor visitor = new FilterEvalVisitor(node);
-            visitor.visit(program);
+    private long elements() {
+        return tape != null ? tapeElements.length : Telemetry.elements(node);
+    }
 
-            this.jsonData = node.toString();
-            return this;
-        } catch (Exception e) {
-            throw new RuntimeException(e);
+    /**
+     * @return the document as a tree, built from the selected elements of the tape the first time it is needed
+     */
+    private JsonNode tree() {
+        if (tape != null) {
+            ArrayNode array = mapper.createArrayNode();
+            for (int element : tapeElements) array.add(tape.node(element));
+            node = array;
+            tape = null;
+            tapeElements = null;
         }
+        return node;
     }
 
-    public JsonStream map(String mapClause) {
-        try {
-            if (mapClause.contains("->")) {
-                String action = mapClause.split("->", 2)[0];
-                if (action.isEmpty() || !action.trim().equalsIgnoreCase("map")) {
-                    throw new IllegalStateException("map clause should started with : 'map ->'");
-                }
-            } else {
-                mapClause = MAP_SIGNATURE + mapClause.trim();
+    private void evaluate(CompiledClause clause) {
+        int[] selected = tape != null && !columnar && clause.type() == CompiledClause.Type.FILTER
+                ? tape.filter(tapeElements, clause.filters(), clause.limit()) : null;
+        if (selected != null) {
+            tapeElements = selected;
+            changed();
+            return;
+        }
+
+        JsonNode root = tree();
+        int[] candidates = indexes.isEmpty() || !root.isArray() ? null : JsonIndex.candidates(clause, indexes);
+        if (candidates != null) {
+            ArrayNode array = (ArrayNode) root;
+            List<JsonNode> kept = new ArrayList<>(candidates.length);
+            for (int i = 0; i < candidates.length && kept.size() != clause.limit(); i++) {
+                JsonNode element = array.get(candidates[i]);
+                if (clause.applyToElement(element, 0)) kept.add(element);
             }
+            array.removeAll();
+            array.addAll(kept);
+            changed();
+            return;
+        }
 
-            /* Start mapping */
-            CharStream inputStream = CharStreams.fromString(mapClause);
+        int[] positions = columnarPositions(clause);
+        if (positions != null) {
+            ColumnarTable narrowed = table.select(positions);
+            retain(positions);
+            changed();
+            // the surviving rows keep their columns for the next filter
+            table = narrowed;
+            return;
+        }
 
-            // Step 1: Create a lexer
-            MapGrammerLexer lexer = new MapGrammerLexer(inputStream);
+        clause.applyTo(root, parallel);
+        changed();
+    }
 
-            // Step 2: Tokenize input
-            CommonTokenStream tokens = new CommonTokenStream(lexer);
+    /**
+     * Evaluate filters over columns of the top-level array, for analytic queries over large arrays of similar
+     * records. Each path compared with a literal is extracted once into a column of numbers or dictionary encoded
+     * strings; comparisons run over whole columns, with the Vector API when built with the {@code vector} profile and
+     * the {@code jdk.incubator.vector} module is added at run time, and {@code and}/{@code or} combine bitmaps. Filters stay columnar as they narrow the array
+     * down; any other clause drops the columns.
+     * <p>
+     * Filters that narrow nested arrays or compare two paths, and filters with a limit, which stop at their last match
+     * instead of scanning whole columns, are evaluated as usual. Results are always the same as without columnar
+     * evaluation.
+     */
+    public JsonStream columnar() {
+        return columnar(true);
+    }
 
-            // Step 3: Create a parser
-            MapGrammerParser parser = new MapGrammerParser(tokens);
-            MapGrammerParser.ProgramContext program = parser.program();
+    public JsonStream columnar(boolean enabled) {
+        this.columnar = enabled;
+        if (!enabled) table = null;
+        return this;
+    }
 
-            // Step 4: parse jsonData
-            node = new ObjectMapper().readTree(jsonData);
+    /**
+     * @return positions of the elements passing a filter clause evaluated over columns, or {@code null} when columnar
+     * evaluation is off or does not apply
+     */
+    private int[] columnarPositions(CompiledClause clause) {
+        if (!columnar || !node.isArray() || clause.type() != CompiledClause.Type.FILTER || clause.limit() >= 0) {
+            return null;
+        }
+        if (table == null) table = ColumnarTable.of((ArrayNode) node);
+        return table.filter(clause.filters());
+    }
 
-            // Step 5: Run visitor
-            MapEvalVisitor visitor = new MapEvalVisitor(node);
-            visitor.visit(program);
+    private void retain(int[] positions) {
+        ArrayNode array = (ArrayNode) node;
+        List<JsonNode> kept = new ArrayList<>(positions.length);
+        for (int position : positions) kept.add(array.get(position));
+        array.removeAll();
+        array.addAll(kept);
+    }
 
-            this.jsonData = node.toString();
-            return this;
-        } catch (Exception e) {
-            throw new RuntimeException(e);
+    /**
+     * Index the top-level array on {@code path}, e.g. {@code profile.age}. Later filters comparing that path with a
+     * literal ({@code =}, {@code ==}, {@code <}, {@code <=}, {@code >}, {@code >=}), alone or combined with
+     * {@code and}/{@code or}, only evaluate the elements the index selects instead of scanning the whole array.
+     * <p>
+     * Indexes are dropped as soon as a clause changes the array; use {@link #select(String)} to run many queries
+     * against the same indexed array.
+     *
+     * @param path filter path, written the way it appears in a filter clause
+     */
+    public JsonStream index(String path) {
+        if (!tree().isArray()) throw new IllegalStateException("Json node should be array");
+        JsonIndex index = JsonIndex.build((ArrayNode) node, GrammarCache.parse(() -> FilterCompiler.compilePath(path)));
+        indexes.put(index.path().text(), index);
+        return this;
+    }
+
+    public JsonStream dropIndexes() {
+        indexes.clear();
+        return this;
+    }
+
+    /**
+     * Run a filter without changing this stream or its indexes.
+     *
+     * @return a new stream holding copies of the matching elements
+     */
+    public JsonStream select(String filterClause) {
+        CompiledClause clause = compile(filterClause, CompiledClause.Type.FILTER);
+        int[] kept = tape != null && !columnar ? tape.filter(tapeElements, clause.filters(), clause.limit()) : null;
+        if (kept != null) {
+            Telemetry.Span span = Telemetry.begin(new Telemetry.EvaluateEvent());
+            span.evaluated(clause, tapeElements.length, kept.length);
+            // the tape is never changed, the selection shares it
+            JsonStream result = new JsonStream(tape, kept);
+            result.parallel = parallel;
+            result.columnar = columnar;
+            return result;
         }
+        if (!tree().isArray()) throw new IllegalStateException("Json node should be array");
+        Telemetry.Span span = Telemetry.begin(new Telemetry.EvaluateEvent());
+        ArrayNode array = (ArrayNode) node;
+        ArrayNode selected = mapper.createArrayNode();
+        select(clause, array, selected);
+        span.evaluated(clause, array.size(), selected.size());
+        JsonStream result = new JsonStream(selected);
+        result.parallel = parallel;
+        result.columnar = columnar;
+        return result;
     }
 
-    public JsonStream apply(List<String> clauses) {
-        for (String clause : clauses) {
-            if (clause == null || clause.isEmpty()) continue;
-            if (clause.toLowerCase().startsWith("filter")) {
-                this.node = filter(clause).toJsonNode();
-            } else if (clause.toLowerCase().startsWith("map")) {
-                this.node = map(clause).toJsonNode();
-            } else {
-                throw new IllegalStateException("clause should start with 'map|filter'");
+    private void select(CompiledClause clause, ArrayNode array, ArrayNode selected) {
+        int[] candidates = indexes.isEmpty() ? null : JsonIndex.candidates(clause, indexes);
+        if (candidates == null) {
+            int[] positions = columnarPositions(clause);
+            if (positions != null) {
+                // only filters without side effects are evaluated over columns, no copy to test
+                for (int position : positions) selected.add(array.get(position).deepCopy());
+                return;
             }
         }
+        int count = candidates == null ? array.size() : candidates.length;
+        for (int i = 0; i < count && selected.size() != clause.limit(); i++) {
+            // filters on nested arrays trim the element they test, test a copy
+            JsonNode element = array.get(candidates == null ? i : candidates[i]).deepCopy();
+            if (clause.applyToElement(element, 0)) selected.add(element);
+        }
+    }
+
+    private void changed() {
+        this.text = null;
+        indexes.clear();
+        table = null;
+    }
+
+    /**
+     * Evaluate filters over large top-level arrays on the common fork/join pool. Element order is preserved.
+     */
+    public JsonStream parallel() {
+        return parallel(ParallelOptions.common());
+    }
+
+    /**
+     * Evaluate filters over top-level arrays with at least {@code threshold} elements on the given pool. Element
+     * order is preserved.
+     */
+    public JsonStream parallel(ForkJoinPool pool, int threshold) {
+        return parallel(new ParallelOptions(pool, threshold));
+    }
+
+    public JsonStream parallel(ParallelOptions options) {
+        this.parallel = Objects.requireNonNull(options);
+        return this;
+    }
 
+    public JsonStream sequential() {
+        this.parallel = null;
+        return this;
+    }
+
+    /**
+     * Apply the clauses in order. On a top-level array they all run in a single pass over the elements.
+     */
+    public JsonStream apply(List<String> clauses) {
+        return apply(ClausePipeline.of(clauses));
+    }
+
+    public JsonStream apply(ClausePipeline pipeline) {
+        Telemetry.Span span = Telemetry.begin(new Telemetry.EvaluateEvent());
+        long elements = elements();
+        pipeline.applyTo(tree(), parallel);
+        span.evaluated(pipeline, elements, Telemetry.elements(node));
+        changed();
         return this;
     }
 
     public JsonStream apply(String clause) {
-        if (clause.toLowerCase().startsWith("filter")) {
-            this.node = filter(clause).toJsonNode();
-        } else if (clause.toLowerCase().startsWith("map")) {
-            this.node = map(clause).toJsonNode();
-        } else {
-            throw new IllegalStateException("clause should start with 'map|filter'");
+        return apply(compileStage(clause));
+    }
+
+    /**
+     * Transform a top-level json array, or newline delimited json documents, without loading the whole input.
+     *
+     * @see ClausePipeline#stream(InputStream, OutputStream)
+     */
+    public static long stream(InputStream in, List<String> clauses, OutputStream out) {
+        try {
+            return ClausePipeline.of(clauses).stream(in, out);
+        } catch (IOException e) {
+            throw new RuntimeException(e);
         }
-        return this;
     }
 
+    /**
+     * @return the tree of this stream itself, not a copy. It is to be read only while the stream is still in use:
+     * the stream keeps its text, indexes and columns between calls and does not see changes made to the tree behind
+     * its back after this call.
+     */
     public JsonNode toJsonNode() {
-        return node;
+        // dropped here so that changes made before the stream is used again are still picked up
+        changed();
+        return tree();
     }
 
     public void prettyPrint() {
-        System.out.println(prettyString());
+        writeTo(new OutputStreamWriter(System.out, System.out.charset()), true);
+        System.out.println();
     }
 
     public String prettyString() {
+        Telemetry.Span span = Telemetry.begin(new Telemetry.WriteEvent());
+        String pretty;
         try {
-            return mapper.writeValueAsString(node);
-        } catch (JsonProcessingException e) {
+            if (tape != null) {
+                StringWriter out = new StringWriter();
+                try (JsonGenerator generator = PRETTY_WRITER.createGenerator(out)) {
+                    writeTape(generator);
+                }
+                pretty = out.toString();
+            } else {
+                pretty = mapper.writeValueAsString(node);
+            }
+        } catch (IOException e) {
             throw new RuntimeException(e);
         }
+        span.written(pretty.length(), true);
+        return pretty;
     }
 
     public void print() {
-        System.out.println(node.toString());
+        if (text != null) System.out.println(text);
+        else {
+            writeTo(new OutputStreamWriter(System.out, System.out.charset()), false);
+            System.out.println();
+        }
+    }
+
+    /**
+     * Write the compact json text to {@code out} in UTF-8, without building it in memory first. The stream is flushed,
+     * not closed. Like any Jackson byte output, characters outside the Basic Multilingual Plane are written as escaped
+     * surrogate pairs.
+     */
+    public JsonStream writeTo(OutputStream out) {
+        return writeTo(out, false);
+    }
+
+    /**
+     * @param pretty indent the output like {@link #prettyString()}
+     */
+    public JsonStream writeTo(OutputStream out, boolean pretty) {
+        Objects.requireNonNull(out);
+        return write(pretty, writer -> writer.createGenerator(out));
+    }
+
+    public JsonStream writeTo(Writer out) {
+        return writeTo(out, false);
+    }
+
+    /**
+     * Write the json text to {@code out}, without building it in memory first. The writer is flushed, not closed.
+     *
+     * @param pretty indent the output like {@link #prettyString()}
+     */
+    public JsonStream writeTo(Writer out, boolean pretty) {
+        Objects.requireNonNull(out);
+        return write(pretty, writer -> writer.createGenerator(out));
+    }
+
+    public JsonStream writeTo(Path file) {
+        return writeTo(file, false);
+    }
+
+    /**
+     * Write the json text to {@code file} in UTF-8, replacing its content.
+     *
+     * @param pretty indent the output like {@link #prettyString()}
+     */
+    public JsonStream writeTo(Path file, boolean pretty) {
+        try (OutputStream out = Files.newOutputStream(file)) {
+            return writeTo(out, pretty);
+        } catch (IOException e) {
+            throw new RuntimeException(e);
+        }
+    }
+
+    private interface GeneratorFactory {
+        JsonGenerator create(ObjectWriter writer) throws IOException;
+    }
+
+    private JsonStream write(boolean pretty, GeneratorFactory factory) {
+        Telemetry.Span span = Telemetry.begin(new Telemetry.WriteEvent());
+        ObjectWriter writer = pretty ? PRETTY_WRITER : COMPACT_WRITER;
+        // the generator buffers its output in recycled buffers and writes through in chunks
+        try (JsonGenerator generator = factory.create(writer)) {
+            generator.disable(JsonGenerator.Feature.AUTO_CLOSE_TARGET);
+            if (tape != null) writeTape(generator);
+            else writer.writeValue(generator, node);
+        } catch (IOException e) {
+            throw new RuntimeException(e);
+        }
+        span.written(-1, pretty);
+        return this;
+    }
+
+    private void writeTape(JsonGenerator generator) throws IOException {
+        generator.writeStartArray();
+        for (int element : tapeElements) tape.write(element, generator);
+        generator.writeEndArray();
     }
 
     @Override
     public String toString() {
-        return node.toString();
+        if (text == null) {
+            Telemetry.Span span = Telemetry.begin(new Telemetry.WriteEvent());
+            text = tape != null ? tapeText() : node.toString();
+            span.written(text.length(), false);
+        }
+        return text;
+    }
+
+    private String tapeText() {
+        StringWriter out = new StringWriter();
+        try (JsonGenerator generator = COMPACT_WRITER.createGenerator(out)) {
+            writeTape(generator);
+        } catch (IOException e) {
+            throw new RuntimeException(e);
+        }
+        return out.toString();
     }
 }
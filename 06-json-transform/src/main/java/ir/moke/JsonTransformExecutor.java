@@ -0,0 +1,358 @@
+package ir.moke;
+
+import com.fasterxml.jackson.core.JsonProcessingException;
+import com.fasterxml.jackson.databind.JsonNode;
+
+import java.util.ArrayDeque;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.Objects;
+import java.util.Set;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.Executor;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.Semaphore;
+import java.util.function.Consumer;
+import java.util.function.Function;
+import java.util.stream.Stream;
+
+/**
+ * Runs a {@link ClausePipeline} over many documents concurrently, one task per document.
+ * <pre>{@code
+ * try (JsonTransformExecutor executor = JsonTransformExecutor.of(ClausePipeline.of(clauses))) {
+ *     executor.transformText(lines, JsonTransformExecutor.Order.ORDERED, result -> {
+ *         if (result.failed()) log(result.error());
+ *         else out.println(result.document());
+ *     });
+ * }
+ * }</pre>
+ * At most {@code maxInFlight} documents are held at a time, counting documents waiting for their turn to be delivered,
+ * so reading the input slows down to the pace of the slowest task instead of queueing without bound. Documents are
+ * transformed in place: each one is owned by the executor from submission until its result is delivered.
+ * <p>
+ * Results are handed to the sink on the thread calling {@code transform}, one at a time, either in input order or as
+ * soon as they complete. A document that fails to parse or transform is delivered with its error; the others are not
+ * affected.
+ */
+public final class JsonTransformExecutor implements AutoCloseable {
+
+    public enum Order {
+        /**
+         * Results are delivered in input order; a slow document holds back the ones after it.
+         */
+        ORDERED,
+        /**
+         * Results are delivered as soon as they complete.
+         */
+        COMPLETION
+    }
+
+    /**
+     * @param index    position of the document in the input, from {@code 0}
+     * @param document the transformed document, the input as far as it got when {@code error} is set, or {@code null}
+     *                 when the input could not be parsed
+     * @param error    why the document failed, {@code null} on success
+     */
+    public record Result(long index, JsonNode document, RuntimeException error) {
+        public boolean failed() {
+            return error != null;
+        }
+    }
+
+    private final ClausePipeline pipeline;
+    private final Executor executor;
+    /* Executor created here, shut down by close() */
+    private final ExecutorService owned;
+    private final int maxInFlight;
+    private final Semaphore permits;
+
+    private JsonTransformExecutor(ClausePipeline pipeline, Executor executor, ExecutorService owned, int maxInFlight) {
+        if (maxInFlight < 1) throw new IllegalArgumentException("maxInFlight should be greater than zero");
+        this.pipeline = Objects.requireNonNull(pipeline);
+        this.executor = Objects.requireNonNull(executor);
+        this.owned = owned;
+        this.maxInFlight = maxInFlight;
+        this.permits = new Semaphore(maxInFlight);
+    }
+
+    /**
+     * Transform on virtual threads with twice as many documents in flight as there are processors.
+     */
+    public static JsonTransformExecutor of(ClausePipeline pipeline) {
+        return of(pipeline, Runtime.getRuntime().availableProcessors() * 2);
+    }
+
+    /**
+     * Transform on virtual threads with at most {@code maxInFlight} documents in flight.
+     */
+    public static JsonTransformExecutor of(ClausePipeline pipeline, int maxInFlight) {
+        ExecutorService virtualThreads = Executors.newVirtualThreadPerTaskExecutor();
+        return new JsonTransformExecutor(pipeline, virtualThreads, virtualThreads, maxInFlight);
+    }
+
+    /**
+     * Transform on the given executor, which is not shut down by {@link #close()}.
+     */
+    public static JsonTransformExecutor of(ClausePipeline pipeline, Executor executor, int maxInFlight) {
+        return new JsonTransformExecutor(pipeline, executor, null, maxInFlight);
+    }
+
+    public ClausePipeline pipeline() {
+        return pipeline;
+    }
+
+    public int maxInFlight() {
+        return maxInFlight;
+    }
+
+    /**
+     * Transform a single document, blocking while {@code maxInFlight} documents are already in flight. Can be called
+     * from any number of threads.
+     *
+     * @return the transformed document, completed exceptionally when the transform fails
+     */
+    public CompletableFuture<JsonNode> submit(JsonNode document) {
+        Objects.requireNonNull(document);
+        acquire();
+        CompletableFuture<JsonNode> future = new CompletableFuture<>();
+        execute(() -> {
+            try {
+                Result result = transform(0, document, Function.identity());
+                if (result.failed()) future.completeExceptionally(result.error());
+                else future.complete(result.document());
+            } catch (Throwable e) {
+                future.completeExceptionally(e);
+            } finally {
+                permits.release();
+            }
+        });
+        return future;
+    }
+
+    public void transform(Stream<? extends JsonNode> documents, Order order, Consumer<? super Result> sink) {
+        transform(documents.iterator(), order, sink);
+    }
+
+    /**
+     * Transform every document, delivering each result to {@code sink} on the calling thread. Returns once every
+     * result was delivered.
+     */
+    public void transform(Iterator<? extends JsonNode> documents, Order order, Consumer<? super Result> sink) {
+        run(documents, Function.identity(), order, sink);
+    }
+
+    public void transformText(Stream<String> documents, Order order, Consumer<? super Result> sink) {
+        transformText(documents.iterator(), order, sink);
+    }
+
+    /**
+     * Like {@link #transform(Iterator, Order, Consumer)}, for documents in json text. Parsing happens in the tasks,
+     * not on the calling thread.
+     */
+    public void transformText(Iterator<String> documents, Order order, Consumer<? super Result> sink) {
+        run(documents, JsonTransformExecutor::read, order, sink);
+    }
+
+    private <T> void run(Iterator<? extends T> documents, Function<? super T, JsonNode> reader, Order order,
+                         Consumer<? super Result> sink) {
+        Objects.requireNonNull(order);
+        Objects.requireNonNull(sink);
+        Delivery delivery = order == Order.ORDERED ? new OrderedDelivery() : new CompletionDelivery();
+        try {
+            long index = 0;
+            while (documents.hasNext()) {
+                T document = documents.next();
+                // keep delivering until a permit frees up, the sink is only ever called on this thread
+                while (!permits.tryAcquire()) {
+                    if (delivery.pending() == 0) {
+                        acquire();
+                        break;
+                    }
+                    deliver(delivery.take(), sink);
+                }
+                long position = index++;
+                CompletableFuture<Result> future = new CompletableFuture<>();
+                execute(() -> {
+                    try {
+                        future.complete(transform(position, document, reader));
+                    } catch (Throwable e) {
+                        future.completeExceptionally(e);
+                    }
+                });
+                delivery.add(future);
+                for (CompletableFuture<Result> ready = delivery.poll(); ready != null; ready = delivery.poll()) {
+                    deliver(ready, sink);
+                }
+            }
+            while (delivery.pending() > 0) deliver(delivery.take(), sink);
+        } finally {
+            // on failure, give back the permits of the results nobody will take once their tasks are done
+            for (CompletableFuture<Result> future = delivery.drain(); future != null; future = delivery.drain()) {
+                future.whenComplete((result, error) -> permits.release());
+            }
+        }
+    }
+
+    private void deliver(CompletableFuture<Result> future, Consumer<? super Result> sink) {
+        try {
+            sink.accept(future.join());
+        } finally {
+            permits.release();
+        }
+    }
+
+    private <T> Result transform(long index, T input, Function<? super T, JsonNode> reader) {
+        JsonNode document = null;
+        try {
+            document = reader.apply(input);
+            Telemetry.Span span = Telemetry.begin(new Telemetry.EvaluateEvent());
+            long elements = Telemetry.elements(document);
+            pipeline.applyTo(document, null);
+            span.evaluated(pipeline, elements, Telemetry.elements(document));
+            return new Result(index, document, null);
+        } catch (RuntimeException e) {
+            return new Result(index, document, e);
+        }
+    }
+
+    private static JsonNode read(String text) {
+        Telemetry.Span span = Telemetry.begin(new Telemetry.ReadEvent());
+        JsonNode document;
+        try {
+            document = JsonStream.mapper.readTree(text);
+        } catch (JsonProcessingException e) {
+            throw new RuntimeException(e);
+        }
+        span.read(text.length());
+        return document;
+    }
+
+    private void execute(Runnable task) {
+        try {
+            executor.execute(task);
+        } catch (RejectedExecutionException e) {
+            permits.release();
+            throw e;
+        }
+    }
+
+    private void acquire() {
+        try {
+            permits.acquire();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new RuntimeException(e);
+        }
+    }
+
+    /**
+     * Shut down the virtual thread executor, waiting for running transforms. An executor passed to
+     * {@link #of(ClausePipeline, Executor, int)} is left running.
+     */
+    @Override
+    public void close() {
+        if (owned != null) owned.close();
+    }
+
+    /**
+     * Results submitted by {@link #run} and not delivered yet. Only used by the thread running it.
+     */
+    private interface Delivery {
+        void add(CompletableFuture<Result> future);
+
+        int pending();
+
+        /**
+         * @return the next result to deliver, once it is complete
+         */
+        CompletableFuture<Result> take();
+
+        /**
+         * @return the next result to deliver when it is already complete, otherwise {@code null}
+         */
+        CompletableFuture<Result> poll();
+
+        /**
+         * @return any pending result, complete or not, or {@code null} when there is none left
+         */
+        CompletableFuture<Result> drain();
+    }
+
+    private static final class OrderedDelivery implements Delivery {
+        private final ArrayDeque<CompletableFuture<Result>> futures = new ArrayDeque<>();
+
+        @Override
+        public void add(CompletableFuture<Result> future) {
+            futures.add(future);
+        }
+
+        @Override
+        public int pending() {
+            return futures.size();
+        }
+
+        @Override
+        public CompletableFuture<Result> take() {
+            return futures.poll();
+        }
+
+        @Override
+        public CompletableFuture<Result> poll() {
+            CompletableFuture<Result> head = futures.peek();
+            return head != null && head.isDone() ? futures.poll() : null;
+        }
+
+        @Override
+        public CompletableFuture<Result> drain() {
+            return futures.poll();
+        }
+    }
+
+    private static final class CompletionDelivery implements Delivery {
+        private final Set<CompletableFuture<Result>> running = new HashSet<>();
+        private final BlockingQueue<CompletableFuture<Result>> completed = new LinkedBlockingQueue<>();
+
+        @Override
+        public void add(CompletableFuture<Result> future) {
+            running.add(future);
+            future.whenComplete((result, error) -> completed.add(future));
+        }
+
+        @Override
+        public int pending() {
+            return running.size();
+        }
+
+        @Override
+        public CompletableFuture<Result> take() {
+            try {
+                CompletableFuture<Result> future = completed.take();
+                running.remove(future);
+                return future;
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                throw new RuntimeException(e);
+            }
+        }
+
+        @Override
+        public CompletableFuture<Result> poll() {
+            CompletableFuture<Result> future = completed.poll();
+            if (future != null) running.remove(future);
+            return future;
+        }
+
+        @Override
+        public CompletableFuture<Result> drain() {
+            Iterator<CompletableFuture<Result>> iterator = running.iterator();
+            if (!iterator.hasNext()) return null;
+            CompletableFuture<Result> future = iterator.next();
+            iterator.remove();
+            return future;
+        }
+    }
+}
@@ -0,0 +1,48 @@
+package ir.moke;
+
+/**
+ * Receives the timing of every phase a {@link JsonStream} goes through. Register one with
+ * {@link JsonStream#metricsListener(MetricsListener)}; {@link PhaseMetrics} keeps counters and latency histograms.
+ * <p>
+ * Listeners are called synchronously on the thread doing the work, from any number of threads at once, and should
+ * return quickly. Clause texts are passed as-is so a listener can attribute time to the clause, and the tenant, it
+ * came from.
+ */
+public interface MetricsListener {
+
+    /**
+     * A clause was compiled; cache hits are not reported.
+     *
+     * @param clause     normalized clause text
+     * @param lexNanos   time spent lexing
+     * @param parseNanos time spent parsing, including the LL fallback
+     */
+    default void parsed(String clause, long lexNanos, long parseNanos) {
+    }
+
+    /**
+     * A clause, or a pipeline of clauses, was applied.
+     *
+     * @param clause   normalized clause text, the clauses of a pipeline are joined with {@code " | "}
+     * @param elements elements of the top-level array before the clause, {@code 1} for any other document
+     * @param kept     elements left afterwards
+     */
+    default void evaluated(String clause, long elements, long kept, long nanos) {
+    }
+
+    /**
+     * A document was parsed into a tree.
+     *
+     * @param length input length in characters, or in bytes for binary input
+     */
+    default void read(long length, long nanos) {
+    }
+
+    /**
+     * A tree was serialized.
+     *
+     * @param length output length in characters, or {@code -1} when written to a stream
+     */
+    default void written(long length, long nanos) {
+    }
+}
@@ -0,0 +1,142 @@
+package ir.moke;
+
+import java.util.EnumMap;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * A {@link MetricsListener} counting calls, elements and latencies per phase.
+ * <p>
+ * Latencies go to histograms with one bucket per power of two nanoseconds, so recording is a couple of atomic
+ * increments and percentiles are accurate to a factor of two.
+ * <pre>{@code
+ * PhaseMetrics metrics = new PhaseMetrics();
+ * JsonStream.metricsListener(metrics);
+ * ...
+ * PhaseMetrics.Snapshot evaluate = metrics.snapshot(PhaseMetrics.Phase.EVALUATE);
+ * System.out.println(evaluate.count() + " evaluations, p99 " + evaluate.percentile(0.99) + " ns");
+ * }</pre>
+ */
+public final class PhaseMetrics implements MetricsListener {
+    private static final int BUCKETS = 64;
+
+    public enum Phase {
+        LEX, PARSE, EVALUATE, READ, WRITE
+    }
+
+    /**
+     * @param count      number of calls
+     * @param totalNanos time spent in all calls
+     * @param items      elements evaluated, or characters read or written; {@code 0} for lexing and parsing
+     * @param kept       elements kept by evaluations, {@code 0} for the other phases
+     * @param buckets    number of calls per latency bucket; bucket {@code i} counts calls that took less than
+     *                   {@code 2^i} nanoseconds and not less than {@code 2^(i-1)}
+     */
+    public record Snapshot(long count, long totalNanos, long items, long kept, long[] buckets) {
+
+        /**
+         * @param quantile between {@code 0} and {@code 1}, e.g. {@code 0.99}
+         * @return upper bound of the latency, in nanoseconds, below which {@code quantile} of the calls fall
+         */
+        public long percentile(double quantile) {
+            if (quantile < 0 || quantile > 1) throw new IllegalArgumentException("quantile should be between 0 and 1");
+            long rank = (long) Math.ceil(quantile * count);
+            long seen = 0;
+            for (int i = 0; i < buckets.length; i++) {
+                seen += buckets[i];
+                if (seen >= rank && seen > 0) return i == BUCKETS - 1 ? Long.MAX_VALUE : 1L << i;
+            }
+            return 0;
+        }
+
+        public long meanNanos() {
+            return count == 0 ? 0 : totalNanos / count;
+        }
+    }
+
+    private final Map<Phase, Histogram> histograms = new EnumMap<>(Phase.class);
+
+    public PhaseMetrics() {
+        for (Phase phase : Phase.values()) histograms.put(phase, new Histogram());
+    }
+
+    @Override
+    public void parsed(String clause, long lexNanos, long parseNanos) {
+        histograms.get(Phase.LEX).record(lexNanos, 0, 0);
+        histograms.get(Phase.PARSE).record(parseNanos, 0, 0);
+    }
+
+    @Override
+    public void evaluated(String clause, long elements, long kept, long nanos) {
+        histograms.get(Phase.EVALUATE).record(nanos, elements, kept);
+    }
+
+    @Override
+    public void read(long length, long nanos) {
+        histograms.get(Phase.READ).record(nanos, length, 0);
+    }
+
+    @Override
+    public void written(long length, long nanos) {
+        histograms.get(Phase.WRITE).record(nanos, length, 0);
+    }
+
+    public Snapshot snapshot(Phase phase) {
+        return histograms.get(phase).snapshot();
+    }
+
+    /**
+     * Reset every counter and histogram. Calls recorded concurrently may be partly lost.
+     */
+    public void reset() {
+        histograms.values().forEach(Histogram::reset);
+    }
+
+    private static final class Histogram {
+        private final LongAdder count = new LongAdder();
+        private final LongAdder totalNanos = new LongAdder();
+        private final LongAdder items = new LongAdder();
+        private final LongAdder kept = new LongAdder();
+        private final AtomicLongArray buckets = new AtomicLongArray(BUCKETS);
+
+        void record(long nanos, long items, long kept) {
+            count.increment();
+            totalNanos.add(nanos);
+            if (items != 0) this.items.add(items);
+            if (kept != 0) this.kept.add(kept);
+            buckets.incrementAndGet(bucket(nanos));
+        }
+
+        Snapshot snapshot() {
+            long[] values = new long[BUCKETS];
+            for (int i = 0; i < BUCKETS; i++) values[i] = buckets.get(i);
+            return new Snapshot(count.sum(), totalNanos.sum(), items.sum(), kept.sum(), values);
+        }
+
+        void reset() {
+            count.reset();
+            totalNanos.reset();
+            items.reset();
+            kept.reset();
+            for (int i = 0; i < BUCKETS; i++) buckets.set(i, 0);
+        }
+
+        private static int bucket(long nanos) {
+            return nanos <= 0 ? 0 : Math.min(BUCKETS - 1, 64 - Long.numberOfLeadingZeros(nanos));
+        }
+    }
+
+    @Override
+    public String toString() {
+        StringBuilder sb = new StringBuilder();
+        for (Phase phase : Phase.values()) {
+            Snapshot snapshot = snapshot(phase);
+            sb.append(phase).append(": count=").append(snapshot.count())
+                    .append(" mean=").append(snapshot.meanNanos()).append("ns")
+                    .append(" p50=").append(snapshot.percentile(0.5)).append("ns")
+                    .append(" p99=").append(snapshot.percentile(0.99)).append("ns\n");
+        }
+        return sb.toString();
+    }
+}
@@ -0,0 +1,176 @@
+package ir.moke;
+
+import com.fasterxml.jackson.databind.JsonNode;
+import jdk.jfr.Category;
+import jdk.jfr.Description;
+import jdk.jfr.Event;
+import jdk.jfr.Label;
+import jdk.jfr.Name;
+import jdk.jfr.StackTrace;
+import jdk.jfr.Timespan;
+
+/**
+ * Flight Recorder events and {@link MetricsListener} notifications for the phases of a {@link JsonStream}.
+ * <p>
+ * When no recording has the events enabled and no listener is registered, {@link #begin(PhaseEvent)} returns a shared
+ * span that does nothing: no clock is read and nothing is allocated once the JIT has removed the unused event.
+ * Clause texts are not recorded in events, only their {@link String#hashCode()}; register a listener to map hashes
+ * back to clauses.
+ */
+final class Telemetry {
+    private static volatile MetricsListener listener;
+
+    private Telemetry() {
+    }
+
+    static void listener(MetricsListener listener) {
+        Telemetry.listener = listener;
+    }
+
+    static MetricsListener listener() {
+        return listener;
+    }
+
+    @Category("JSON Transform")
+    @StackTrace(false)
+    abstract static class PhaseEvent extends Event {
+    }
+
+    @Name("ir.moke.Parse")
+    @Label("Clause Parse")
+    @Description("A clause lexed, parsed and compiled on a clause cache miss")
+    static final class ParseEvent extends PhaseEvent {
+        @Label("Clause Hash")
+        int clauseHash;
+        @Label("Clause Length")
+        int clauseLength;
+        @Label("Prediction Mode")
+        String stage;
+        @Label("Lexing")
+        @Timespan
+        long lexDuration;
+        @Label("Parsing")
+        @Timespan
+        long parseDuration;
+    }
+
+    @Name("ir.moke.Evaluate")
+    @Label("Clause Evaluation")
+    @Description("A clause or a pipeline of clauses applied to a document")
+    static final class EvaluateEvent extends PhaseEvent {
+        @Label("Clause Hash")
+        int clauseHash;
+        @Label("Elements")
+        long elements;
+        @Label("Kept")
+        long kept;
+    }
+
+    @Name("ir.moke.Read")
+    @Label("Document Read")
+    @Description("A json document parsed into a tree")
+    static final class ReadEvent extends PhaseEvent {
+        @Label("Input Length")
+        long length;
+    }
+
+    @Name("ir.moke.Write")
+    @Label("Document Write")
+    @Description("A tree serialized to json text")
+    static final class WriteEvent extends PhaseEvent {
+        @Label("Output Length")
+        long length;
+        @Label("Pretty")
+        boolean pretty;
+    }
+
+    /**
+     * Start timing a phase.
+     *
+     * @param event a new event of the phase
+     */
+    static Span begin(PhaseEvent event) {
+        MetricsListener current = listener;
+        if (current == null && !event.isEnabled()) return Span.DISABLED;
+        event.begin();
+        return new Span(event, current, System.nanoTime());
+    }
+
+    /**
+     * Number of elements a clause sees in a document.
+     */
+    static long elements(JsonNode node) {
+        return node.isArray() ? node.size() : 1;
+    }
+
+    static final class Span {
+        private static final Span DISABLED = new Span(null, null, 0);
+
+        private final PhaseEvent event;
+        private final MetricsListener listener;
+        private final long start;
+
+        private Span(PhaseEvent event, MetricsListener listener, long start) {
+            this.event = event;
+            this.listener = listener;
+            this.start = start;
+        }
+
+        /**
+         * @param clause a {@link CompiledClause} or {@link ClausePipeline}, converted to text only when reported
+         */
+        void parsed(Object clause, String stage, long lexNanos, long parseNanos) {
+            if (event == null) return;
+            event.end();
+            if (event.shouldCommit()) {
+                ParseEvent parse = (ParseEvent) event;
+                String text = clause.toString();
+                parse.clauseHash = text.hashCode();
+                parse.clauseLength = text.length();
+                parse.stage = stage;
+                parse.lexDuration = lexNanos;
+                parse.parseDuration = parseNanos;
+                parse.commit();
+            }
+            if (listener != null) listener.parsed(clause.toString(), lexNanos, parseNanos);
+        }
+
+        void evaluated(Object clause, long elements, long kept) {
+            if (event == null) return;
+            long nanos = System.nanoTime() - start;
+            event.end();
+            if (event.shouldCommit()) {
+                EvaluateEvent evaluate = (EvaluateEvent) event;
+                evaluate.clauseHash = clause.toString().hashCode();
+                evaluate.elements = elements;
+                evaluate.kept = kept;
+                evaluate.commit();
+            }
+            if (listener != null) listener.evaluated(clause.toString(), elements, kept, nanos);
+        }
+
+        void read(long length) {
+            if (event == null) return;
+            long nanos = System.nanoTime() - start;
+            event.end();
+            if (event.shouldCommit()) {
+                ((ReadEvent) event).length = length;
+                event.commit();
+            }
+            if (listener != null) listener.read(length, nanos);
+        }
+
+        void written(long length, boolean pretty) {
+            if (event == null) return;
+            long nanos = System.nanoTime() - start;
+            event.end();
+            if (event.shouldCommit()) {
+                WriteEvent write = (WriteEvent) event;
+                write.length = length;
+                write.pretty = pretty;
+                write.commit();
+            }
+            if (listener != null) listener.written(length, nanos);
+        }
+    }
+}
@@ -0,0 +1,159 @@
+package ir.moke;
+
+import com.fasterxml.jackson.core.JsonProcessingException;
+import com.fasterxml.jackson.databind.JsonNode;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.time.Duration;
+import java.util.List;
+import java.util.Objects;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.Executor;
+import java.util.concurrent.ForkJoinPool;
+
+/**
+ * Parses and evaluates a corpus of clauses so the first real requests after startup do not pay for empty DFA caches
+ * and a cold JIT.
+ * <pre>{@code
+ * Warmup.Report report = Warmup.of(Warmup.DEFAULT_CORPUS).rounds(20).run();
+ * CompletableFuture<Warmup.Report> ready = Warmup.of(Path.of("clauses.txt")).runAsync();
+ * }</pre>
+ * The first round compiles every clause through {@link JsonStream#compile(String)}, so the clause cache holds them
+ * afterwards. Later rounds parse again, bypassing the cache, to give the JIT time on the lexers and parsers. Every
+ * round also applies each clause to a copy of a small sample document.
+ */
+public final class Warmup {
+    /**
+     * Clauses covering every rule and operator of both grammars.
+     */
+    public static final List<String> DEFAULT_CORPUS = List.of(
+            "filter -> username = \"aaa\"",
+            "filter -> username == \"aaa\" or username !== \"bbb\"",
+            "filter -> profile.name != \"ali\" and profile.family ~ \"mo\"",
+            "filter -> profile.name !~ \"hossein\"",
+            "filter -> profile.age > 30 and (profile.age <= 45 or profile.age >= 60) and profile.age < 90",
+            "filter -> profile.account >= 10000000000",
+            "filter -> profile.contact.city = \"Tehran\" or profile.contact.zip == 12345",
+            "filter -> profile.address[].state = \"Tehran\"",
+            "filter -> profile.address[1].state == \"Tehran\"",
+            "filter -> profile.address[ state = \"Tehran\" ]",
+            "filter -> profile.address[].country[ @ = \"IR\" ]",
+            "filter -> profile.address[0]",
+            "filter -> [0]",
+            "filter -> profile.missing == null",
+            "map -> profile.contact.country = \"IR\"",
+            "map -> profile.label = name + \" \" + family",
+            "map -> profile.score = (age * 2 + 10) / 3 - 1",
+            "map -> profile.contact.zip = null",
+            "map -> profile.address[].visited = \"yes\"",
+            "map -> profile.address[1].capital = \"no\"",
+            "map -> profile.address[state == \"Tehran\" or state ~ \"an\"].capital = \"yes\"",
+            "map -> [0].first = 1");
+
+    private static final String SAMPLE = """
+            [
+              {"username": "aaa", "password": "1234",
+               "profile": {"name": "Ali", "family": "Mohammadi", "age": 45, "account": 9287311,
+                           "contact": {"city": "Tehran", "zip": 12345},
+                           "address": [{"country": ["OZ", "IT", "IR"]}, {"state": "Tehran"}, {"state": "Hormozgan"}]}},
+              {"username": "bbb", "password": "1234",
+               "profile": {"name": "Mahdi", "family": "Sheikh Hosseini", "age": 21, "account": 12456789794,
+                           "contact": {"city": "Pardis", "zip": 99999},
+                           "address": [{"country": ["AF", "AR", "EN"]}, {"state": "Mazanderan"}, {"state": "Khorasan"}]}}
+            ]
+            """;
+
+    private final List<String> corpus;
+    private int rounds = 10;
+    private JsonNode sample;
+
+    /**
+     * @param clauses  number of clauses in the corpus
+     * @param rounds   number of passes over the corpus
+     * @param failures clauses that did not compile or apply, counted once per round
+     * @param elapsed  total warm-up time
+     * @param dfa      DFA states after the warm-up
+     */
+    public record Report(int clauses, int rounds, int failures, Duration elapsed, GrammarCache.DfaStats dfa) {
+    }
+
+    private Warmup(List<String> corpus) {
+        this.corpus = List.copyOf(corpus);
+    }
+
+    public static Warmup of(List<String> corpus) {
+        return new Warmup(Objects.requireNonNull(corpus));
+    }
+
+    /**
+     * Read the corpus from a file with one clause per line. Blank lines and lines starting with {@code #} are skipped.
+     */
+    public static Warmup of(Path corpus) {
+        try {
+            return new Warmup(Files.readAllLines(corpus).stream()
+                    .map(String::trim)
+                    .filter(line -> !line.isEmpty() && !line.startsWith("#"))
+                    .toList());
+        } catch (IOException e) {
+            throw new RuntimeException(e);
+        }
+    }
+
+    public Warmup rounds(int rounds) {
+        if (rounds < 1) throw new IllegalArgumentException("rounds should be greater than zero");
+        this.rounds = rounds;
+        return this;
+    }
+
+    /**
+     * Document the clauses are applied to, ideally shaped like production data. Defaults to a small user array.
+     */
+    public Warmup sample(JsonNode sample) {
+        this.sample = Objects.requireNonNull(sample);
+        return this;
+    }
+
+    /**
+     * Warm up on the calling thread.
+     */
+    public Report run() {
+        JsonNode document = sample != null ? sample : defaultSample();
+        long start = System.nanoTime();
+        int failures = 0;
+        for (int round = 0; round < rounds; round++) {
+            for (String clause : corpus) {
+                try {
+                    CompiledClause compiled = round == 0
+                            ? JsonStream.compile(clause)
+                            : CompiledClause.compile(CompiledClause.normalize(clause, null));
+                    compiled.applyTo(document.deepCopy());
+                } catch (RuntimeException e) {
+                    failures++;
+                }
+            }
+        }
+        return new Report(corpus.size(), rounds, failures, Duration.ofNanos(System.nanoTime() - start),
+                GrammarCache.dfaStates());
+    }
+
+    /**
+     * Warm up in the background on the common fork/join pool.
+     */
+    public CompletableFuture<Report> runAsync() {
+        return runAsync(ForkJoinPool.commonPool());
+    }
+
+    public CompletableFuture<Report> runAsync(Executor executor) {
+        return CompletableFuture.supplyAsync(this::run, executor);
+    }
+
+    private static JsonNode defaultSample() {
+        try {
+            return JsonStream.mapper.readTree(SAMPLE);
+        } catch (JsonProcessingException e) {
+            throw new RuntimeException(e);
+        }
+    }
+}
@@ -0,0 +1,139 @@
+package ir.moke.columnar;
+
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.node.ArrayNode;
+import ir.moke.compiler.CompareOperator;
+import ir.moke.compiler.FilterPath;
+
+import java.util.HashMap;
+import java.util.Map;
+import java.util.function.Predicate;
+
+/**
+ * The values one path resolves to in every element of a top-level array, stored by type.
+ * <p>
+ * Numbers are kept as doubles, the precision every filter comparison uses. Strings are dictionary encoded: each row
+ * holds the code of its value and a literal is compared once per distinct value. Anything else, including paths that
+ * match several nodes, is only flagged in {@link #otherMask} and left to the interpreter. A row whose path matches
+ * nothing has no bit set in any mask.
+ */
+final class Column {
+    final int size;
+
+    final double[] numbers;
+    final long[] numberMask;
+
+    final int[] codes;
+    final String[] dictionary;
+    final long[] stringMask;
+
+    final long[] otherMask;
+
+    private Column(int size, double[] numbers, long[] numberMask, int[] codes, String[] dictionary, long[] stringMask,
+                   long[] otherMask) {
+        this.size = size;
+        this.numbers = numbers;
+        this.numberMask = numberMask;
+        this.codes = codes;
+        this.dictionary = dictionary;
+        this.stringMask = stringMask;
+        this.otherMask = otherMask;
+    }
+
+    static Column build(ArrayNode array, FilterPath path) {
+        int size = array.size();
+        double[] numbers = new double[size];
+        long[] numberMask = words(size);
+        int[] codes = new int[size];
+        long[] stringMask = words(size);
+        long[] otherMask = words(size);
+        Map<String, Integer> dictionary = new HashMap<>();
+
+        for (int i = 0; i < size; i++) {
+            JsonNode value = path.read(array.get(i));
+            if (value == null) continue;
+            if (value.isNumber()) {
+                numbers[i] = value.doubleValue();
+                set(numberMask, i);
+            } else if (value.isTextual()) {
+                codes[i] = dictionary.computeIfAbsent(value.textValue(), k -> dictionary.size());
+                set(stringMask, i);
+            } else {
+                set(otherMask, i);
+            }
+        }
+
+        String[] values = new String[dictionary.size()];
+        dictionary.forEach((value, code) -> values[code] = value);
+        return new Column(size, numbers, numberMask, codes, values, stringMask, otherMask);
+    }
+
+    /**
+     * @param positions rows to keep, ascending
+     * @return a column holding only the given rows, renumbered from zero
+     */
+    Column select(int[] positions) {
+        int length = positions.length;
+        double[] selectedNumbers = new double[length];
+        long[] selectedNumberMask = words(length);
+        int[] selectedCodes = new int[length];
+        long[] selectedStringMask = words(length);
+        long[] selectedOtherMask = words(length);
+        for (int i = 0; i < length; i++) {
+            int row = positions[i];
+            if (get(numberMask, row)) {
+                selectedNumbers[i] = numbers[row];
+                set(selectedNumberMask, i);
+            } else if (get(stringMask, row)) {
+                selectedCodes[i] = codes[row];
+                set(selectedStringMask, i);
+            } else if (get(otherMask, row)) {
+                set(selectedOtherMask, i);
+            }
+        }
+        return new Column(length, selectedNumbers, selectedNumberMask, selectedCodes, dictionary, selectedStringMask,
+                selectedOtherMask);
+    }
+
+    /**
+     * Rows where {@code value operator literal} holds for a numeric value.
+     */
+    long[] compare(NumericKernel kernel, CompareOperator operator, double literal) {
+        long[] bits = words(size);
+        kernel.compare(numbers, size, operator, literal, bits);
+        for (int w = 0; w < bits.length; w++) bits[w] &= numberMask[w];
+        return bits;
+    }
+
+    /**
+     * Rows with a string value {@code test} holds for, tested once per distinct value.
+     */
+    long[] compare(Predicate<String> test) {
+        boolean[] matches = new boolean[dictionary.length];
+        for (int code = 0; code < dictionary.length; code++) {
+            matches[code] = test.test(dictionary[code]);
+        }
+        long[] bits = words(size);
+        for (int w = 0; w < stringMask.length; w++) {
+            long word = stringMask[w];
+            while (word != 0) {
+                int row = (w << 6) + Long.numberOfTrailingZeros(word);
+                if (matches[codes[row]]) bits[w] |= 1L << row;
+                word &= word - 1;
+            }
+        }
+        return bits;
+    }
+
+    static long[] words(int size) {
+        return new long[(size + 63) >>> 6];
+    }
+
+    static void set(long[] bits, int row) {
+        bits[row >>> 6] |= 1L << row;
+    }
+
+    static boolean get(long[] bits, int row) {
+        return (bits[row >>> 6] & 1L << row) != 0;
+    }
+}
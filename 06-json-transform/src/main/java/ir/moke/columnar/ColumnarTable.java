@@ -0,0 +1,220 @@
+package ir.moke.columnar;
+
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.node.ArrayNode;
+import ir.moke.compiler.CompareOperator;
+import ir.moke.compiler.ContainsMatcher;
+import ir.moke.compiler.FilterPath;
+import ir.moke.compiler.FilterPredicate;
+import ir.moke.compiler.Operand;
+
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Column-oriented view of a top-level array for analytic filters.
+ * <p>
+ * The first filter that compares a path with a literal shreds that path into a {@link Column}. Numeric comparisons
+ * then run over a plain {@code double[]}, with the Vector API when it is built in (the {@code vector} profile) and the
+ * {@code jdk.incubator.vector} module is present, string comparisons once per distinct value, and
+ * {@code and}/{@code or} become bitwise operations over the resulting selection bitmaps.
+ * <p>
+ * Rows the columns can not decide, such as strings compared with numbers or paths matching several nodes, are tested
+ * with the compiled predicate itself, in array order and honouring the short-circuit of {@code and}/{@code or}. The
+ * result, including the errors those rows raise, is therefore the same as a full scan.
+ * <p>
+ * A table describes the array as it was when it was created and has to be rebuilt, or {@link #select(int[])
+ * narrowed}, when the array changes.
+ */
+public final class ColumnarTable {
+    private static final NumericKernel KERNEL = NumericKernel.best();
+
+    private final ArrayNode array;
+    private final int size;
+    /* Columns by path text, shredded on first use */
+    private final Map<String, Column> columns;
+
+    private ColumnarTable(ArrayNode array, int size, Map<String, Column> columns) {
+        this.array = array;
+        this.size = size;
+        this.columns = columns;
+    }
+
+    public static ColumnarTable of(ArrayNode array) {
+        return new ColumnarTable(array, array.size(), new HashMap<>());
+    }
+
+    public int size() {
+        return size;
+    }
+
+    /**
+     * @return true when numeric comparisons use the Vector API
+     */
+    public static boolean vectorized() {
+        return !(KERNEL instanceof ScalarNumericKernel);
+    }
+
+    /**
+     * Positions of the elements passing every filter, applied in order the way a filter pipeline does.
+     *
+     * @return positions in array order, or {@code null} when a filter can not be evaluated over columns, e.g. because
+     * it narrows nested arrays or compares two paths
+     */
+    public int[] filter(List<FilterPredicate> filters) {
+        for (FilterPredicate filter : filters) {
+            if (!supported(filter)) return null;
+        }
+
+        long[] alive = Column.words(size);
+        Arrays.fill(alive, -1L);
+        if (size % 64 != 0) alive[alive.length - 1] = (1L << size) - 1;
+
+        for (FilterPredicate filter : filters) {
+            Selection selection = evaluate(filter);
+            long[] passed = selection.bits;
+            for (int w = 0; w < alive.length; w++) {
+                long word = alive[w] & selection.residual[w];
+                while (word != 0) {
+                    int row = (w << 6) + Long.numberOfTrailingZeros(word);
+                    if (filter.test(array.get(row))) passed[w] |= 1L << row;
+                    else passed[w] &= ~(1L << row);
+                    word &= word - 1;
+                }
+                alive[w] &= passed[w];
+            }
+        }
+        return positions(alive);
+    }
+
+    /**
+     * @param positions rows to keep, ascending, e.g. the result of {@link #filter(List)}
+     * @return a table over the same array once only the given rows are left in it, keeping the columns built so far
+     */
+    public ColumnarTable select(int[] positions) {
+        Map<String, Column> selected = new HashMap<>();
+        columns.forEach((path, column) -> selected.put(path, column.select(positions)));
+        return new ColumnarTable(array, positions.length, selected);
+    }
+
+    /**
+     * Rows where a predicate holds ({@code bits}) and rows the columns can not decide ({@code residual}). Bits of
+     * residual rows are meaningless.
+     */
+    private record Selection(long[] bits, long[] residual) {
+    }
+
+    private static boolean supported(FilterPredicate predicate) {
+        return switch (predicate) {
+            case FilterPredicate.And and -> supported(and.left()) && supported(and.right());
+            case FilterPredicate.Or or -> supported(or.left()) && supported(or.right());
+            case FilterPredicate.Never never -> true;
+            case FilterPredicate.Comparison comparison -> {
+                if (comparison.left() instanceof Operand.Path && comparison.right() instanceof Operand.Literal(JsonNode literal)) {
+                    yield literal.isNumber() || literal.isTextual();
+                }
+                if (comparison.left() instanceof Operand.Literal(JsonNode literal) && comparison.right() instanceof Operand.Path) {
+                    yield literal.isNumber() || literal.isTextual();
+                }
+                yield false;
+            }
+            case FilterPredicate.ArrayFilter arrayFilter -> false;
+        };
+    }
+
+    private Selection evaluate(FilterPredicate predicate) {
+        return switch (predicate) {
+            case FilterPredicate.And and -> {
+                Selection left = evaluate(and.left());
+                Selection right = evaluate(and.right());
+                long[] bits = left.bits.clone();
+                long[] residual = left.residual.clone();
+                for (int w = 0; w < bits.length; w++) {
+                    bits[w] &= right.bits[w];
+                    // the right side is only evaluated where the left one holds
+                    residual[w] |= left.bits[w] & right.residual[w];
+                }
+                yield new Selection(bits, residual);
+            }
+            case FilterPredicate.Or or -> {
+                Selection left = evaluate(or.left());
+                Selection right = evaluate(or.right());
+                long[] bits = left.bits.clone();
+                long[] residual = left.residual.clone();
+                for (int w = 0; w < bits.length; w++) {
+                    bits[w] |= right.bits[w];
+                    // the right side is only evaluated where the left one fails
+                    residual[w] |= ~left.bits[w] & right.residual[w];
+                }
+                yield new Selection(bits, residual);
+            }
+            case FilterPredicate.Comparison comparison -> {
+                if (comparison.left() instanceof Operand.Path(FilterPath path)
+                        && comparison.right() instanceof Operand.Literal(JsonNode literal)) {
+                    yield compare(column(path), comparison.operator(), literal, false, comparison.matcher());
+                }
+                // supported() only lets a literal on the left through with a path on the right
+                Operand.Path right = (Operand.Path) comparison.right();
+                Operand.Literal left = (Operand.Literal) comparison.left();
+                yield compare(column(right.path()), comparison.operator(), left.value(), true, null);
+            }
+            default -> new Selection(Column.words(size), Column.words(size));
+        };
+    }
+
+    private Selection compare(Column column, CompareOperator operator, JsonNode literal, boolean literalOnLeft,
+                              ContainsMatcher matcher) {
+        long[] residual = column.otherMask.clone();
+        long[] bits;
+        if (literal.isNumber()) {
+            if (operator == CompareOperator.CONTAINS || operator == CompareOperator.NOT_CONTAINS) {
+                // not defined on numbers, every row with a value goes to the interpreter
+                bits = Column.words(size);
+                for (int w = 0; w < residual.length; w++) residual[w] |= column.numberMask[w] | column.stringMask[w];
+            } else {
+                bits = column.compare(KERNEL, literalOnLeft ? mirror(operator) : operator, literal.doubleValue());
+                for (int w = 0; w < residual.length; w++) residual[w] |= column.stringMask[w];
+            }
+        } else {
+            String text = literal.textValue();
+            bits = column.compare(matcher != null ? matcher::test
+                    : literalOnLeft ? value -> operator.testString(text, value) : value -> operator.testString(value, text));
+            for (int w = 0; w < residual.length; w++) residual[w] |= column.numberMask[w];
+        }
+        return new Selection(bits, residual);
+    }
+
+    private Column column(FilterPath path) {
+        return columns.computeIfAbsent(path.text(), k -> Column.build(array, path));
+    }
+
+    /**
+     * Operator to use when the literal is on the left, e.g. {@code 30 < age} is evaluated as {@code age > 30}.
+     */
+    private static CompareOperator mirror(CompareOperator operator) {
+        return switch (operator) {
+            case GREATER -> CompareOperator.LESS;
+            case GREATER_EQUAL -> CompareOperator.LESS_EQUAL;
+            case LESS -> CompareOperator.GREATER;
+            case LESS_EQUAL -> CompareOperator.GREATER_EQUAL;
+            default -> operator;
+        };
+    }
+
+    private static int[] positions(long[] bits) {
+        int count = 0;
+        for (long word : bits) count += Long.bitCount(word);
+        int[] positions = new int[count];
+        int n = 0;
+        for (int w = 0; w < bits.length; w++) {
+            long word = bits[w];
+            while (word != 0) {
+                positions[n++] = (w << 6) + Long.numberOfTrailingZeros(word);
+                word &= word - 1;
+            }
+        }
+        return positions;
+    }
+}
@@ -0,0 +1,34 @@
+package ir.moke.columnar;
+
+import ir.moke.compiler.CompareOperator;
+
+/**
+ * Compares a column of doubles with a constant into a bitmap, 64 rows per word.
+ */
+interface NumericKernel {
+
+    /**
+     * Set bit {@code i % 64} of {@code out[i / 64]} when {@code values[i] operator literal}, for every {@code i <
+     * size}. Bits of rows that are not numbers are undefined and masked out by the caller.
+     *
+     * @param operator one of the equality or ordering operators, applied with {@link CompareOperator#testNumeric}
+     *                 semantics
+     */
+    void compare(double[] values, int size, CompareOperator operator, double literal, long[] out);
+
+    /**
+     * @return the Vector API kernel when it was compiled in with the {@code vector} profile and the
+     * {@code jdk.incubator.vector} module is present, the scalar one otherwise
+     */
+    static NumericKernel best() {
+        if (ModuleLayer.boot().findModule("jdk.incubator.vector").isPresent()) {
+            try {
+                return (NumericKernel) Class.forName("ir.moke.columnar.VectorNumericKernel")
+                        .getDeclaredConstructor().newInstance();
+            } catch (ReflectiveOperationException | LinkageError e) {
+                // fall back to the scalar kernel
+            }
+        }
+        return ScalarNumericKernel.INSTANCE;
+    }
+}
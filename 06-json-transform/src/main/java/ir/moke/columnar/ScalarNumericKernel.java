@@ -0,0 +1,50 @@
+package ir.moke.columnar;
+
+import ir.moke.compiler.CompareOperator;
+
+/**
+ * Plain loops, one per operator, simple enough for the JIT to unroll and vectorize on its own.
+ */
+final class ScalarNumericKernel implements NumericKernel {
+    static final ScalarNumericKernel INSTANCE = new ScalarNumericKernel();
+
+    private ScalarNumericKernel() {
+    }
+
+    @Override
+    public void compare(double[] values, int size, CompareOperator operator, double literal, long[] out) {
+        compare(values, 0, size, operator, literal, out);
+    }
+
+    /**
+     * Compare rows {@code from} (a multiple of 64) to {@code size}.
+     */
+    void compare(double[] values, int from, int size, CompareOperator operator, double literal, long[] out) {
+        for (int base = from; base < size; base += 64) {
+            int end = Math.min(base + 64, size);
+            long bits = 0;
+            switch (operator) {
+                case EQUAL_IGNORE_CASE, EQUAL -> {
+                    for (int i = base; i < end; i++) bits |= (values[i] == literal ? 1L : 0L) << (i - base);
+                }
+                case NOT_EQUAL_IGNORE_CASE, NOT_EQUAL -> {
+                    for (int i = base; i < end; i++) bits |= (values[i] != literal ? 1L : 0L) << (i - base);
+                }
+                case GREATER -> {
+                    for (int i = base; i < end; i++) bits |= (values[i] > literal ? 1L : 0L) << (i - base);
+                }
+                case GREATER_EQUAL -> {
+                    for (int i = base; i < end; i++) bits |= (values[i] >= literal ? 1L : 0L) << (i - base);
+                }
+                case LESS -> {
+                    for (int i = base; i < end; i++) bits |= (values[i] < literal ? 1L : 0L) << (i - base);
+                }
+                case LESS_EQUAL -> {
+                    for (int i = base; i < end; i++) bits |= (values[i] <= literal ? 1L : 0L) << (i - base);
+                }
+                default -> throw new IllegalArgumentException("Numeric contains operators not supported");
+            }
+            out[base >>> 6] = bits;
+        }
+    }
+}
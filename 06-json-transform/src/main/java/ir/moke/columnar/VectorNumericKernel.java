@@ -0,0 +1,40 @@
+package ir.moke.columnar;
+
+import ir.moke.compiler.CompareOperator;
+import jdk.incubator.vector.DoubleVector;
+import jdk.incubator.vector.VectorOperators;
+import jdk.incubator.vector.VectorSpecies;
+
+/**
+ * Compares whole vectors of the preferred species at a time; lane masks are packed straight into the bitmap words.
+ * Only compiled with the {@code vector} profile, since javac warns about incubating modules whenever they are added,
+ * and only loaded when the {@code jdk.incubator.vector} module is present, see {@link NumericKernel#best()}.
+ */
+final class VectorNumericKernel implements NumericKernel {
+    private static final VectorSpecies<Double> SPECIES = DoubleVector.SPECIES_PREFERRED;
+
+    @Override
+    public void compare(double[] values, int size, CompareOperator operator, double literal, long[] out) {
+        VectorOperators.Comparison comparison = switch (operator) {
+            case EQUAL_IGNORE_CASE, EQUAL -> VectorOperators.EQ;
+            case NOT_EQUAL_IGNORE_CASE, NOT_EQUAL -> VectorOperators.NE;
+            case GREATER -> VectorOperators.GT;
+            case GREATER_EQUAL -> VectorOperators.GE;
+            case LESS -> VectorOperators.LT;
+            case LESS_EQUAL -> VectorOperators.LE;
+            default -> throw new IllegalArgumentException("Numeric contains operators not supported");
+        };
+
+        int lanes = SPECIES.length();
+        // whole words only, the rest goes through the scalar loop
+        int full = size & ~63;
+        for (int base = 0; base < full; base += 64) {
+            long bits = 0;
+            for (int i = 0; i < 64; i += lanes) {
+                bits |= DoubleVector.fromArray(SPECIES, values, base + i).compare(comparison, literal).toLong() << i;
+            }
+            out[base >>> 6] = bits;
+        }
+        ScalarNumericKernel.INSTANCE.compare(values, full, size, operator, literal, out);
+    }
+}
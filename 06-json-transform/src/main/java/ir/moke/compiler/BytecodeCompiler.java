@@ -0,0 +1,322 @@
+package ir.moke.compiler;
+
+import com.fasterxml.jackson.databind.JsonNode;
+
+import java.lang.classfile.ClassFile;
+import java.lang.classfile.CodeBuilder;
+import java.lang.classfile.Label;
+import java.lang.classfile.TypeKind;
+import java.lang.constant.ClassDesc;
+import java.lang.constant.ConstantDescs;
+import java.lang.constant.DynamicConstantDesc;
+import java.lang.constant.MethodTypeDesc;
+import java.lang.invoke.MethodHandles;
+import java.lang.invoke.MethodType;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.function.Predicate;
+
+import static java.lang.constant.ConstantDescs.CD_Object;
+import static java.lang.constant.ConstantDescs.CD_String;
+import static java.lang.constant.ConstantDescs.CD_boolean;
+import static java.lang.constant.ConstantDescs.CD_double;
+import static java.lang.constant.ConstantDescs.CD_int;
+
+/**
+ * Compiles a {@link FilterPredicate} tree into a hidden class implementing {@code Predicate<JsonNode>}.
+ * <p>
+ * {@code and}/{@code or} become plain branches. A comparison between a path of plain field names (or {@code @}) and a
+ * number or string literal is emitted inline: the path is unrolled into one {@link JsonNode#get(String)} per segment
+ * and the literal is a constant of the class. Whenever the data does not fit that shape at run time, e.g. the path
+ * crosses an array or the value type differs from the literal, the generated code calls the original predicate, so
+ * results are always the same as the tree-walking evaluator. Array filters and any other construct are delegated to
+ * the original predicate as well.
+ * <p>
+ * Predicates the generated class delegates to are passed as class data, which the JIT treats as constants.
+ */
+public final class BytecodeCompiler {
+    private static final MethodHandles.Lookup LOOKUP = MethodHandles.lookup();
+    private static final ClassDesc CD_GENERATED = ClassDesc.of(BytecodeCompiler.class.getPackageName(), "GeneratedFilter");
+    private static final ClassDesc CD_JSON_NODE = ClassDesc.of(JsonNode.class.getName());
+    private static final ClassDesc CD_PREDICATE = ClassDesc.of(Predicate.class.getName());
+    private static final ClassDesc CD_COMPARE_OPERATOR = ClassDesc.of(CompareOperator.class.getName());
+    private static final ClassDesc CD_CONTAINS_MATCHER = ClassDesc.of(ContainsMatcher.class.getName());
+
+    private static final MethodTypeDesc MTD_EVAL = MethodTypeDesc.of(CD_boolean, CD_JSON_NODE);
+    private static final MethodTypeDesc MTD_TEST = MethodTypeDesc.of(CD_boolean, CD_Object);
+    private static final MethodTypeDesc MTD_IS = MethodTypeDesc.of(CD_boolean);
+    private static final MethodTypeDesc MTD_GET = MethodTypeDesc.of(CD_JSON_NODE, CD_String);
+    private static final MethodTypeDesc MTD_DOUBLE_VALUE = MethodTypeDesc.of(CD_double);
+    private static final MethodTypeDesc MTD_TEXT_VALUE = MethodTypeDesc.of(CD_String);
+    private static final MethodTypeDesc MTD_EQUALS_IGNORE_CASE = MethodTypeDesc.of(CD_boolean, CD_String);
+    private static final MethodTypeDesc MTD_EQUALS = MethodTypeDesc.of(CD_boolean, CD_Object);
+    private static final MethodTypeDesc MTD_COMPARE_TO = MethodTypeDesc.of(CD_int, CD_String);
+    private static final MethodTypeDesc MTD_TEST_STRING = MethodTypeDesc.of(CD_boolean, CD_String, CD_String);
+    private static final MethodTypeDesc MTD_MATCHES = MethodTypeDesc.of(CD_boolean, CD_String);
+
+    private BytecodeCompiler() {
+    }
+
+    /**
+     * @return a predicate giving the same results as {@code filter}, backed by a generated class
+     */
+    public static Predicate<JsonNode> compile(FilterPredicate filter) {
+        List<Object> constants = new ArrayList<>();
+        byte[] bytes = ClassFile.of().build(CD_GENERATED, clb -> {
+            clb.withFlags(ClassFile.ACC_PUBLIC | ClassFile.ACC_FINAL | ClassFile.ACC_SUPER);
+            clb.withInterfaceSymbols(CD_PREDICATE);
+            clb.withMethodBody(ConstantDescs.INIT_NAME, ConstantDescs.MTD_void, ClassFile.ACC_PUBLIC, cb -> cb
+                    .aload(0)
+                    .invokespecial(CD_Object, ConstantDescs.INIT_NAME, ConstantDescs.MTD_void)
+                    .return_());
+            clb.withMethodBody("test", MTD_TEST, ClassFile.ACC_PUBLIC, cb -> cb
+                    .aload(1)
+                    .checkcast(CD_JSON_NODE)
+                    .invokestatic(CD_GENERATED, "eval", MTD_EVAL)
+                    .ireturn());
+            clb.withMethodBody("eval", MTD_EVAL, ClassFile.ACC_PRIVATE | ClassFile.ACC_STATIC,
+                    cb -> new Generator(cb, constants).body(filter));
+        });
+
+        try {
+            MethodHandles.Lookup lookup = LOOKUP.defineHiddenClassWithClassData(bytes, List.copyOf(constants), true);
+            @SuppressWarnings("unchecked")
+            Predicate<JsonNode> predicate = (Predicate<JsonNode>) lookup.findConstructor(lookup.lookupClass(),
+                    MethodType.methodType(void.class)).invoke();
+            return predicate;
+        } catch (RuntimeException | Error e) {
+            throw e;
+        } catch (Throwable e) {
+            throw new IllegalStateException("Cannot load generated filter", e);
+        }
+    }
+
+    /**
+     * Emits the body of {@code static boolean eval(JsonNode node)}.
+     */
+    private static final class Generator {
+        /* Slot of the node argument */
+        private static final int NODE = 0;
+
+        private final CodeBuilder cb;
+        private final List<Object> constants;
+
+        private Generator(CodeBuilder cb, List<Object> constants) {
+            this.cb = cb;
+            this.constants = constants;
+        }
+
+        void body(FilterPredicate filter) {
+            Label fail = cb.newLabel();
+            branch(filter, fail, false);
+            cb.iconst_1().ireturn();
+            cb.labelBinding(fail);
+            cb.iconst_0().ireturn();
+        }
+
+        /**
+         * Jump to {@code target} when {@code predicate} evaluates to {@code jumpWhen}, fall through otherwise.
+         */
+        private void branch(FilterPredicate predicate, Label target, boolean jumpWhen) {
+            switch (predicate) {
+                case FilterPredicate.And and -> {
+                    if (!jumpWhen) {
+                        branch(and.left(), target, false);
+                        branch(and.right(), target, false);
+                    } else {
+                        Label skip = cb.newLabel();
+                        branch(and.left(), skip, false);
+                        branch(and.right(), target, true);
+                        cb.labelBinding(skip);
+                    }
+                }
+                case FilterPredicate.Or or -> {
+                    if (jumpWhen) {
+                        branch(or.left(), target, true);
+                        branch(or.right(), target, true);
+                    } else {
+                        Label skip = cb.newLabel();
+                        branch(or.left(), skip, true);
+                        branch(or.right(), target, false);
+                        cb.labelBinding(skip);
+                    }
+                }
+                case FilterPredicate.Never ignored -> {
+                    if (!jumpWhen) cb.goto_(target);
+                }
+                case FilterPredicate.Comparison comparison -> {
+                    comparison(comparison);
+                    jump(target, jumpWhen);
+                }
+                default -> {
+                    delegate(predicate);
+                    jump(target, jumpWhen);
+                }
+            }
+        }
+
+        private void jump(Label target, boolean jumpWhen) {
+            if (jumpWhen) cb.ifne(target);
+            else cb.ifeq(target);
+        }
+
+        /**
+         * Push the result of {@code predicate.test(node)} on the original predicate.
+         */
+        private void delegate(FilterPredicate predicate) {
+            cb.ldc(constant(predicate, CD_PREDICATE))
+                    .aload(NODE)
+                    .invokeinterface(CD_PREDICATE, "test", MTD_TEST);
+        }
+
+        /**
+         * Push the result of a comparison.
+         */
+        private void comparison(FilterPredicate.Comparison comparison) {
+            Operand left = comparison.left();
+            Operand right = comparison.right();
+            CompareOperator operator = comparison.operator();
+            boolean numeric = isLiteral(left, true) || isLiteral(right, true);
+            boolean text = isLiteral(left, false) || isLiteral(right, false);
+            boolean inline = inlinable(left) && inlinable(right)
+                    && (numeric != text)
+                    && !(left instanceof Operand.Literal && right instanceof Operand.Literal)
+                    && !(numeric && (operator == CompareOperator.CONTAINS || operator == CompareOperator.NOT_CONTAINS));
+            if (!inline) {
+                delegate(comparison);
+                return;
+            }
+
+            Label no = cb.newLabel();
+            Label slow = cb.newLabel();
+            Label end = cb.newLabel();
+
+            int leftSlot = read(left, no, slow);
+            int rightSlot = read(right, no, slow);
+            // the generic comparison compares numbers numerically and anything else by text value, only the case
+            // matching the literal is inlined
+            checkType(leftSlot, numeric, slow);
+            checkType(rightSlot, numeric, slow);
+
+            if (numeric) {
+                loadDouble(left, leftSlot);
+                loadDouble(right, rightSlot);
+                switch (operator) {
+                    case EQUAL_IGNORE_CASE, EQUAL -> cb.dcmpl().ifne(no);
+                    case NOT_EQUAL_IGNORE_CASE, NOT_EQUAL -> cb.dcmpl().ifeq(no);
+                    case GREATER -> cb.dcmpl().ifle(no);
+                    case GREATER_EQUAL -> cb.dcmpl().iflt(no);
+                    case LESS -> cb.dcmpg().ifge(no);
+                    case LESS_EQUAL -> cb.dcmpg().ifgt(no);
+                    default -> throw new IllegalStateException(operator.name());
+                }
+                cb.iconst_1().goto_(end);
+            } else {
+                switch (operator) {
+                    case EQUAL_IGNORE_CASE, NOT_EQUAL_IGNORE_CASE -> {
+                        loadString(left, leftSlot);
+                        loadString(right, rightSlot);
+                        cb.invokevirtual(CD_String, "equalsIgnoreCase", MTD_EQUALS_IGNORE_CASE);
+                        if (operator == CompareOperator.NOT_EQUAL_IGNORE_CASE) cb.iconst_1().ixor();
+                        cb.goto_(end);
+                    }
+                    case EQUAL, NOT_EQUAL -> {
+                        loadString(left, leftSlot);
+                        loadString(right, rightSlot);
+                        cb.invokevirtual(CD_String, "equals", MTD_EQUALS);
+                        if (operator == CompareOperator.NOT_EQUAL) cb.iconst_1().ixor();
+                        cb.goto_(end);
+                    }
+                    case GREATER, GREATER_EQUAL, LESS, LESS_EQUAL -> {
+                        loadString(left, leftSlot);
+                        loadString(right, rightSlot);
+                        cb.invokevirtual(CD_String, "compareTo", MTD_COMPARE_TO);
+                        switch (operator) {
+                            case GREATER -> cb.ifle(no);
+                            case GREATER_EQUAL -> cb.iflt(no);
+                            case LESS -> cb.ifge(no);
+                            default -> cb.ifgt(no);
+                        }
+                        cb.iconst_1().goto_(end);
+                    }
+                    default -> {
+                        if (comparison.matcher() != null) {
+                            cb.ldc(constant(comparison.matcher(), CD_CONTAINS_MATCHER));
+                            loadString(left, leftSlot);
+                            cb.invokevirtual(CD_CONTAINS_MATCHER, "test", MTD_MATCHES);
+                        } else {
+                            cb.ldc(constant(operator, CD_COMPARE_OPERATOR));
+                            loadString(left, leftSlot);
+                            loadString(right, rightSlot);
+                            cb.invokevirtual(CD_COMPARE_OPERATOR, "testString", MTD_TEST_STRING);
+                        }
+                        cb.goto_(end);
+                    }
+                }
+            }
+
+            cb.labelBinding(no);
+            cb.iconst_0().goto_(end);
+            cb.labelBinding(slow);
+            delegate(comparison);
+            cb.labelBinding(end);
+        }
+
+        /**
+         * Resolve a path or {@code @} operand into a new local. Jumps to {@code no} when the path matches nothing and
+         * to {@code slow} when it crosses or ends in an array.
+         *
+         * @return local slot of the value, or {@code -1} for a literal
+         */
+        private int read(Operand operand, Label no, Label slow) {
+            if (operand instanceof Operand.Literal) return -1;
+
+            int slot = cb.allocateLocal(TypeKind.REFERENCE);
+            cb.aload(NODE).astore(slot);
+            if (operand instanceof Operand.Path(FilterPath path)) {
+                for (String field : path.plainFields()) {
+                    cb.aload(slot).invokevirtual(CD_JSON_NODE, "isArray", MTD_IS).ifne(slow);
+                    cb.aload(slot).invokevirtual(CD_JSON_NODE, "isObject", MTD_IS).ifeq(no);
+                    cb.aload(slot).ldc(field).invokevirtual(CD_JSON_NODE, "get", MTD_GET).astore(slot);
+                    cb.aload(slot).ifnull(no);
+                }
+            }
+            // several values are compared pairwise
+            cb.aload(slot).invokevirtual(CD_JSON_NODE, "isArray", MTD_IS).ifne(slow);
+            return slot;
+        }
+
+        private void checkType(int slot, boolean numeric, Label slow) {
+            if (slot < 0) return;
+            cb.aload(slot).invokevirtual(CD_JSON_NODE, numeric ? "isNumber" : "isTextual", MTD_IS).ifeq(slow);
+        }
+
+        private void loadDouble(Operand operand, int slot) {
+            if (operand instanceof Operand.Literal(JsonNode value)) cb.loadConstant(value.doubleValue());
+            else cb.aload(slot).invokevirtual(CD_JSON_NODE, "doubleValue", MTD_DOUBLE_VALUE);
+        }
+
+        private void loadString(Operand operand, int slot) {
+            if (operand instanceof Operand.Literal(JsonNode value)) cb.ldc(value.textValue());
+            else cb.aload(slot).invokevirtual(CD_JSON_NODE, "textValue", MTD_TEXT_VALUE);
+        }
+
+        private static boolean isLiteral(Operand operand, boolean number) {
+            return operand instanceof Operand.Literal(JsonNode value) && (number ? value.isNumber() : value.isTextual());
+        }
+
+        private static boolean inlinable(Operand operand) {
+            return switch (operand) {
+                case Operand.Literal(JsonNode value) -> value.isNumber() || value.isTextual();
+                case Operand.Self ignored -> true;
+                case Operand.Path(FilterPath path) -> path.plainFields() != null;
+            };
+        }
+
+        private DynamicConstantDesc<Object> constant(Object value, ClassDesc type) {
+            constants.add(value);
+            return DynamicConstantDesc.ofNamed(ConstantDescs.BSM_CLASS_DATA_AT, ConstantDescs.DEFAULT_NAME, type,
+                    constants.size() - 1);
+        }
+    }
+}
@@ -0,0 +1,73 @@
+package ir.moke.compiler;
+
+import com.fasterxml.jackson.databind.JsonNode;
+
+import java.util.Objects;
+
+/**
+ * Comparison operators of the filter grammar, resolved once when a clause is compiled.
+ */
+public enum CompareOperator {
+    EQUAL_IGNORE_CASE("="),
+    EQUAL("=="),
+    NOT_EQUAL_IGNORE_CASE("!="),
+    NOT_EQUAL("!=="),
+    GREATER(">"),
+    GREATER_EQUAL(">="),
+    LESS("<"),
+    LESS_EQUAL("<="),
+    CONTAINS("~"),
+    NOT_CONTAINS("!~");
+
+    private final String symbol;
+
+    CompareOperator(String symbol) {
+        this.symbol = symbol;
+    }
+
+    public String symbol() {
+        return symbol;
+    }
+
+    public static CompareOperator of(String symbol) {
+        for (CompareOperator operator : values()) {
+            if (operator.symbol.equals(symbol)) return operator;
+        }
+        throw new IllegalArgumentException("Unknown comparator " + symbol);
+    }
+
+    /**
+     * Numbers are compared numerically, anything else by its text value.
+     */
+    public boolean test(JsonNode left, JsonNode right) {
+        if (left.isNumber() && right.isNumber()) return testNumeric(left.doubleValue(), right.doubleValue());
+        return testString(left.textValue(), right.textValue());
+    }
+
+    public boolean testString(String l, String r) {
+        return switch (this) {
+            case EQUAL_IGNORE_CASE -> l.equalsIgnoreCase(r);
+            case EQUAL -> Objects.equals(l, r);
+            case NOT_EQUAL_IGNORE_CASE -> !l.equalsIgnoreCase(r);
+            case NOT_EQUAL -> !Objects.equals(l, r);
+            case GREATER -> l.compareTo(r) > 0;
+            case GREATER_EQUAL -> l.compareTo(r) >= 0;
+            case LESS -> l.compareTo(r) < 0;
+            case LESS_EQUAL -> l.compareTo(r) <= 0;
+            case CONTAINS -> l.toLowerCase().contains(r.toLowerCase());
+            case NOT_CONTAINS -> !l.toLowerCase().contains(r.toLowerCase());
+        };
+    }
+
+    public boolean testNumeric(double l, double r) {
+        return switch (this) {
+            case EQUAL_IGNORE_CASE, EQUAL -> l == r;
+            case NOT_EQUAL_IGNORE_CASE, NOT_EQUAL -> l != r;
+            case GREATER -> l > r;
+            case GREATER_EQUAL -> l >= r;
+            case LESS -> l < r;
+            case LESS_EQUAL -> l <= r;
+            case CONTAINS, NOT_CONTAINS -> throw new IllegalArgumentException("Numeric contains operators not supported");
+        };
+    }
+}
@@ -0,0 +1,116 @@
+package ir.moke.compiler;
+
+import java.util.Arrays;
+import java.util.Locale;
+import java.util.Objects;
+import java.util.Set;
+
+/**
+ * {@code text ~ "literal"} and {@code text !~ "literal"} with the literal case folded and preprocessed once, matching
+ * like {@code text.toLowerCase().contains(literal.toLowerCase())} without lowercasing the text.
+ * <p>
+ * When the folded literal is ASCII, the text is searched in place with Boyer-Moore-Horspool, folding {@code A-Z} as
+ * characters are read. Outside ASCII, only {@code U+0130} and {@code U+212A} lowercase to ASCII characters; a text
+ * containing either, a non-ASCII literal, or a default locale with its own rules for {@code I} (Turkish, Azerbaijani,
+ * Lithuanian) fall back to lowercasing the text. Literals are folded with the default locale of the time they are
+ * compiled.
+ */
+public final class ContainsMatcher {
+    private static final Set<String> LOCALES_FOLDING_ASCII = Set.of("tr", "az", "lt");
+
+    private final String literal;
+    private final boolean negated;
+    private final String folded;
+    /* Folded literal when the in place search applies, otherwise null */
+    private final char[] ascii;
+    /* Horspool shift of every ASCII character */
+    private final int[] shift;
+
+    private ContainsMatcher(String literal, boolean negated) {
+        this.literal = literal;
+        this.negated = negated;
+        this.folded = literal.toLowerCase();
+        this.ascii = isAscii(folded) && !LOCALES_FOLDING_ASCII.contains(Locale.getDefault().getLanguage())
+                ? folded.toCharArray() : null;
+        this.shift = ascii == null ? null : shifts(ascii);
+    }
+
+    /**
+     * @return a matcher for {@code operator} against a text literal on the right, or {@code null} when the operator is
+     * neither {@code ~} nor {@code !~}
+     */
+    public static ContainsMatcher of(CompareOperator operator, String literal) {
+        return switch (operator) {
+            case CONTAINS -> new ContainsMatcher(literal, false);
+            case NOT_CONTAINS -> new ContainsMatcher(literal, true);
+            default -> null;
+        };
+    }
+
+    /**
+     * Same result as {@code operator.testString(text, literal)}.
+     */
+    public boolean test(String text) {
+        return found(text) != negated;
+    }
+
+    private boolean found(String text) {
+        if (ascii == null || text.indexOf('\u0130') >= 0 || text.indexOf('\u212A') >= 0) {
+            return text.toLowerCase().contains(folded);
+        }
+        int m = ascii.length;
+        if (m == 0) return true;
+        int last = m - 1;
+        char lastChar = ascii[last];
+        for (int i = last, n = text.length(); i < n; ) {
+            char c = fold(text.charAt(i));
+            if (c == lastChar && matchesAt(text, i - last)) return true;
+            i += c < 128 ? shift[c] : m;
+        }
+        return false;
+    }
+
+    private boolean matchesAt(String text, int start) {
+        for (int j = ascii.length - 2; j >= 0; j--) {
+            if (fold(text.charAt(start + j)) != ascii[j]) return false;
+        }
+        return true;
+    }
+
+    private static char fold(char c) {
+        return c >= 'A' && c <= 'Z' ? (char) (c + ('a' - 'A')) : c;
+    }
+
+    private static int[] shifts(char[] needle) {
+        int[] shift = new int[128];
+        Arrays.fill(shift, needle.length);
+        for (int j = 0; j < needle.length - 1; j++) shift[needle[j]] = needle.length - 1 - j;
+        return shift;
+    }
+
+    private static boolean isAscii(String s) {
+        for (int i = 0; i < s.length(); i++) {
+            if (s.charAt(i) >= 128) return false;
+        }
+        return true;
+    }
+
+    public String literal() {
+        return literal;
+    }
+
+    @Override
+    public boolean equals(Object o) {
+        return o instanceof ContainsMatcher other && negated == other.negated && literal.equals(other.literal);
+    }
+
+    @Override
+    public int hashCode() {
+        return Objects.hash(literal, negated);
+    }
+
+    @Override
+    public String toString() {
+        return (negated ? "!~ " : "~ ") + literal;
+    }
+}
@@ -0,0 +1,118 @@
+package ir.moke.compiler;
+
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.node.JsonNodeFactory;
+import com.fasterxml.jackson.databind.node.NullNode;
+import com.fasterxml.jackson.databind.node.TextNode;
+import ir.moke.antlr4.FilterGrammerBaseVisitor;
+import ir.moke.antlr4.FilterGrammerLexer;
+import ir.moke.antlr4.FilterGrammerParser;
+import ir.moke.common.TwoStageParser;
+import org.antlr.v4.runtime.CharStreams;
+import org.antlr.v4.runtime.Token;
+import org.antlr.v4.runtime.tree.ErrorNode;
+
+import java.math.BigInteger;
+import java.util.List;
+
+/**
+ * Turns a filter parse tree into a {@link FilterPredicate} tree. Literals, operators and paths are decoded here once,
+ * so evaluating the predicate does no string work on the clause.
+ */
+public class FilterCompiler extends FilterGrammerBaseVisitor<FilterPredicate> {
+    private static final FilterCompiler INSTANCE = new FilterCompiler();
+
+    public static FilterPredicate compile(FilterGrammerParser.ExpressionsContext ctx) {
+        return INSTANCE.visit(ctx);
+    }
+
+    /**
+     * @return one predicate per {@code filter ->} clause of the program
+     */
+    public static List<FilterPredicate> compile(FilterGrammerParser.ProgramContext ctx) {
+        return ctx.clauses().stream().map(clause -> compile(clause.expressions())).toList();
+    }
+
+    /**
+     * @return the number of elements the program keeps at most, from {@code limit N} or {@code first}, or {@code -1}
+     * when it has no limit
+     */
+    public static int limit(FilterGrammerParser.ProgramContext ctx) {
+        FilterGrammerParser.LimitContext limit = ctx.limit();
+        if (limit == null) return -1;
+        if (limit.FIRST() != null) return 1;
+        // error recovery stands in an error node for a missing number
+        if (limit.NUMBER() == null || limit.NUMBER() instanceof ErrorNode) return -1;
+        BigInteger value = new BigInteger(limit.NUMBER().getText());
+        if (value.bitLength() >= Integer.SIZE) throw new IllegalArgumentException("limit should be at most " + Integer.MAX_VALUE);
+        return value.intValue();
+    }
+
+    /**
+     * Compile a standalone path such as {@code profile.address[].state}.
+     */
+    public static FilterPath compilePath(String path) {
+        TwoStageParser.Result<FilterGrammerParser, FilterGrammerParser.PathContext> result = TwoStageParser.parse(
+                CharStreams.fromString(path), FilterGrammerLexer::new, FilterGrammerParser::new, FilterGrammerParser::path);
+        FilterGrammerParser parser = result.parser();
+        FilterGrammerParser.PathContext ctx = result.tree();
+        if (parser.getNumberOfSyntaxErrors() > 0 || parser.getTokenStream().LA(1) != Token.EOF) {
+            throw new IllegalArgumentException("Invalid path: " + path);
+        }
+        return FilterPath.compile(ctx);
+    }
+
+    @Override
+    public FilterPredicate visitExpressions(FilterGrammerParser.ExpressionsContext ctx) {
+        if (ctx.statement() != null) return visit(ctx.statement());
+        if (ctx.arrayFilter() != null) return visit(ctx.arrayFilter());
+
+        if (ctx.AND() != null) return new FilterPredicate.And(visit(ctx.expressions(0)), visit(ctx.expressions(1)));
+        if (ctx.OR() != null) return new FilterPredicate.Or(visit(ctx.expressions(0)), visit(ctx.expressions(1)));
+
+        if (ctx.expressions().size() == 1) return visit(ctx.expressions(0));
+
+        return new FilterPredicate.Never();
+    }
+
+    @Override
+    public FilterPredicate visitArrayFilter(FilterGrammerParser.ArrayFilterContext ctx) {
+        FilterPath path = ctx.path() == null ? null : FilterPath.compile(ctx.path());
+        if (ctx.NUMBER() != null) {
+            return new FilterPredicate.ArrayFilter(path, Integer.parseInt(ctx.NUMBER().getText()), null);
+        }
+        return new FilterPredicate.ArrayFilter(path, -1, visit(ctx.expressions()));
+    }
+
+    @Override
+    public FilterPredicate visitStatement(FilterGrammerParser.StatementContext ctx) {
+        return new FilterPredicate.Comparison(
+                operand(ctx.stmtValue(0)),
+                CompareOperator.of(ctx.comparator().getText()),
+                operand(ctx.stmtValue(1)));
+    }
+
+    private Operand operand(FilterGrammerParser.StmtValueContext ctx) {
+        if ("@".equals(ctx.getText())) return new Operand.Self();
+        if (ctx.NUMBER() != null) return new Operand.Literal(number(ctx.NUMBER().getText()));
+        if (ctx.STRING() != null) return new Operand.Literal(TextNode.valueOf(stripQuotes(ctx.STRING().getText())));
+        if (ctx.NULL() != null) return new Operand.Literal(NullNode.getInstance());
+        if (ctx.path() != null) return new Operand.Path(FilterPath.compile(ctx.path()));
+        return new Operand.Literal(NullNode.getInstance());
+    }
+
+    /**
+     * Integer literal as the smallest numeric node that holds it, so values beyond int range such as account numbers
+     * can still be compared.
+     */
+    private JsonNode number(String text) {
+        BigInteger value = new BigInteger(text);
+        if (value.bitLength() < Integer.SIZE) return JsonNodeFactory.instance.numberNode(value.intValue());
+        if (value.bitLength() < Long.SIZE) return JsonNodeFactory.instance.numberNode(value.longValue());
+        return JsonNodeFactory.instance.numberNode(value);
+    }
+
+    private String stripQuotes(String s) {
+        return s.substring(1, s.length() - 1);
+    }
+}
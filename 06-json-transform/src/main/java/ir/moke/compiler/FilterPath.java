@@ -0,0 +1,139 @@
+package ir.moke.compiler;
+
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.node.ArrayNode;
+import com.fasterxml.jackson.databind.node.JsonNodeFactory;
+import com.fasterxml.jackson.databind.node.MissingNode;
+import ir.moke.antlr4.FilterGrammerParser;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * A filter path with every segment decoded up front: field name, optional index and {@code []} expansion.
+ * <p>
+ * Paths that do not cross an array resolve to a single node without allocating; the rest are collected in one
+ * depth-first pass into a single list.
+ */
+public final class FilterPath {
+    /**
+     * Returned by {@link #single(JsonNode)} when the path crosses an array and may match more than one node.
+     */
+    static final JsonNode FAN_OUT = MissingNode.getInstance();
+
+    private final String text;
+    private final Segment[] segments;
+
+    private record Segment(String field, int index, boolean expand) {
+    }
+
+    private FilterPath(String text, Segment[] segments) {
+        this.text = text;
+        this.segments = segments;
+    }
+
+    public static FilterPath compile(FilterGrammerParser.PathContext ctx) {
+        List<FilterGrammerParser.PathSegmentContext> contexts = ctx.pathSegment();
+        Segment[] segments = new Segment[contexts.size()];
+        for (int i = 0; i < segments.length; i++) {
+            FilterGrammerParser.PathSegmentContext segment = contexts.get(i);
+            String field = segment.fieldName() != null ? segment.fieldName().getText() : null;
+            int index = segment.NUMBER() != null ? Integer.parseInt(segment.NUMBER().getText()) : -1;
+            segments[i] = new Segment(field, index, segment.getText().endsWith("[]"));
+        }
+        return new FilterPath(ctx.getText(), segments);
+    }
+
+    /**
+     * @return the path without whitespace, e.g. {@code profile.address[].state}
+     */
+    public String text() {
+        return text;
+    }
+
+    /**
+     * @return the field names when every segment is a plain field name, e.g. {@code profile.contact.city}, otherwise
+     * {@code null}
+     */
+    public String[] plainFields() {
+        String[] fields = new String[segments.length];
+        for (int i = 0; i < segments.length; i++) {
+            Segment segment = segments[i];
+            if (segment.field == null || segment.index >= 0 || segment.expand) return null;
+            fields[i] = segment.field;
+        }
+        return fields;
+    }
+
+    /**
+     * Fast path for the common case of a path through objects only.
+     *
+     * @return the only node the path resolves to, {@code null} when it resolves to nothing, or {@link #FAN_OUT} when
+     * an array is crossed and {@link #resolve(JsonNode)} has to be used instead
+     */
+    JsonNode single(JsonNode root) {
+        JsonNode node = root;
+        for (Segment segment : segments) {
+            if (node.isArray() || segment.expand) return FAN_OUT;
+            if (!node.isObject() || segment.field == null) return null;
+
+            JsonNode value = node.get(segment.field);
+            if (value == null) return null;
+            if (segment.index >= 0) {
+                if (!value.isArray() || segment.index >= value.size()) return null;
+                value = value.get(segment.index);
+            }
+            node = value;
+        }
+        return node;
+    }
+
+    /**
+     * Resolve the path the way a comparison operand does.
+     *
+     * @return the only match, an array of all matches when there are several, or {@code null} when there is none
+     */
+    public JsonNode read(JsonNode root) {
+        JsonNode single = single(root);
+        if (single != FAN_OUT) return single;
+
+        List<JsonNode> nodes = resolve(root);
+        if (nodes.isEmpty()) return null;
+        if (nodes.size() == 1) return nodes.getFirst();
+        ArrayNode arr = JsonNodeFactory.instance.arrayNode(nodes.size());
+        nodes.forEach(arr::add);
+        return arr;
+    }
+
+    /**
+     * @return every node the path resolves to, in document order
+     */
+    public List<JsonNode> resolve(JsonNode root) {
+        List<JsonNode> output = new ArrayList<>();
+        collect(root, 0, output);
+        return output;
+    }
+
+    private void collect(JsonNode node, int depth, List<JsonNode> output) {
+        if (depth == segments.length) {
+            output.add(node);
+            return;
+        }
+        if (node.isArray()) {
+            for (JsonNode item : node) collect(item, depth, output);
+            return;
+        }
+        if (!node.isObject()) return;
+
+        Segment segment = segments[depth];
+        if (segment.field == null) return;
+        JsonNode value = node.get(segment.field);
+        if (value == null) return;
+
+        if (segment.expand) {
+            for (JsonNode item : value) collect(item, depth + 1, output);
+        } else if (segment.index >= 0) {
+            if (value.isArray() && segment.index < value.size()) collect(value.get(segment.index), depth + 1, output);
+        } else collect(value, depth + 1, output);
+    }
+}
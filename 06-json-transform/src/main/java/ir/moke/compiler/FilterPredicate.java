@@ -0,0 +1,120 @@
+package ir.moke.compiler;
+
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.node.ArrayNode;
+import com.fasterxml.jackson.databind.node.JsonNodeFactory;
+
+import java.util.List;
+import java.util.function.Predicate;
+
+/**
+ * Compiled form of a filter {@code expressions} rule.
+ * <p>
+ * Predicates are immutable and can be shared between threads. Evaluation may still modify the element under test:
+ * an {@link ArrayFilter} removes non matching items from the nested arrays it selects.
+ */
+public sealed interface FilterPredicate extends Predicate<JsonNode> {
+
+    @Override
+    boolean test(JsonNode node);
+
+    record And(FilterPredicate left, FilterPredicate right) implements FilterPredicate {
+        @Override
+        public boolean test(JsonNode node) {
+            return left.test(node) && right.test(node);
+        }
+    }
+
+    record Or(FilterPredicate left, FilterPredicate right) implements FilterPredicate {
+        @Override
+        public boolean test(JsonNode node) {
+            return left.test(node) || right.test(node);
+        }
+    }
+
+    /**
+     * {@code left comparator right}. When either side is an array, true if any pair of items matches.
+     *
+     * @param matcher {@code ~} or {@code !~} against a text literal on the right, preprocessed once; {@code null} for
+     *                any other comparison
+     */
+    record Comparison(Operand left, CompareOperator operator, Operand right, ContainsMatcher matcher)
+            implements FilterPredicate {
+
+        public Comparison(Operand left, CompareOperator operator, Operand right) {
+            this(left, operator, right, matcher(operator, right));
+        }
+
+        private static ContainsMatcher matcher(CompareOperator operator, Operand right) {
+            if (right instanceof Operand.Literal(JsonNode literal) && literal.isTextual()) {
+                return ContainsMatcher.of(operator, literal.textValue());
+            }
+            return null;
+        }
+
+        @Override
+        public boolean test(JsonNode node) {
+            JsonNode l = left.read(node);
+            if (l == null) return false;
+            JsonNode r = right.read(node);
+            if (r == null) return false;
+
+            if (l.isArray()) {
+                for (JsonNode li : l) {
+                    if (matchAny(li, r)) return true;
+                }
+                return false;
+            }
+            return matchAny(l, r);
+        }
+
+        private boolean matchAny(JsonNode l, JsonNode r) {
+            if (matcher != null) return matcher.test(l.textValue());
+            if (!r.isArray()) return operator.test(l, r);
+            for (JsonNode ri : r) {
+                if (operator.test(l, ri)) return true;
+            }
+            return false;
+        }
+    }
+
+    /**
+     * {@code path[expressions]} or {@code path[N]}: narrows the arrays selected by {@code path} (or the element itself
+     * when there is no path) to the matching items, or to item {@code N}. Always true.
+     *
+     * @param path      nested arrays to narrow, {@code null} for the element itself
+     * @param index     item to keep, used when {@code predicate} is {@code null}
+     * @param predicate condition items are kept by
+     */
+    record ArrayFilter(FilterPath path, int index, FilterPredicate predicate) implements FilterPredicate {
+        @Override
+        public boolean test(JsonNode node) {
+            List<JsonNode> targets = path == null ? List.of(node) : path.resolve(node);
+            for (JsonNode target : targets) {
+                if (!target.isArray()) continue;
+                ArrayNode filtered = JsonNodeFactory.instance.arrayNode();
+                if (predicate == null) {
+                    JsonNode indexedNode = target.get(index);
+                    if (indexedNode != null) filtered.add(indexedNode);
+                } else {
+                    for (JsonNode item : target) {
+                        if (predicate.test(item)) filtered.add(item);
+                    }
+                }
+                ((ArrayNode) target).removeAll();
+                ((ArrayNode) target).addAll(filtered);
+            }
+            return true;
+        }
+    }
+
+    /**
+     * Placeholder for an expression the parser could not make sense of.
+     */
+    record Never() implements FilterPredicate {
+        @Override
+        public boolean test(JsonNode node) {
+            return false;
+        }
+    }
+}
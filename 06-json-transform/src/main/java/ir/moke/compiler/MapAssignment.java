@@ -0,0 +1,72 @@
+package ir.moke.compiler;
+
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.node.ObjectNode;
+import ir.moke.antlr4.MapGrammerParser;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Compiled {@code path = expression} assignment: the path to the target objects, the field set on each of them and
+ * the compiled expression producing the value.
+ */
+public final class MapAssignment {
+    private final MapPath parent;
+    private final String field;
+    private final MapExpression value;
+
+    private MapAssignment(MapPath parent, String field, MapExpression value) {
+        this.parent = parent;
+        this.field = field;
+        this.value = value;
+    }
+
+    public static MapAssignment compile(MapGrammerParser.AssignmentContext ctx) {
+        List<MapGrammerParser.PathSegmentContext> segments = ctx.path().pathSegment();
+        if (segments.isEmpty())
+            throw new IllegalArgumentException("Assignment path must contain at least one segment.");
+        MapGrammerParser.PathSegmentContext last = segments.getLast();
+        if (last.IDENT() == null || !last.arraySelector().isEmpty())
+            throw new IllegalArgumentException("Assignment target must end with a plain field name.");
+
+        MapPath parent = MapPath.compile(segments.subList(0, segments.size() - 1));
+        return new MapAssignment(parent, last.IDENT().getText(), MapExpression.compile(ctx.expression()));
+    }
+
+    public String field() {
+        return field;
+    }
+
+    public MapExpression value() {
+        return value;
+    }
+
+    /**
+     * @return the path when the value is read from the document as it is, e.g. {@code contact = profile.contact};
+     * {@code null} when it is computed
+     */
+    public MapPath valuePath() {
+        return value instanceof MapExpression.PathValue path ? path.path() : null;
+    }
+
+    /**
+     * @return true when the targets of an array element depend on the element position, see
+     * {@link #targets(JsonNode, int)}
+     */
+    public boolean usesElementIndex() {
+        return parent.startsWithIndex();
+    }
+
+    /**
+     * @param elementIndex when not negative, {@code root} is the element at this position of a top-level array
+     * @return objects the field is set on
+     */
+    public List<ObjectNode> targets(JsonNode root, int elementIndex) {
+        // the top-level array itself is never a target
+        if (elementIndex >= 0 && parent.isEmpty()) return List.of();
+        List<ObjectNode> targets = new ArrayList<>();
+        parent.collectTargets(root, elementIndex, targets);
+        return targets;
+    }
+}
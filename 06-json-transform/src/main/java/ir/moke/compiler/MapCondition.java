@@ -0,0 +1,127 @@
+package ir.moke.compiler;
+
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.node.DoubleNode;
+import com.fasterxml.jackson.databind.node.NullNode;
+import com.fasterxml.jackson.databind.node.TextNode;
+import ir.moke.antlr4.MapGrammerParser;
+
+/**
+ * Compiled form of the {@code statement} rule of the map grammar, used by {@code [statement]} array selectors.
+ */
+public sealed interface MapCondition {
+
+    boolean test(JsonNode node);
+
+    static MapCondition compile(MapGrammerParser.StatementContext ctx) {
+        if (ctx.comparator() != null && ctx.stmtValue().size() == 2) {
+            return new Comparison(value(ctx.stmtValue(0)), Operator.of(ctx.comparator().getText()), value(ctx.stmtValue(1)));
+        }
+
+        if (ctx.statement().size() == 1 && ctx.getChildCount() == 3) {
+            return compile(ctx.statement(0));
+        }
+
+        if (ctx.statement().size() == 2) {
+            String op = ctx.getChild(1).getText().toUpperCase();
+            return switch (op) {
+                case "OR", "||" -> new Or(compile(ctx.statement(0)), compile(ctx.statement(1)));
+                case "AND", "&&" -> new And(compile(ctx.statement(0)), compile(ctx.statement(1)));
+                default -> new Never();
+            };
+        }
+
+        return new Never();
+    }
+
+    private static Value value(MapGrammerParser.StmtValueContext ctx) {
+        if (ctx.STRING() != null) return new Literal(TextNode.valueOf(stripQuotes(ctx.STRING().getText())));
+        if (ctx.NUMBER() != null) return new Literal(DoubleNode.valueOf(Double.parseDouble(ctx.NUMBER().getText())));
+        if (ctx.NULL() != null) return new Literal(NullNode.getInstance());
+        if (ctx.path() != null) return new PathValue(MapPath.compile(ctx.path()));
+        return new Literal(NullNode.getInstance());
+    }
+
+    private static String stripQuotes(String s) {
+        if (s == null || s.length() < 2) return "";
+        return s.substring(1, s.length() - 1);
+    }
+
+    enum Operator {
+        EQUAL("=="), NOT_EQUAL("!="), GREATER(">"), GREATER_EQUAL(">="), LESS("<"), LESS_EQUAL("<="),
+        CONTAINS("~"), NOT_CONTAINS("!~");
+
+        private final String symbol;
+
+        Operator(String symbol) {
+            this.symbol = symbol;
+        }
+
+        static Operator of(String symbol) {
+            for (Operator operator : values()) {
+                if (operator.symbol.equals(symbol)) return operator;
+            }
+            throw new IllegalArgumentException("Unknown comparator " + symbol);
+        }
+    }
+
+    sealed interface Value {
+        JsonNode read(JsonNode node);
+    }
+
+    record Literal(JsonNode value) implements Value {
+        @Override
+        public JsonNode read(JsonNode node) {
+            return value;
+        }
+    }
+
+    record PathValue(MapPath path) implements Value {
+        @Override
+        public JsonNode read(JsonNode node) {
+            return path.first(node);
+        }
+    }
+
+    record Comparison(Value left, Operator operator, Value right) implements MapCondition {
+        @Override
+        public boolean test(JsonNode node) {
+            JsonNode l = left.read(node);
+            JsonNode r = right.read(node);
+
+            if (l == null || r == null || l.isNull() || r.isNull()) return false;
+
+            return switch (operator) {
+                case EQUAL -> l.equals(r);
+                case NOT_EQUAL -> !l.equals(r);
+                case GREATER -> l.asDouble() > r.asDouble();
+                case GREATER_EQUAL -> l.asDouble() >= r.asDouble();
+                case LESS -> l.asDouble() < r.asDouble();
+                case LESS_EQUAL -> l.asDouble() <= r.asDouble();
+                case CONTAINS -> l.asText().contains(r.asText());
+                case NOT_CONTAINS -> !l.asText().contains(r.asText());
+            };
+        }
+    }
+
+    record And(MapCondition left, MapCondition right) implements MapCondition {
+        @Override
+        public boolean test(JsonNode node) {
+            return left.test(node) && right.test(node);
+        }
+    }
+
+    record Or(MapCondition left, MapCondition right) implements MapCondition {
+        @Override
+        public boolean test(JsonNode node) {
+            return left.test(node) || right.test(node);
+        }
+    }
+
+    record Never() implements MapCondition {
+        @Override
+        public boolean test(JsonNode node) {
+            return false;
+        }
+    }
+}
@@ -0,0 +1,191 @@
+package ir.moke.compiler;
+
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.node.DecimalNode;
+import com.fasterxml.jackson.databind.node.IntNode;
+import com.fasterxml.jackson.databind.node.LongNode;
+import com.fasterxml.jackson.databind.node.NullNode;
+import com.fasterxml.jackson.databind.node.TextNode;
+import ir.moke.antlr4.MapGrammerParser;
+
+import java.math.BigDecimal;
+import java.math.BigInteger;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Compiled form of the {@code expression} rule of the map grammar, the value of an assignment.
+ * <p>
+ * Literals are decoded once, integers as integers, and every subexpression without a path is folded into a {@link Constant} at compile
+ * time. Paths resolve relative to the assignment target, so what is left to evaluate per target is exactly the part
+ * that depends on it. Chains of {@code +} concatenations are flattened into one {@link Concat} with adjacent constants
+ * merged, e.g. {@code name + "-" + "x"} becomes {@code name + "-x"}.
+ */
+public sealed interface MapExpression {
+
+    /**
+     * @param target object the value is assigned to, paths are resolved from it
+     * @return the value, {@link NullNode} for none
+     */
+    JsonNode evaluate(JsonNode target);
+
+    /**
+     * Evaluate into {@code out} as a number, without a node for the result when the expression is arithmetic.
+     */
+    default void evaluate(JsonNode target, Numeric out) {
+        out.load(evaluate(target));
+    }
+
+    static MapExpression compile(MapGrammerParser.ExpressionContext ctx) {
+        return switch (ctx) {
+            case MapGrammerParser.NullExprContext ignored -> new Constant(NullNode.getInstance());
+            case MapGrammerParser.StringExprContext string ->
+                    new Constant(TextNode.valueOf(stripQuotes(string.STRING().getText())));
+            case MapGrammerParser.NumberExprContext number ->
+                    new Constant(integer(number.NUMBER().getText()));
+            case MapGrammerParser.PathExprContext path -> new PathValue(MapPath.compile(path.path()));
+            case MapGrammerParser.ParenExprContext paren -> compile(paren.expression());
+            case MapGrammerParser.ConcatExprContext concat -> concat(concat);
+            case MapGrammerParser.MathExprContext math -> math(math);
+            // left by error recovery, evaluates to nothing like an unmatched path
+            default -> new Constant(NullNode.getInstance());
+        };
+    }
+
+    private static MapExpression concat(MapGrammerParser.ConcatExprContext ctx) {
+        List<MapExpression> parts = new ArrayList<>();
+        flatten(compile(ctx.expression(0)), parts);
+        flatten(compile(ctx.expression(1)), parts);
+        if (parts.size() == 1 && parts.getFirst() instanceof Constant constant) {
+            return new Constant(TextNode.valueOf(constant.text()));
+        }
+        return new Concat(parts.toArray(MapExpression[]::new));
+    }
+
+    private static void flatten(MapExpression part, List<MapExpression> parts) {
+        if (part instanceof Concat concat) {
+            for (MapExpression nested : concat.parts()) flatten(nested, parts);
+            return;
+        }
+        if (part instanceof Constant constant && !parts.isEmpty() && parts.getLast() instanceof Constant previous) {
+            parts.set(parts.size() - 1, new Constant(TextNode.valueOf(previous.text() + constant.text())));
+            return;
+        }
+        parts.add(part);
+    }
+
+    private static MapExpression math(MapGrammerParser.MathExprContext ctx) {
+        Arithmetic math = new Arithmetic(MathOperator.of(ctx.mathOperation().getText()),
+                compile(ctx.expression(0)), compile(ctx.expression(1)));
+        if (math.left() instanceof Constant && math.right() instanceof Constant) {
+            return new Constant(math.evaluate(NullNode.getInstance()));
+        }
+        return math;
+    }
+
+    /**
+     * @return an {@link IntNode} or {@link LongNode} like json text parses to, a {@link DecimalNode} beyond {@code long}
+     */
+    private static JsonNode integer(String digits) {
+        BigInteger value = new BigInteger(digits);
+        if (value.bitLength() >= Long.SIZE) return DecimalNode.valueOf(new BigDecimal(value));
+        long l = value.longValue();
+        return (int) l == l ? IntNode.valueOf((int) l) : LongNode.valueOf(l);
+    }
+
+    private static String stripQuotes(String s) {
+        if (s == null || s.length() < 2) return "";
+        return s.substring(1, s.length() - 1);
+    }
+
+    enum MathOperator {
+        ADD("+"), SUBTRACT("-"), MULTIPLY("*"), DIVIDE("/");
+
+        private final String symbol;
+
+        MathOperator(String symbol) {
+            this.symbol = symbol;
+        }
+
+        static MathOperator of(String symbol) {
+            for (MathOperator operator : values()) {
+                if (operator.symbol.equals(symbol)) return operator;
+            }
+            throw new IllegalArgumentException("Unknown math operation " + symbol);
+        }
+
+        double apply(double l, double r) {
+            return switch (this) {
+                case ADD -> l + r;
+                case SUBTRACT -> l - r;
+                case MULTIPLY -> l * r;
+                case DIVIDE -> l / r;
+            };
+        }
+    }
+
+    /**
+     * A literal, or a subexpression folded at compile time.
+     *
+     * @param text the value as concatenated by {@code +}
+     */
+    record Constant(JsonNode value, String text) implements MapExpression {
+        public Constant(JsonNode value) {
+            this(value, value.asText());
+        }
+
+        @Override
+        public JsonNode evaluate(JsonNode target) {
+            return value;
+        }
+    }
+
+    /**
+     * The first node a path resolves to from the target.
+     */
+    record PathValue(MapPath path) implements MapExpression {
+        @Override
+        public JsonNode evaluate(JsonNode target) {
+            return path.first(target);
+        }
+    }
+
+    /**
+     * {@code a + b + ...}, the text of every part joined.
+     */
+    record Concat(MapExpression[] parts) implements MapExpression {
+        @Override
+        public JsonNode evaluate(JsonNode target) {
+            StringBuilder text = new StringBuilder();
+            for (MapExpression part : parts) {
+                if (part instanceof Constant constant) text.append(constant.text());
+                else text.append(part.evaluate(target).asText());
+            }
+            return TextNode.valueOf(text.toString());
+        }
+    }
+
+    /**
+     * {@code left operator right}, see {@link Numeric} for how numbers of different kinds combine. Operands that are not
+     * numbers count as {@code 0}.
+     */
+    record Arithmetic(MathOperator operator, MapExpression left, MapExpression right) implements MapExpression {
+        @Override
+        public JsonNode evaluate(JsonNode target) {
+            Numeric result = new Numeric();
+            evaluate(target, result);
+            return result.toNode();
+        }
+
+        @Override
+        public void evaluate(JsonNode target, Numeric out) {
+            left.evaluate(target, out);
+            Numeric.Kind kind = out.kind();
+            long l = out.longValue();
+            double d = out.doubleValue();
+            BigDecimal b = out.decimalValue();
+            right.evaluate(target, out);
+            out.apply(operator, kind, l, d, b);
+        }
+    }
+}
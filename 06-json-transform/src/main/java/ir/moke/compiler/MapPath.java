@@ -0,0 +1,239 @@
+package ir.moke.compiler;
+
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.node.ArrayNode;
+import com.fasterxml.jackson.databind.node.ContainerNode;
+import com.fasterxml.jackson.databind.node.NullNode;
+import com.fasterxml.jackson.databind.node.ObjectNode;
+import ir.moke.antlr4.MapGrammerParser;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * A map path flattened into a sequence of steps: a field lookup for every {@code IDENT}, followed by one step per
+ * array selector of the segment.
+ * <p>
+ * Paths are walked depth first, which visits matches in the same order as resolving the path one segment at a time
+ * but needs no intermediate lists. {@link #first(JsonNode)} stops at the first match and does not allocate.
+ */
+public final class MapPath {
+    private final Step[] steps;
+
+    private sealed interface Step {
+    }
+
+    private record Field(String name) implements Step {
+    }
+
+    /**
+     * {@code []}
+     */
+    private record Expand() implements Step {
+    }
+
+    /**
+     * {@code [N]}
+     */
+    private record Index(int index) implements Step {
+    }
+
+    /**
+     * {@code [statement]}
+     */
+    private record Select(MapCondition condition) implements Step {
+    }
+
+    private MapPath(Step[] steps) {
+        this.steps = steps;
+    }
+
+    public static MapPath compile(MapGrammerParser.PathContext ctx) {
+        return compile(ctx.pathSegment());
+    }
+
+    static MapPath compile(List<MapGrammerParser.PathSegmentContext> segments) {
+        List<Step> steps = new ArrayList<>();
+        for (MapGrammerParser.PathSegmentContext segment : segments) {
+            if (segment.IDENT() != null) steps.add(new Field(segment.IDENT().getText()));
+            for (MapGrammerParser.ArraySelectorContext selector : segment.arraySelector()) {
+                if (selector.statement() != null) {
+                    steps.add(new Select(MapCondition.compile(selector.statement())));
+                } else if (selector.NUMBER() != null) {
+                    steps.add(new Index(Integer.parseInt(selector.NUMBER().getText())));
+                } else {
+                    steps.add(new Expand());
+                }
+            }
+        }
+        return new MapPath(steps.toArray(Step[]::new));
+    }
+
+    boolean isEmpty() {
+        return steps.length == 0;
+    }
+
+    /**
+     * @return true when the path starts with a {@code [N]} selector, which selects by position in a top-level array
+     */
+    boolean startsWithIndex() {
+        return steps.length > 0 && steps[0] instanceof Index;
+    }
+
+    /**
+     * @return the first node the path resolves to, or {@link NullNode} when there is none
+     */
+    public JsonNode first(JsonNode root) {
+        if (root == null || root.isNull()) return NullNode.getInstance();
+        JsonNode result = first(root, 0, null);
+        return result == null ? NullNode.getInstance() : result;
+    }
+
+    /**
+     * Like {@link #first(JsonNode)}, for a value about to be stored at another place of the same document. A container
+     * is shared copy-on-write between its current place and the returned node instead of being copied, see
+     * {@link SharedNodes}; it is only copied when the path resolves to {@code root} itself.
+     */
+    public JsonNode share(JsonNode root) {
+        if (root == null || root.isNull()) return NullNode.getInstance();
+        Slot slot = new Slot();
+        JsonNode result = first(root, 0, slot);
+        if (result == null) return NullNode.getInstance();
+        if (!result.isContainerNode()) return result;
+        if (slot.parent == null) return result.deepCopy();
+        return SharedNodes.share(result, slot.parent, slot.field, slot.index);
+    }
+
+    /**
+     * Where the node {@link #first(JsonNode, int, Slot)} descended into last is held.
+     */
+    private static final class Slot {
+        ContainerNode<?> parent;
+        String field;
+        int index;
+
+        void set(ContainerNode<?> parent, String field, int index) {
+            this.parent = parent;
+            this.field = field;
+            this.index = index;
+        }
+    }
+
+    private JsonNode first(JsonNode node, int depth, Slot slot) {
+        if (depth == steps.length) return node;
+        if (node == null || node.isNull()) return null;
+
+        switch (steps[depth]) {
+            case Field field -> {
+                if (node.isObject()) {
+                    JsonNode child = node.get(field.name());
+                    if (child == null) return null;
+                    if (slot != null) slot.set((ObjectNode) node, field.name(), -1);
+                    return first(child, depth + 1, slot);
+                }
+                if (node.isArray()) {
+                    for (int i = 0; i < node.size(); i++) {
+                        if (slot != null) slot.set((ArrayNode) node, null, i);
+                        JsonNode result = first(node.get(i), depth, slot);
+                        if (result != null) return result;
+                    }
+                }
+                return null;
+            }
+            case Select select -> {
+                if (node.isArray()) {
+                    for (int i = 0; i < node.size(); i++) {
+                        JsonNode element = node.get(i);
+                        if (element.isObject() && select.condition().test(element)) {
+                            if (slot != null) slot.set((ArrayNode) node, null, i);
+                            JsonNode result = first(element, depth + 1, slot);
+                            if (result != null) return result;
+                        }
+                    }
+                    return null;
+                }
+                return node.isObject() && select.condition().test(node) ? first(node, depth + 1, slot) : null;
+            }
+            case Index index -> {
+                if (node.isArray() && index.index() < node.size()) {
+                    if (slot != null) slot.set((ArrayNode) node, null, index.index());
+                    return first(node.get(index.index()), depth + 1, slot);
+                }
+                return null;
+            }
+            case Expand ignored -> {
+                if (node.isArray()) {
+                    for (int i = 0; i < node.size(); i++) {
+                        if (slot != null) slot.set((ArrayNode) node, null, i);
+                        JsonNode result = first(node.get(i), depth + 1, slot);
+                        if (result != null) return result;
+                    }
+                    return null;
+                }
+                return node.isObject() ? first(node, depth + 1, slot) : null;
+            }
+        }
+    }
+
+    /**
+     * Collect the objects this path resolves to.
+     *
+     * @param elementIndex when not negative, {@code root} is the element at this position of a top-level array and a
+     *                     leading selector is decided for that element alone, as it would be against the whole array
+     */
+    void collectTargets(JsonNode root, int elementIndex, List<ObjectNode> output) {
+        if (elementIndex < 0 || steps.length == 0 || steps[0] instanceof Field) {
+            collectObjects(root, 0, output);
+            return;
+        }
+
+        boolean selected = switch (steps[0]) {
+            case Select select -> root.isObject() && select.condition().test(root);
+            case Index index -> index.index() == elementIndex;
+            default -> true;
+        };
+        if (selected) collectObjects(root, 1, output);
+    }
+
+    private void collectObjects(JsonNode node, int depth, List<ObjectNode> output) {
+        if (depth == steps.length) {
+            if (node.isObject()) output.add((ObjectNode) node);
+            return;
+        }
+        if (node.isNull()) return;
+
+        switch (steps[depth]) {
+            case Field field -> {
+                if (node.isObject()) {
+                    JsonNode child = node.get(field.name());
+                    if (child != null) collectObjects(child, depth + 1, output);
+                } else if (node.isArray()) {
+                    for (JsonNode element : node) collectObjects(element, depth, output);
+                }
+            }
+            case Select select -> {
+                if (node.isArray()) {
+                    for (JsonNode element : node) {
+                        if (element.isObject() && select.condition().test(element)) {
+                            collectObjects(element, depth + 1, output);
+                        }
+                    }
+                } else if (node.isObject() && select.condition().test(node)) {
+                    collectObjects(node, depth + 1, output);
+                }
+            }
+            case Index index -> {
+                if (node.isArray() && index.index() < node.size()) {
+                    collectObjects(node.get(index.index()), depth + 1, output);
+                }
+            }
+            case Expand ignored -> {
+                if (node.isArray()) {
+                    for (JsonNode element : node) collectObjects(element, depth + 1, output);
+                } else if (node.isObject()) {
+                    collectObjects(node, depth + 1, output);
+                }
+            }
+        }
+    }
+}
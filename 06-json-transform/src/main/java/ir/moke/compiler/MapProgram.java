@@ -0,0 +1,45 @@
+package ir.moke.compiler;
+
+import ir.moke.antlr4.MapGrammerParser;
+import org.antlr.v4.runtime.tree.ParseTree;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Compiled map clauses: every assignment with its target path and value expression.
+ */
+public final class MapProgram {
+    private final List<MapAssignment> assignments;
+
+    private MapProgram(List<MapAssignment> assignments) {
+        this.assignments = List.copyOf(assignments);
+    }
+
+    /**
+     * @param ctx a program, clause or assignment
+     */
+    public static MapProgram compile(ParseTree ctx) {
+        List<MapAssignment> assignments = new ArrayList<>();
+        collect(ctx, assignments);
+        return new MapProgram(assignments);
+    }
+
+    private static void collect(ParseTree node, List<MapAssignment> assignments) {
+        if (node instanceof MapGrammerParser.AssignmentContext assignment) {
+            assignments.add(MapAssignment.compile(assignment));
+            return;
+        }
+        for (int i = 0; i < node.getChildCount(); i++) {
+            collect(node.getChild(i), assignments);
+        }
+    }
+
+    public List<MapAssignment> assignments() {
+        return assignments;
+    }
+
+    public boolean usesElementIndex() {
+        return assignments.stream().anyMatch(MapAssignment::usesElementIndex);
+    }
+}
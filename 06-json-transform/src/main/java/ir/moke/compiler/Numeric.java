@@ -0,0 +1,143 @@
+package ir.moke.compiler;
+
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.node.DecimalNode;
+import com.fasterxml.jackson.databind.node.DoubleNode;
+import com.fasterxml.jackson.databind.node.IntNode;
+import com.fasterxml.jackson.databind.node.LongNode;
+
+import java.math.BigDecimal;
+import java.math.MathContext;
+
+/**
+ * Mutable number the arithmetic of a map expression is carried out in, so nested operations need no node per
+ * intermediate result.
+ * <p>
+ * Integers stay {@code long} as long as the result is exact and are promoted to {@link BigDecimal} on overflow. A
+ * {@code double} operand makes the operation {@code double}, as do divisions whose quotient is not an integer.
+ */
+final class Numeric {
+    enum Kind {LONG, DOUBLE, DECIMAL}
+
+    private Kind kind = Kind.LONG;
+    private long longValue;
+    private double doubleValue;
+    private BigDecimal decimalValue;
+
+    /**
+     * Load a node; anything that is not a number counts as {@code 0}.
+     */
+    void load(JsonNode node) {
+        if (!node.isNumber()) {
+            setLong(0);
+        } else if (node.isIntegralNumber() && node.canConvertToLong()) {
+            setLong(node.longValue());
+        } else if (node.isBigDecimal() || node.isBigInteger()) {
+            setDecimal(node.decimalValue());
+        } else {
+            setDouble(node.doubleValue());
+        }
+    }
+
+    /**
+     * Replace the value held, the right operand, with {@code left operator right}.
+     */
+    void apply(MapExpression.MathOperator operator, Kind leftKind, long leftLong, double leftDouble, BigDecimal leftDecimal) {
+        if (leftKind == Kind.DOUBLE || kind == Kind.DOUBLE) {
+            setDouble(operator.apply(toDouble(leftKind, leftLong, leftDouble, leftDecimal), toDouble(kind, longValue, doubleValue, decimalValue)));
+        } else if (leftKind == Kind.LONG && kind == Kind.LONG) {
+            applyLong(operator, leftLong, longValue);
+        } else {
+            applyDecimal(operator, toDecimal(leftKind, leftLong, leftDecimal), toDecimal(kind, longValue, decimalValue));
+        }
+    }
+
+    private void applyLong(MapExpression.MathOperator operator, long l, long r) {
+        try {
+            switch (operator) {
+                case ADD -> setLong(Math.addExact(l, r));
+                case SUBTRACT -> setLong(Math.subtractExact(l, r));
+                case MULTIPLY -> setLong(Math.multiplyExact(l, r));
+                case DIVIDE -> {
+                    if (r != 0 && l % r == 0) setLong(Math.divideExact(l, r));
+                    else setDouble((double) l / r);
+                }
+            }
+        } catch (ArithmeticException overflow) {
+            applyDecimal(operator, BigDecimal.valueOf(l), BigDecimal.valueOf(r));
+        }
+    }
+
+    private void applyDecimal(MapExpression.MathOperator operator, BigDecimal l, BigDecimal r) {
+        switch (operator) {
+            case ADD -> setDecimal(l.add(r));
+            case SUBTRACT -> setDecimal(l.subtract(r));
+            case MULTIPLY -> setDecimal(l.multiply(r));
+            case DIVIDE -> {
+                if (r.signum() == 0) {
+                    setDouble(l.doubleValue() / 0.0);
+                    return;
+                }
+                try {
+                    setDecimal(l.divide(r));
+                } catch (ArithmeticException nonTerminating) {
+                    setDecimal(l.divide(r, MathContext.DECIMAL128));
+                }
+            }
+        }
+    }
+
+    Kind kind() {
+        return kind;
+    }
+
+    long longValue() {
+        return longValue;
+    }
+
+    double doubleValue() {
+        return doubleValue;
+    }
+
+    BigDecimal decimalValue() {
+        return decimalValue;
+    }
+
+    /**
+     * @return the value as a node, an {@link IntNode} when it fits like integers parsed from json text
+     */
+    JsonNode toNode() {
+        return switch (kind) {
+            case LONG -> (int) longValue == longValue ? IntNode.valueOf((int) longValue) : LongNode.valueOf(longValue);
+            case DOUBLE -> DoubleNode.valueOf(doubleValue);
+            case DECIMAL -> DecimalNode.valueOf(decimalValue);
+        };
+    }
+
+    private void setLong(long value) {
+        kind = Kind.LONG;
+        longValue = value;
+    }
+
+    private void setDouble(double value) {
+        kind = Kind.DOUBLE;
+        doubleValue = value;
+    }
+
+    private void setDecimal(BigDecimal value) {
+        kind = Kind.DECIMAL;
+        decimalValue = value;
+    }
+
+    private static double toDouble(Kind kind, long longValue, double doubleValue, BigDecimal decimalValue) {
+        return switch (kind) {
+            case LONG -> longValue;
+            case DOUBLE -> doubleValue;
+            case DECIMAL -> decimalValue.doubleValue();
+        };
+    }
+
+    private static BigDecimal toDecimal(Kind kind, long longValue, BigDecimal decimalValue) {
+        return kind == Kind.LONG ? BigDecimal.valueOf(longValue) : decimalValue;
+    }
+}
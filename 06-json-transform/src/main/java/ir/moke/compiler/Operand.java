@@ -0,0 +1,44 @@
+package ir.moke.compiler;
+
+import com.fasterxml.jackson.databind.JsonNode;
+
+/**
+ * One side of a filter comparison.
+ */
+public sealed interface Operand {
+
+    /**
+     * @return the value, an array when a path matches several nodes, or {@code null} when a path matches nothing
+     */
+    JsonNode read(JsonNode node);
+
+    /**
+     * A literal decoded at compile time.
+     */
+    record Literal(JsonNode value) implements Operand {
+        @Override
+        public JsonNode read(JsonNode node) {
+            return value;
+        }
+    }
+
+    /**
+     * {@code @}, the element under evaluation.
+     */
+    record Self() implements Operand {
+        @Override
+        public JsonNode read(JsonNode node) {
+            return node;
+        }
+    }
+
+    /**
+     * A path relative to the element under evaluation. Multiple matches are returned as an array.
+     */
+    record Path(FilterPath path) implements Operand {
+        @Override
+        public JsonNode read(JsonNode node) {
+            return path.read(node);
+        }
+    }
+}
@@ -0,0 +1,271 @@
+package ir.moke.compiler;
+
+import com.fasterxml.jackson.core.JsonGenerator;
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.SerializerProvider;
+import com.fasterxml.jackson.databind.jsontype.TypeSerializer;
+import com.fasterxml.jackson.databind.node.ArrayNode;
+import com.fasterxml.jackson.databind.node.ContainerNode;
+import com.fasterxml.jackson.databind.node.JsonNodeFactory;
+import com.fasterxml.jackson.databind.node.ObjectNode;
+
+import java.io.IOException;
+import java.lang.invoke.MethodHandles;
+import java.lang.invoke.VarHandle;
+import java.util.AbstractList;
+import java.util.AbstractMap;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.RandomAccess;
+import java.util.Set;
+
+/**
+ * Copy-on-write views letting one subtree appear at several places of a document.
+ * <p>
+ * A shared subtree is frozen: from then on it is only reachable through views, plain {@link ObjectNode}s and
+ * {@link ArrayNode}s whose children read through to the frozen nodes. A view copies the children of its own level, one
+ * level only, the first time they are changed or a nested container is reached through it; nested containers become
+ * views in turn. Scalars are immutable and read straight from the frozen nodes, and a view that was never changed
+ * serializes the frozen nodes directly.
+ * <p>
+ * Reading a view from several threads at once is safe, as for plain nodes: the first read of a nested container may
+ * copy the children, and concurrent readers agree on a single copy, published with a compare-and-set, so they all get
+ * the same nested views. Changing a view while other threads use it needs outside synchronization, as for plain nodes.
+ */
+final class SharedNodes {
+
+    private SharedNodes() {
+    }
+
+    /**
+     * Let {@code node}, currently found at {@code parent[field]} or {@code parent[index]}, appear at another place too.
+     * The current position gets a view of the node and another view is returned.
+     *
+     * @param field field of {@code parent} holding the node, or {@code null} when {@code parent} is an array
+     * @param index position of the node in {@code parent} when it is an array
+     */
+    static JsonNode share(JsonNode node, ContainerNode<?> parent, String field, int index) {
+        if (!node.isContainerNode()) return node;
+        // a view nobody changed is already a read-only window on frozen nodes, a second one can use them too
+        if (node instanceof SharedObjectNode shared && shared.children.own == null) return view(node);
+        if (node instanceof SharedArrayNode shared && shared.elements.own == null) return view(node);
+
+        JsonNode current = view(node);
+        if (field != null) ((ObjectNode) parent).set(field, current);
+        else ((ArrayNode) parent).set(index, current);
+        return view(node);
+    }
+
+    /**
+     * @return a view of {@code node} when it is a container, {@code node} itself otherwise
+     */
+    private static JsonNode view(JsonNode node) {
+        if (node instanceof ObjectNode object) return new SharedObjectNode(object);
+        if (node instanceof ArrayNode array) return new SharedArrayNode(array);
+        return node;
+    }
+
+    private static VarHandle varHandle(Class<?> owner, Class<?> type) {
+        try {
+            return MethodHandles.lookup().findVarHandle(owner, "own", type);
+        } catch (ReflectiveOperationException e) {
+            throw new ExceptionInInitializerError(e);
+        }
+    }
+
+    private static final class SharedObjectNode extends ObjectNode {
+        private final Children children;
+
+        SharedObjectNode(ObjectNode source) {
+            this(new Children(source instanceof SharedObjectNode shared && shared.children.own == null
+                    ? shared.children.source : source));
+        }
+
+        private SharedObjectNode(Children children) {
+            super(JsonNodeFactory.instance, children);
+            this.children = children;
+        }
+
+        @Override
+        public ObjectNode deepCopy() {
+            return children.own == null ? children.source.deepCopy() : super.deepCopy();
+        }
+
+        @Override
+        public void serialize(JsonGenerator g, SerializerProvider provider) throws IOException {
+            if (children.own == null) children.source.serialize(g, provider);
+            else super.serialize(g, provider);
+        }
+
+        @Override
+        public void serializeWithType(JsonGenerator g, SerializerProvider provider, TypeSerializer typeSer) throws IOException {
+            if (children.own == null) children.source.serializeWithType(g, provider, typeSer);
+            else super.serializeWithType(g, provider, typeSer);
+        }
+    }
+
+    private static final class SharedArrayNode extends ArrayNode {
+        private final Elements elements;
+
+        SharedArrayNode(ArrayNode source) {
+            this(new Elements(source instanceof SharedArrayNode shared && shared.elements.own == null
+                    ? shared.elements.source : source));
+        }
+
+        private SharedArrayNode(Elements elements) {
+            super(JsonNodeFactory.instance, elements);
+            this.elements = elements;
+        }
+
+        @Override
+        public ArrayNode deepCopy() {
+            return elements.own == null ? elements.source.deepCopy() : super.deepCopy();
+        }
+
+        @Override
+        public void serialize(JsonGenerator g, SerializerProvider provider) throws IOException {
+            if (elements.own == null) elements.source.serialize(g, provider);
+            else super.serialize(g, provider);
+        }
+
+        @Override
+        public void serializeWithType(JsonGenerator g, SerializerProvider provider, TypeSerializer typeSer) throws IOException {
+            if (elements.own == null) elements.source.serializeWithType(g, provider, typeSer);
+            else super.serializeWithType(g, provider, typeSer);
+        }
+    }
+
+    /**
+     * Fields of a {@link SharedObjectNode}: read from the frozen object until {@link #own()} copies them.
+     */
+    private static final class Children extends AbstractMap<String, JsonNode> {
+        private static final VarHandle OWN = varHandle(Children.class, LinkedHashMap.class);
+
+        private final ObjectNode source;
+        private volatile LinkedHashMap<String, JsonNode> own;
+
+        Children(ObjectNode source) {
+            this.source = source;
+        }
+
+        @SuppressWarnings("unchecked")
+        private Map<String, JsonNode> own() {
+            LinkedHashMap<String, JsonNode> current = own;
+            if (current != null) return current;
+            LinkedHashMap<String, JsonNode> copy = new LinkedHashMap<>();
+            for (Map.Entry<String, JsonNode> entry : source.properties()) {
+                copy.put(entry.getKey(), view(entry.getValue()));
+            }
+            // readers copying at the same time keep the first copy, so they hand out the same views
+            Object witness = OWN.compareAndExchange(this, null, copy);
+            return witness == null ? copy : (LinkedHashMap<String, JsonNode>) witness;
+        }
+
+        @Override
+        public JsonNode get(Object key) {
+            LinkedHashMap<String, JsonNode> current = own;
+            if (current != null) return current.get(key);
+            if (!(key instanceof String field)) return null;
+            JsonNode value = source.get(field);
+            // a nested container is handed out as a view, kept so later reads return the same one
+            return value == null || !value.isContainerNode() ? value : own().get(key);
+        }
+
+        @Override
+        public boolean containsKey(Object key) {
+            LinkedHashMap<String, JsonNode> current = own;
+            if (current != null) return current.containsKey(key);
+            return key instanceof String field && source.has(field);
+        }
+
+        @Override
+        public int size() {
+            LinkedHashMap<String, JsonNode> current = own;
+            return current != null ? current.size() : source.size();
+        }
+
+        @Override
+        public JsonNode put(String key, JsonNode value) {
+            return own().put(key, value);
+        }
+
+        @Override
+        public JsonNode remove(Object key) {
+            return own().remove(key);
+        }
+
+        @Override
+        public void clear() {
+            own = new LinkedHashMap<>();
+        }
+
+        @Override
+        public Set<Entry<String, JsonNode>> entrySet() {
+            return own().entrySet();
+        }
+    }
+
+    /**
+     * Items of a {@link SharedArrayNode}: read from the frozen array until {@link #own()} copies them.
+     */
+    private static final class Elements extends AbstractList<JsonNode> implements RandomAccess {
+        private static final VarHandle OWN = varHandle(Elements.class, ArrayList.class);
+
+        private final ArrayNode source;
+        private volatile ArrayList<JsonNode> own;
+
+        Elements(ArrayNode source) {
+            this.source = source;
+        }
+
+        @SuppressWarnings("unchecked")
+        private List<JsonNode> own() {
+            ArrayList<JsonNode> current = own;
+            if (current != null) return current;
+            ArrayList<JsonNode> copy = new ArrayList<>(source.size());
+            for (JsonNode element : source) copy.add(view(element));
+            Object witness = OWN.compareAndExchange(this, null, copy);
+            return witness == null ? copy : (ArrayList<JsonNode>) witness;
+        }
+
+        @Override
+        public JsonNode get(int index) {
+            ArrayList<JsonNode> current = own;
+            if (current != null) return current.get(index);
+            JsonNode value = source.get(index);
+            if (value == null) throw new IndexOutOfBoundsException(index);
+            return value.isContainerNode() ? own().get(index) : value;
+        }
+
+        @Override
+        public int size() {
+            ArrayList<JsonNode> current = own;
+            return current != null ? current.size() : source.size();
+        }
+
+        @Override
+        public JsonNode set(int index, JsonNode element) {
+            return own().set(index, element);
+        }
+
+        @Override
+        public void add(int index, JsonNode element) {
+            modCount++;
+            own().add(index, element);
+        }
+
+        @Override
+        public JsonNode remove(int index) {
+            modCount++;
+            return own().remove(index);
+        }
+
+        @Override
+        public void clear() {
+            modCount++;
+            own = new ArrayList<>();
+        }
+    }
+}
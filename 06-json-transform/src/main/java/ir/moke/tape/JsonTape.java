@@ -0,0 +1,586 @@
+package ir.moke.tape;
+
+import com.fasterxml.jackson.core.JsonGenerator;
+import com.fasterxml.jackson.core.JsonParser;
+import com.fasterxml.jackson.core.JsonToken;
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.databind.node.ArrayNode;
+import com.fasterxml.jackson.databind.node.BigIntegerNode;
+import com.fasterxml.jackson.databind.node.BooleanNode;
+import com.fasterxml.jackson.databind.node.DecimalNode;
+import com.fasterxml.jackson.databind.node.DoubleNode;
+import com.fasterxml.jackson.databind.node.FloatNode;
+import com.fasterxml.jackson.databind.node.IntNode;
+import com.fasterxml.jackson.databind.node.JsonNodeFactory;
+import com.fasterxml.jackson.databind.node.JsonNodeType;
+import com.fasterxml.jackson.databind.node.LongNode;
+import com.fasterxml.jackson.databind.node.NullNode;
+import com.fasterxml.jackson.databind.node.ObjectNode;
+import com.fasterxml.jackson.databind.node.TextNode;
+import ir.moke.compiler.FilterPredicate;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.math.BigDecimal;
+import java.math.BigInteger;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Objects;
+
+/**
+ * A json document laid out as one flat tape of tagged values in a {@link ByteBuffer}, a compact read-only alternative
+ * to a {@link JsonNode} tree.
+ * <p>
+ * Every value is a one byte tag followed by its payload: nothing for {@code null} and booleans, the number itself for
+ * {@code int}, {@code long}, {@code float} and {@code double}, a length and UTF-8 bytes for strings and big numbers.
+ * Arrays and objects start with their size and the offset they end at, so a reader skips a nested value in constant
+ * time, followed by their elements, or by a 4 byte field name id and a value per field. Field names are interned in a
+ * table shared by the whole document, a name repeated across a million records is kept once.
+ * <p>
+ * Values are addressed by their offset in the tape, starting with {@link #root()}. Numbers keep the types
+ * {@link ObjectMapper#readTree} gives them, and a field name repeated in one object keeps its first position with its
+ * last value, so {@link #node(int)} materializes exactly the tree the same text parses to. A tape is immutable and can
+ * be shared between threads; {@link #offHeap()} moves it out of the heap, leaving only the name table to the garbage
+ * collector. Documents are limited to 2GB of tape.
+ */
+public final class JsonTape {
+    private static final byte NULL = 0;
+    private static final byte TRUE = 1;
+    private static final byte FALSE = 2;
+    private static final byte INT = 3;
+    private static final byte LONG = 4;
+    private static final byte FLOAT = 5;
+    private static final byte DOUBLE = 6;
+    private static final byte BIG_INTEGER = 7;
+    private static final byte BIG_DECIMAL = 8;
+    private static final byte STRING = 9;
+    private static final byte ARRAY = 10;
+    private static final byte OBJECT = 11;
+    /* Tag, size and end offset */
+    private static final int CONTAINER_HEADER = 9;
+    /* Name id of a field whose value was moved to the first field of the same name */
+    private static final int HIDDEN = -1;
+    private static final ObjectMapper mapper = new ObjectMapper();
+
+    private final ByteBuffer tape;
+    private final String[] names;
+    private final Map<String, Integer> ids;
+    /* Field offset to the offset of the later field of the same name holding its value, for repeated names only */
+    private final Map<Integer, Integer> moved;
+
+    private JsonTape(ByteBuffer tape, String[] names, Map<String, Integer> ids, Map<Integer, Integer> moved) {
+        this.tape = tape;
+        this.names = names;
+        this.ids = ids;
+        this.moved = moved;
+    }
+
+    public static JsonTape of(String jsonData) {
+        try (JsonParser parser = mapper.createParser(Objects.requireNonNull(jsonData))) {
+            return parse(parser);
+        } catch (IOException e) {
+            throw new RuntimeException(e);
+        }
+    }
+
+    /**
+     * Parse UTF-8 (or UTF-16/32, detected from the first bytes) json.
+     */
+    public static JsonTape of(byte[] jsonData) {
+        try (JsonParser parser = mapper.createParser(jsonData)) {
+            return parse(parser);
+        } catch (IOException e) {
+            throw new RuntimeException(e);
+        }
+    }
+
+    /**
+     * Parse one json document from a stream of bytes. The stream is not closed.
+     */
+    public static JsonTape of(InputStream jsonData) {
+        try (JsonParser parser = mapper.createParser(Objects.requireNonNull(jsonData))) {
+            parser.disable(JsonParser.Feature.AUTO_CLOSE_SOURCE);
+            return parse(parser);
+        } catch (IOException e) {
+            throw new RuntimeException(e);
+        }
+    }
+
+    /**
+     * Lay out a tree. Binary and POJO nodes have no json text and are rejected.
+     */
+    public static JsonTape of(JsonNode node) {
+        Builder builder = new Builder();
+        builder.value(Objects.requireNonNull(node));
+        return builder.build();
+    }
+
+    private static JsonTape parse(JsonParser parser) throws IOException {
+        JsonToken token = parser.nextToken();
+        if (token == null) throw new IllegalArgumentException("Json input should not be empty");
+        Builder builder = new Builder();
+        builder.value(parser, token);
+        return builder.build();
+    }
+
+    /**
+     * @return this tape when it is already outside the heap, otherwise a copy in a direct buffer
+     */
+    public JsonTape offHeap() {
+        if (tape.isDirect()) return this;
+        ByteBuffer direct = ByteBuffer.allocateDirect(tape.capacity()).order(ByteOrder.LITTLE_ENDIAN);
+        direct.put(0, tape, 0, tape.capacity());
+        return new JsonTape(direct, names, ids, moved);
+    }
+
+    public boolean isOffHeap() {
+        return tape.isDirect();
+    }
+
+    /**
+     * @return size of the tape in bytes, without the field name table
+     */
+    public int byteSize() {
+        return tape.capacity();
+    }
+
+    public int root() {
+        return 0;
+    }
+
+    public JsonNodeType type(int at) {
+        return switch (tape.get(at)) {
+            case NULL -> JsonNodeType.NULL;
+            case TRUE, FALSE -> JsonNodeType.BOOLEAN;
+            case INT, LONG, FLOAT, DOUBLE, BIG_INTEGER, BIG_DECIMAL -> JsonNodeType.NUMBER;
+            case STRING -> JsonNodeType.STRING;
+            case ARRAY -> JsonNodeType.ARRAY;
+            case OBJECT -> JsonNodeType.OBJECT;
+            default -> throw new IllegalArgumentException("No value at " + at);
+        };
+    }
+
+    public boolean isNumber(int at) {
+        byte tag = tape.get(at);
+        return tag >= INT && tag <= BIG_DECIMAL;
+    }
+
+    public boolean isTextual(int at) {
+        return tape.get(at) == STRING;
+    }
+
+    public boolean isArray(int at) {
+        return tape.get(at) == ARRAY;
+    }
+
+    public boolean isObject(int at) {
+        return tape.get(at) == OBJECT;
+    }
+
+    /**
+     * @return number of elements of an array or fields of an object, {@code 0} for anything else
+     */
+    public int size(int at) {
+        byte tag = tape.get(at);
+        return tag == ARRAY || tag == OBJECT ? tape.getInt(at + 1) : 0;
+    }
+
+    /**
+     * @return the id field {@code name} is stored under, or {@code -1} when no object of the document has it
+     */
+    public int nameId(String name) {
+        Integer id = ids.get(name);
+        return id == null ? -1 : id;
+    }
+
+    /**
+     * @return offset of the value of field {@code name}, or {@code -1} when {@code at} is not an object or has no such
+     * field
+     */
+    public int field(int at, String name) {
+        return field(at, nameId(name));
+    }
+
+    /**
+     * @param nameId id from {@link #nameId(String)}
+     */
+    public int field(int at, int nameId) {
+        if (nameId < 0 || tape.get(at) != OBJECT) return -1;
+        int end = tape.getInt(at + 5);
+        for (int entry = at + CONTAINER_HEADER; entry < end; entry = skip(entry + 4)) {
+            if (tape.getInt(entry) == nameId) return valueOf(entry);
+        }
+        return -1;
+    }
+
+    /**
+     * @return offsets of the elements of an array, in order
+     */
+    public int[] elements(int at) {
+        if (tape.get(at) != ARRAY) throw new IllegalArgumentException("Json tape value should be array");
+        int[] elements = new int[tape.getInt(at + 1)];
+        int element = at + CONTAINER_HEADER;
+        for (int i = 0; i < elements.length; i++) {
+            elements[i] = element;
+            element = skip(element);
+        }
+        return elements;
+    }
+
+    /**
+     * @return the string at {@code at}, or {@code null} when it is not a string, like {@link JsonNode#textValue()}
+     */
+    public String textValue(int at) {
+        return tape.get(at) == STRING ? string(at) : null;
+    }
+
+    /**
+     * @return the number at {@code at} like {@link JsonNode#doubleValue()}, {@code 0} when it is not a number
+     */
+    public double doubleValue(int at) {
+        return switch (tape.get(at)) {
+            case INT -> tape.getInt(at + 1);
+            case LONG -> tape.getLong(at + 1);
+            case FLOAT -> tape.getFloat(at + 1);
+            case DOUBLE -> tape.getDouble(at + 1);
+            case BIG_INTEGER -> new BigInteger(string(at)).doubleValue();
+            case BIG_DECIMAL -> new BigDecimal(string(at)).doubleValue();
+            default -> 0;
+        };
+    }
+
+    /**
+     * Keep the elements of an array that pass every filter, reading the elements from the tape.
+     *
+     * @param elements offsets of the elements to test
+     * @return offsets of the elements kept, in order, or {@code null} when a filter narrows nested arrays and needs
+     * the elements as trees
+     */
+    public int[] filter(int[] elements, List<FilterPredicate> filters) {
+        return filter(elements, filters, -1);
+    }
+
+    /**
+     * Like {@link #filter(int[], List)}, stopping once {@code limit} elements are kept.
+     *
+     * @param limit number of elements to keep at most, or -1 to keep all of them
+     */
+    public int[] filter(int[] elements, List<FilterPredicate> filters, int limit) {
+        return TapeFilter.supports(filters) ? new TapeFilter(this).filter(elements, filters, limit) : null;
+    }
+
+    public JsonNode toJsonNode() {
+        return node(root());
+    }
+
+    /**
+     * @return a new tree of the value at {@code at}, free to be modified
+     */
+    public JsonNode node(int at) {
+        JsonNodeFactory factory = JsonNodeFactory.instance;
+        return switch (tape.get(at)) {
+            case NULL -> NullNode.getInstance();
+            case TRUE -> BooleanNode.TRUE;
+            case FALSE -> BooleanNode.FALSE;
+            case INT -> IntNode.valueOf(tape.getInt(at + 1));
+            case LONG -> LongNode.valueOf(tape.getLong(at + 1));
+            case FLOAT -> FloatNode.valueOf(tape.getFloat(at + 1));
+            case DOUBLE -> DoubleNode.valueOf(tape.getDouble(at + 1));
+            case BIG_INTEGER -> BigIntegerNode.valueOf(new BigInteger(string(at)));
+            case BIG_DECIMAL -> DecimalNode.valueOf(new BigDecimal(string(at)));
+            case STRING -> TextNode.valueOf(string(at));
+            case ARRAY -> {
+                ArrayNode array = factory.arrayNode(tape.getInt(at + 1));
+                int end = tape.getInt(at + 5);
+                for (int element = at + CONTAINER_HEADER; element < end; element = skip(element)) {
+                    array.add(node(element));
+                }
+                yield array;
+            }
+            case OBJECT -> {
+                ObjectNode object = factory.objectNode();
+                int end = tape.getInt(at + 5);
+                for (int entry = at + CONTAINER_HEADER; entry < end; entry = skip(entry + 4)) {
+                    int id = tape.getInt(entry);
+                    if (id != HIDDEN) object.set(names[id], node(valueOf(entry)));
+                }
+                yield object;
+            }
+            default -> throw new IllegalArgumentException("No value at " + at);
+        };
+    }
+
+    /**
+     * Serialize the value at {@code at} straight from the tape, the same text {@link #node(int)} serializes to.
+     */
+    public void write(int at, JsonGenerator generator) throws IOException {
+        switch (tape.get(at)) {
+            case NULL -> generator.writeNull();
+            case TRUE -> generator.writeBoolean(true);
+            case FALSE -> generator.writeBoolean(false);
+            case INT -> generator.writeNumber(tape.getInt(at + 1));
+            case LONG -> generator.writeNumber(tape.getLong(at + 1));
+            case FLOAT -> generator.writeNumber(tape.getFloat(at + 1));
+            case DOUBLE -> generator.writeNumber(tape.getDouble(at + 1));
+            case BIG_INTEGER -> generator.writeNumber(new BigInteger(string(at)));
+            case BIG_DECIMAL -> generator.writeNumber(new BigDecimal(string(at)));
+            case STRING -> generator.writeString(string(at));
+            case ARRAY -> {
+                generator.writeStartArray();
+                int end = tape.getInt(at + 5);
+                for (int element = at + CONTAINER_HEADER; element < end; element = skip(element)) {
+                    write(element, generator);
+                }
+                generator.writeEndArray();
+            }
+            case OBJECT -> {
+                generator.writeStartObject();
+                int end = tape.getInt(at + 5);
+                for (int entry = at + CONTAINER_HEADER; entry < end; entry = skip(entry + 4)) {
+                    int id = tape.getInt(entry);
+                    if (id == HIDDEN) continue;
+                    generator.writeFieldName(names[id]);
+                    write(valueOf(entry), generator);
+                }
+                generator.writeEndObject();
+            }
+            default -> throw new IllegalArgumentException("No value at " + at);
+        }
+    }
+
+    /**
+     * @return offset of the value of the object field at {@code entry}
+     */
+    private int valueOf(int entry) {
+        if (!moved.isEmpty()) {
+            Integer later = moved.get(entry);
+            if (later != null) return later + 4;
+        }
+        return entry + 4;
+    }
+
+    /**
+     * @return offset right after the value at {@code at}
+     */
+    private int skip(int at) {
+        return switch (tape.get(at)) {
+            case NULL, TRUE, FALSE -> at + 1;
+            case INT, FLOAT -> at + 5;
+            case LONG, DOUBLE -> at + 9;
+            case BIG_INTEGER, BIG_DECIMAL, STRING -> at + 5 + tape.getInt(at + 1);
+            case ARRAY, OBJECT -> tape.getInt(at + 5);
+            default -> throw new IllegalArgumentException("No value at " + at);
+        };
+    }
+
+    private String string(int at) {
+        int length = tape.getInt(at + 1);
+        if (tape.hasArray()) {
+            return new String(tape.array(), tape.arrayOffset() + at + 5, length, StandardCharsets.UTF_8);
+        }
+        byte[] bytes = new byte[length];
+        tape.get(at + 5, bytes);
+        return new String(bytes, StandardCharsets.UTF_8);
+    }
+
+    /**
+     * Appends values to a growing heap buffer, in one pass over parser tokens or a tree.
+     */
+    private static final class Builder {
+        private ByteBuffer out = ByteBuffer.allocate(1024).order(ByteOrder.LITTLE_ENDIAN);
+        private final List<String> names = new ArrayList<>();
+        private final Map<String, Integer> ids = new HashMap<>();
+        private final Map<Integer, Integer> moved = new HashMap<>();
+        /* Per name id, the object that last got a field of that name and the offset of the field */
+        private int[] owner = new int[64];
+        private int[] fieldAt = new int[64];
+        /* Name id, owner and field overwritten by a nested object, restored once it ends */
+        private int[] saved = new int[192];
+        private int savedSize;
+        private int objects;
+
+        JsonTape build() {
+            ByteBuffer tape = ByteBuffer.allocate(out.position()).order(ByteOrder.LITTLE_ENDIAN);
+            tape.put(0, out, 0, out.position());
+            return new JsonTape(tape, names.toArray(String[]::new), ids, moved.isEmpty() ? Map.of() : moved);
+        }
+
+        void value(JsonParser p, JsonToken token) throws IOException {
+            switch (token) {
+                case START_OBJECT -> {
+                    int start = begin(OBJECT);
+                    int serial = ++objects;
+                    int mark = savedSize;
+                    int count = 0;
+                    for (String name = p.nextFieldName(); name != null; name = p.nextFieldName()) {
+                        if (field(name, serial)) count++;
+                        value(p, p.nextToken());
+                    }
+                    restore(mark);
+                    end(start, count);
+                }
+                case START_ARRAY -> {
+                    int start = begin(ARRAY);
+                    int count = 0;
+                    for (JsonToken t = p.nextToken(); t != JsonToken.END_ARRAY; t = p.nextToken()) {
+                        value(p, t);
+                        count++;
+                    }
+                    end(start, count);
+                }
+                case VALUE_STRING -> text(STRING, p.getText());
+                case VALUE_NUMBER_INT -> {
+                    switch (p.getNumberType()) {
+                        case INT -> putInt(INT, p.getIntValue());
+                        case LONG -> putLong(LONG, p.getLongValue());
+                        default -> text(BIG_INTEGER, p.getBigIntegerValue().toString());
+                    }
+                }
+                case VALUE_NUMBER_FLOAT -> {
+                    switch (p.getNumberTypeFP()) {
+                        case BIG_DECIMAL -> text(BIG_DECIMAL, p.getDecimalValue().toString());
+                        case FLOAT32 -> putInt(FLOAT, Float.floatToRawIntBits(p.getFloatValue()));
+                        default -> putLong(DOUBLE, Double.doubleToRawLongBits(p.getDoubleValue()));
+                    }
+                }
+                case VALUE_TRUE -> tag(TRUE);
+                case VALUE_FALSE -> tag(FALSE);
+                case VALUE_NULL -> tag(NULL);
+                default -> throw new IllegalArgumentException("Json tape can not hold " + token);
+            }
+        }
+
+        void value(JsonNode node) {
+            switch (node.getNodeType()) {
+                case OBJECT -> {
+                    int start = begin(OBJECT);
+                    for (Map.Entry<String, JsonNode> entry : node.properties()) {
+                        // names of an object node are distinct
+                        ensure(4);
+                        out.putInt(intern(entry.getKey()));
+                        value(entry.getValue());
+                    }
+                    end(start, node.size());
+                }
+                case ARRAY -> {
+                    int start = begin(ARRAY);
+                    for (JsonNode element : node) value(element);
+                    end(start, node.size());
+                }
+                case STRING -> text(STRING, node.textValue());
+                case NUMBER -> {
+                    switch (node.numberType()) {
+                        case INT -> putInt(INT, node.intValue());
+                        case LONG -> putLong(LONG, node.longValue());
+                        case BIG_INTEGER -> text(BIG_INTEGER, node.bigIntegerValue().toString());
+                        case FLOAT -> putInt(FLOAT, Float.floatToRawIntBits(node.floatValue()));
+                        case DOUBLE -> putLong(DOUBLE, Double.doubleToRawLongBits(node.doubleValue()));
+                        case BIG_DECIMAL -> text(BIG_DECIMAL, node.decimalValue().toString());
+                    }
+                }
+                case BOOLEAN -> tag(node.booleanValue() ? TRUE : FALSE);
+                case NULL -> tag(NULL);
+                default -> throw new IllegalArgumentException("Json tape can not hold " + node.getNodeType());
+            }
+        }
+
+        /**
+         * Write the name id of a field of object {@code serial}. A name the object already has is written
+         * {@link #HIDDEN}, its value moved to the first field of that name.
+         *
+         * @return whether the field is a new one
+         */
+        private boolean field(String name, int serial) {
+            int id = intern(name);
+            int at = out.position();
+            ensure(4);
+            if (owner[id] == serial) {
+                moved.put(fieldAt[id], at);
+                out.putInt(HIDDEN);
+                return false;
+            }
+            if (savedSize + 3 > saved.length) saved = Arrays.copyOf(saved, saved.length * 2);
+            saved[savedSize++] = id;
+            saved[savedSize++] = owner[id];
+            saved[savedSize++] = fieldAt[id];
+            owner[id] = serial;
+            fieldAt[id] = at;
+            out.putInt(id);
+            return true;
+        }
+
+        private void restore(int mark) {
+            while (savedSize > mark) {
+                int previousField = saved[--savedSize];
+                int previousOwner = saved[--savedSize];
+                int id = saved[--savedSize];
+                owner[id] = previousOwner;
+                fieldAt[id] = previousField;
+            }
+        }
+
+        private int intern(String name) {
+            Integer id = ids.get(name);
+            if (id != null) return id;
+            int next = names.size();
+            names.add(name);
+            ids.put(name, next);
+            if (next == owner.length) {
+                owner = Arrays.copyOf(owner, next * 2);
+                fieldAt = Arrays.copyOf(fieldAt, next * 2);
+            }
+            return next;
+        }
+
+        private int begin(byte tag) {
+            int start = out.position();
+            ensure(CONTAINER_HEADER);
+            out.put(tag).putInt(0).putInt(0);
+            return start;
+        }
+
+        private void end(int start, int count) {
+            out.putInt(start + 1, count);
+            out.putInt(start + 5, out.position());
+        }
+
+        private void tag(byte tag) {
+            ensure(1);
+            out.put(tag);
+        }
+
+        private void putInt(byte tag, int value) {
+            ensure(5);
+            out.put(tag).putInt(value);
+        }
+
+        private void putLong(byte tag, long value) {
+            ensure(9);
+            out.put(tag).putLong(value);
+        }
+
+        private void text(byte tag, String text) {
+            byte[] bytes = text.getBytes(StandardCharsets.UTF_8);
+            ensure(5 + (long) bytes.length);
+            out.put(tag).putInt(bytes.length).put(bytes);
+        }
+
+        private void ensure(long bytes) {
+            long needed = out.position() + bytes;
+            if (needed <= out.capacity()) return;
+            if (needed > Integer.MAX_VALUE - 8) throw new IllegalStateException("Json tape should be smaller than 2GB");
+            int capacity = (int) Math.min(Integer.MAX_VALUE - 8, Math.max(needed, (long) out.capacity() * 2));
+            ByteBuffer grown = ByteBuffer.allocate(capacity).order(ByteOrder.LITTLE_ENDIAN);
+            out.flip();
+            grown.put(out);
+            out = grown;
+        }
+    }
+}
@@ -0,0 +1,172 @@
+package ir.moke.tape;
+
+import com.fasterxml.jackson.databind.JsonNode;
+import ir.moke.compiler.CompareOperator;
+import ir.moke.compiler.FilterPath;
+import ir.moke.compiler.FilterPredicate;
+import ir.moke.compiler.Operand;
+
+import java.util.Arrays;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Evaluates filter predicates on array elements of a {@link JsonTape} without building their trees.
+ * <p>
+ * A comparison whose paths are plain field names and whose sides both turn out to be numbers, or both strings, is
+ * decided on the tape. Anything else, a path crossing an array, an array or object value, mixed types, is handed to
+ * the predicate itself on the element materialized once, so the result is always the one of the tree.
+ */
+final class TapeFilter {
+    /* Operand resolved to nothing */
+    private static final int NONE = -1;
+    /* Operand the tape can not resolve, the comparison is evaluated on the tree */
+    private static final int TREE = -2;
+    /* Operand is a literal */
+    private static final int LITERAL = -3;
+
+    private final JsonTape tape;
+    /* Name ids of the plain field paths met so far, null for other paths */
+    private final Map<FilterPath, int[]> paths = new IdentityHashMap<>();
+    /* Element materialized for the predicates the tape can not decide */
+    private int current = -1;
+    private JsonNode currentNode;
+
+    TapeFilter(JsonTape tape) {
+        this.tape = tape;
+    }
+
+    /**
+     * @return whether no predicate changes the element it tests, so elements can be tested without a tree
+     */
+    static boolean supports(List<FilterPredicate> filters) {
+        for (FilterPredicate filter : filters) {
+            if (!supports(filter)) return false;
+        }
+        return true;
+    }
+
+    private static boolean supports(FilterPredicate predicate) {
+        return switch (predicate) {
+            case FilterPredicate.And and -> supports(and.left()) && supports(and.right());
+            case FilterPredicate.Or or -> supports(or.left()) && supports(or.right());
+            case FilterPredicate.Comparison ignored -> true;
+            case FilterPredicate.Never ignored -> true;
+            case FilterPredicate.ArrayFilter ignored -> false;
+        };
+    }
+
+    /**
+     * @param limit number of elements to keep at most, elements after the last one kept are not tested; or -1
+     */
+    int[] filter(int[] elements, List<FilterPredicate> filters, int limit) {
+        int[] kept = new int[limit < 0 ? elements.length : Math.min(limit, elements.length)];
+        int count = 0;
+        for (int i = 0; i < elements.length && count < kept.length; i++) {
+            if (test(filters, elements[i])) kept[count++] = elements[i];
+        }
+        currentNode = null;
+        return count == kept.length ? kept : Arrays.copyOf(kept, count);
+    }
+
+    private boolean test(List<FilterPredicate> filters, int element) {
+        for (FilterPredicate filter : filters) {
+            if (!test(filter, element)) return false;
+        }
+        return true;
+    }
+
+    private boolean test(FilterPredicate predicate, int element) {
+        return switch (predicate) {
+            case FilterPredicate.And and -> test(and.left(), element) && test(and.right(), element);
+            case FilterPredicate.Or or -> test(or.left(), element) || test(or.right(), element);
+            case FilterPredicate.Comparison comparison -> compare(comparison, element);
+            case FilterPredicate.Never ignored -> false;
+            case FilterPredicate.ArrayFilter ignored ->
+                    throw new IllegalStateException("Array filters change the element and need it as a tree");
+        };
+    }
+
+    private boolean compare(FilterPredicate.Comparison comparison, int element) {
+        int l = resolve(comparison.left(), element);
+        if (l == NONE) return false;
+        if (l == TREE) return comparison.test(node(element));
+        int r = resolve(comparison.right(), element);
+        if (r == NONE) return false;
+        if (r == TREE) return comparison.test(node(element));
+
+        JsonNode leftLiteral = l == LITERAL ? ((Operand.Literal) comparison.left()).value() : null;
+        JsonNode rightLiteral = r == LITERAL ? ((Operand.Literal) comparison.right()).value() : null;
+        CompareOperator operator = comparison.operator();
+        boolean contains = operator == CompareOperator.CONTAINS || operator == CompareOperator.NOT_CONTAINS;
+        if (!contains && isNumber(l, leftLiteral) && isNumber(r, rightLiteral)) {
+            return operator.testNumeric(number(l, leftLiteral), number(r, rightLiteral));
+        }
+        if (isTextual(l, leftLiteral) && isTextual(r, rightLiteral)) {
+            String text = text(l, leftLiteral);
+            if (comparison.matcher() != null) return comparison.matcher().test(text);
+            return operator.testString(text, text(r, rightLiteral));
+        }
+        return comparison.test(node(element));
+    }
+
+    /**
+     * @return offset of the value of {@code operand}, {@link #NONE}, {@link #TREE} or {@link #LITERAL}
+     */
+    private int resolve(Operand operand, int element) {
+        return switch (operand) {
+            case Operand.Literal ignored -> LITERAL;
+            case Operand.Self ignored -> element;
+            case Operand.Path(FilterPath path) -> resolve(path, element);
+        };
+    }
+
+    /**
+     * Resolve a path the way {@link FilterPath#read(JsonNode)} does while it only meets objects.
+     */
+    private int resolve(FilterPath path, int element) {
+        int[] ids = paths.computeIfAbsent(path, this::nameIds);
+        if (ids == null) return TREE;
+        int at = element;
+        for (int id : ids) {
+            if (tape.isArray(at)) return TREE;
+            if (!tape.isObject(at)) return NONE;
+            at = tape.field(at, id);
+            if (at < 0) return NONE;
+        }
+        return at;
+    }
+
+    private int[] nameIds(FilterPath path) {
+        String[] fields = path.plainFields();
+        if (fields == null) return null;
+        int[] ids = new int[fields.length];
+        for (int i = 0; i < fields.length; i++) ids[i] = tape.nameId(fields[i]);
+        return ids;
+    }
+
+    private boolean isNumber(int at, JsonNode literal) {
+        return literal != null ? literal.isNumber() : tape.isNumber(at);
+    }
+
+    private boolean isTextual(int at, JsonNode literal) {
+        return literal != null ? literal.isTextual() : tape.isTextual(at);
+    }
+
+    private double number(int at, JsonNode literal) {
+        return literal != null ? literal.doubleValue() : tape.doubleValue(at);
+    }
+
+    private String text(int at, JsonNode literal) {
+        return literal != null ? literal.textValue() : tape.textValue(at);
+    }
+
+    private JsonNode node(int element) {
+        if (current != element || currentNode == null) {
+            current = element;
+            currentNode = tape.node(element);
+        }
+        return currentNode;
+    }
+}
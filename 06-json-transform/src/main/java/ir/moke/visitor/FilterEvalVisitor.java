@@ -1,30 +1,36 @@
 package ir.moke.visitor;
 
 import com.fasterxml.jackson.databind.JsonNode;
-import com.fasterxml.jackson.databind.ObjectMapper;
 import com.fasterxml.jackson.databind.node.ArrayNode;
-import com.fasterxml.jackson.databind.node.IntNode;
-import com.fasterxml.jackson.databind.node.NullNode;
-import com.fasterxml.jackson.databind.node.TextNode;
 import ir.moke.antlr4.FilterGrammerBaseVisitor;
 import ir.moke.antlr4.FilterGrammerParser;
+import ir.moke.compiler.FilterCompiler;
 
-import java.util.ArrayList;
-import java.util.List;
-import java.util.Objects;
+import java.util.concurrent.RecursiveAction;
+import java.util.function.Predicate;
 
 public class FilterEvalVisitor extends FilterGrammerBaseVisitor<Void> {
 
-    private final ObjectMapper mapper = new ObjectMapper();
     private final JsonNode data;
+    private final ParallelOptions parallel;
 
     public FilterEvalVisitor(JsonNode data) {
+        this(data, null);
+    }
+
+    /**
+     * @param parallel when not null, elements of large arrays are evaluated in parallel
+     */
+    public FilterEvalVisitor(JsonNode data, ParallelOptions parallel) {
         this.data = data;
+        this.parallel = parallel;
     }
 
     @Override
     public Void visitProgram(FilterGrammerParser.ProgramContext ctx) {
         ctx.clauses().forEach(this::visit);
+        int limit = FilterCompiler.limit(ctx);
+        if (limit >= 0) filter(element -> true, limit);
         return null;
     }
 
@@ -36,167 +42,84 @@ public class FilterEvalVisitor extends FilterGrammerBaseVisitor<Void> {
 
     @Override
     public Void visitExpressions(FilterGrammerParser.ExpressionsContext ctx) {
-        if (!data.isArray()) throw new IllegalArgumentException("Json node should be array");
-        ArrayNode arr = (ArrayNode) data;
-        if (arr.isEmpty()) return null;
-
-        ArrayNode filtered = mapper.createArrayNode();
-        for (JsonNode item : arr) {
-            if (evalExpression(ctx, item)) filtered.add(item);
-        }
-
-        arr.removeAll();
-        arr.addAll(filtered);
+        filter(FilterCompiler.compile(ctx));
         return null;
     }
 
-    private boolean evalExpression(FilterGrammerParser.ExpressionsContext ctx, JsonNode node) {
-        if (ctx.statement() != null) return evalComparison(ctx.statement(), node);
-        if (ctx.arrayFilter() != null) return evalArrayFilter(ctx.arrayFilter(), node);
-
-        if (ctx.AND() != null) return evalExpression(ctx.expressions(0), node) && evalExpression(ctx.expressions(1), node);
-        if (ctx.OR() != null) return evalExpression(ctx.expressions(0), node) || evalExpression(ctx.expressions(1), node);
-
-        if (ctx.expressions().size() == 1) return evalExpression(ctx.expressions(0), node);
-
-        return false;
-    }
-
-    private boolean evalArrayFilter(FilterGrammerParser.ArrayFilterContext ctx, JsonNode node) {
-        List<JsonNode> targets = ctx.path() == null ? List.of(node) : resolvePath(ctx.path(), node);
-
-        if (ctx.NUMBER() != null) {
-            int index = Integer.parseInt(ctx.NUMBER().getText());
-            for (JsonNode target : targets) {
-                if (target.isArray()) {
-                    ArrayNode filtered = mapper.createArrayNode();
-                    JsonNode indexedNode = target.get(index);
-                    if (indexedNode != null) filtered.add(indexedNode);
-                    ((ArrayNode) target).removeAll();
-                    ((ArrayNode) target).addAll(filtered);
-                }
+    /**
+     * Keep only the elements of the top-level array that match the predicate. With parallel options the predicate is
+     * called from several threads at once, one element at a time.
+     */
+    public void filter(Predicate<JsonNode> predicate) {
+        if (!data.isArray()) throw new IllegalArgumentException("Json node should be array");
+        ArrayNode arr = (ArrayNode) data;
+        if (arr.isEmpty()) return;
+
+        ArrayNode filtered = arr.arrayNode();
+        if (parallel != null && parallel.appliesTo(arr.size())) {
+            boolean[] keep = new boolean[arr.size()];
+            parallel.pool().invoke(new EvalTask(predicate, arr, keep, 0, arr.size(), parallel.chunkSize(arr.size())));
+            for (int i = 0; i < keep.length; i++) {
+                if (keep[i]) filtered.add(arr.get(i));
             }
         } else {
-            for (JsonNode target : targets) {
-                if (!target.isArray()) continue;
-                ArrayNode filtered = mapper.createArrayNode();
-                for (JsonNode item : target) {
-                    if (evalExpression(ctx.expressions(), item)) filtered.add(item);
-                }
-                ((ArrayNode) target).removeAll();
-                ((ArrayNode) target).addAll(filtered);
+            for (JsonNode item : arr) {
+                if (predicate.test(item)) filtered.add(item);
             }
         }
 
-        return true;
+        arr.removeAll();
+        arr.addAll(filtered);
     }
 
-    private boolean evalComparison(FilterGrammerParser.StatementContext ctx, JsonNode node) {
-        if (ctx == null) return false;
-        JsonNode left = readValue(ctx.stmtValue(0), node);
-        JsonNode right = readValue(ctx.stmtValue(1), node);
-        String cmp = ctx.comparator().getText();
-
-        if (left.isArray() || right.isArray()) {
-            for (JsonNode l : left.isArray() ? left : List.of(left)) {
-                for (JsonNode r : right.isArray() ? right : List.of(right)) {
-                    if (compare(l, r, cmp)) return true;
-                }
-            }
-            return false;
+    /**
+     * Keep only the first {@code limit} elements of the top-level array that match the predicate. Evaluation is
+     * sequential and stops as soon as {@code limit} elements are kept; the elements after it are not tested.
+     */
+    public void filter(Predicate<JsonNode> predicate, int limit) {
+        if (!data.isArray()) throw new IllegalArgumentException("Json node should be array");
+        if (limit < 0) throw new IllegalArgumentException("limit should not be negative");
+        ArrayNode arr = (ArrayNode) data;
+        ArrayNode filtered = arr.arrayNode();
+        for (int i = 0; i < arr.size() && filtered.size() < limit; i++) {
+            JsonNode item = arr.get(i);
+            if (predicate.test(item)) filtered.add(item);
         }
 
-        return compare(left, right, cmp);
-    }
-
-    private boolean compare(JsonNode left, JsonNode right, String cmp) {
-        if (left.isNumber() && right.isNumber()) return checkNumeric(left.doubleValue(), right.doubleValue(), cmp);
-        return checkString(left.textValue(), right.textValue(), cmp);
-    }
-
-    private boolean checkString(String l, String r, String cmp) {
-        return switch (cmp) {
-            case "=" -> l.equalsIgnoreCase(r);
-            case "==" -> Objects.equals(l, r);
-            case "!=" -> !l.equalsIgnoreCase(r);
-            case "!==" -> !Objects.equals(l, r);
-            case ">" -> l.compareTo(r) > 0;
-            case ">=" -> l.compareTo(r) >= 0;
-            case "<" -> l.compareTo(r) < 0;
-            case "<=" -> l.compareTo(r) <= 0;
-            case "~" -> l.toLowerCase().contains(r.toLowerCase());
-            case "!~" -> !l.toLowerCase().contains(r.toLowerCase());
-            default -> false;
-        };
-    }
-
-    private boolean checkNumeric(double l, double r, String cmp) {
-        return switch (cmp) {
-            case "=", "==" -> l == r;
-            case "!=", "!==" -> l != r;
-            case ">" -> l > r;
-            case ">=" -> l >= r;
-            case "<" -> l < r;
-            case "<=" -> l <= r;
-            case "~", "!~" -> throw new IllegalArgumentException("Numeric contains operators not supported");
-            default -> false;
-        };
-    }
-
-    private JsonNode readValue(FilterGrammerParser.StmtValueContext ctx, JsonNode node) {
-        if ("@".equals(ctx.getText())) return node;
-        if (ctx.NUMBER() != null) return new IntNode(Integer.parseInt(ctx.NUMBER().getText()));
-        if (ctx.STRING() != null) return new TextNode(stripQuotes(ctx.STRING().getText()));
-        if (ctx.NULL() != null) return NullNode.getInstance();
-        if (ctx.path() != null) {
-            List<JsonNode> nodes = resolvePath(ctx.path(), node);
-            if (nodes.size() == 1) return nodes.getFirst();
-            ArrayNode arr = mapper.createArrayNode();
-            nodes.forEach(arr::add);
-            return arr;
-        }
-        return NullNode.getInstance();
+        arr.removeAll();
+        arr.addAll(filtered);
     }
 
-    private List<JsonNode> resolvePath(FilterGrammerParser.PathContext ctx, JsonNode root) {
-        List<JsonNode> current = List.of(root);
-        for (var segment : ctx.pathSegment()) {
-            List<JsonNode> next = new ArrayList<>();
-            for (JsonNode node : current) applySegment(node, segment, next);
-            current = next;
-            if (current.isEmpty()) break;
+    /**
+     * Evaluates the elements in {@code [from, to)} and records the result of each one in {@code keep}. Elements are
+     * independent of each other, so ranges can be evaluated on any thread in any order.
+     */
+    private static final class EvalTask extends RecursiveAction {
+        private final Predicate<JsonNode> predicate;
+        private final ArrayNode arr;
+        private final boolean[] keep;
+        private final int from;
+        private final int to;
+        private final int chunkSize;
+
+        private EvalTask(Predicate<JsonNode> predicate, ArrayNode arr, boolean[] keep, int from, int to, int chunkSize) {
+            this.predicate = predicate;
+            this.arr = arr;
+            this.keep = keep;
+            this.from = from;
+            this.to = to;
+            this.chunkSize = chunkSize;
         }
-        return current;
-    }
 
-    private void applySegment(JsonNode node, FilterGrammerParser.PathSegmentContext segment, List<JsonNode> output) {
-        if (node.isArray()) {
-            node.forEach(n -> applySegment(n, segment, output));
-            return;
+        @Override
+        protected void compute() {
+            if (to - from <= chunkSize) {
+                for (int i = from; i < to; i++) keep[i] = predicate.test(arr.get(i));
+                return;
+            }
+            int mid = (from + to) >>> 1;
+            invokeAll(new EvalTask(predicate, arr, keep, from, mid, chunkSize),
+                    new EvalTask(predicate, arr, keep, mid, to, chunkSize));
         }
-        if (!node.isObject()) return;
-
-        String field = segment.IDENT() != null ? segment.IDENT().getText() : null;
-        if (field == null || !node.has(field)) return;
-
-        JsonNode value = node.get(field);
-        if (isArrayExpansion(segment)) {
-            value.forEach(output::add);
-        } else if (extractIndex(segment) != null) {
-            Integer idx = extractIndex(segment);
-            if (idx != null && value.isArray() && idx < value.size()) output.add(value.get(idx));
-        } else output.add(value);
-    }
-
-    private boolean isArrayExpansion(FilterGrammerParser.PathSegmentContext ctx) {
-        return ctx.getText().endsWith("[]");
-    }
-
-    private Integer extractIndex(FilterGrammerParser.PathSegmentContext ctx) {
-        return ctx.NUMBER() != null ? Integer.parseInt(ctx.NUMBER().getText()) : null;
-    }
-
-    private String stripQuotes(String s) {
-        return s.substring(1, s.length() - 1);
     }
 }
@@ -0,0 +1,34 @@
+package ir.moke.visitor;
+
+import java.util.Objects;
+import java.util.concurrent.ForkJoinPool;
+
+/**
+ * Opt-in settings for evaluating a filter on the elements of a top-level array in parallel.
+ *
+ * @param pool      pool the evaluation is split across; its parallelism bounds the number of cores used
+ * @param threshold arrays with fewer elements than this are filtered sequentially
+ */
+public record ParallelOptions(ForkJoinPool pool, int threshold) {
+    public static final int DEFAULT_THRESHOLD = 8192;
+
+    public ParallelOptions {
+        Objects.requireNonNull(pool);
+        if (threshold < 0) throw new IllegalArgumentException("threshold should not be negative");
+    }
+
+    public static ParallelOptions common() {
+        return new ParallelOptions(ForkJoinPool.commonPool(), DEFAULT_THRESHOLD);
+    }
+
+    boolean appliesTo(int size) {
+        return size >= threshold && size > 1 && pool.getParallelism() > 1;
+    }
+
+    /**
+     * Number of elements a single fork/join task evaluates sequentially.
+     */
+    int chunkSize(int size) {
+        return Math.max(256, size / (pool.getParallelism() * 4));
+    }
+}
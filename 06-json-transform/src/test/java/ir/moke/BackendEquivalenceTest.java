@@ -0,0 +1,157 @@
+package ir.moke;
+
+import com.fasterxml.jackson.databind.JsonNode;
+import ir.moke.compiler.BytecodeCompiler;
+import ir.moke.tape.JsonTape;
+import ir.moke.visitor.FilterEvalVisitor;
+import org.junit.jupiter.params.ParameterizedTest;
+import org.junit.jupiter.params.provider.Arguments;
+import org.junit.jupiter.params.provider.MethodSource;
+
+import java.util.List;
+import java.util.function.Supplier;
+import java.util.stream.Stream;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+
+/**
+ * Every backend that evaluates filters without the predicate tree must give exactly the result of the tree: the same
+ * elements in the same order, or the same exception.
+ */
+class BackendEquivalenceTest {
+
+    private static final List<String> DOCUMENTS = List.of(
+            "[]",
+            """
+                    [{"a": 1, "s": "Ali", "p": {"q": 2}}, {"a": 2.5, "s": "ALI", "p": {"q": -1}}, {"a": -3, "s": "bob"}]""",
+            // missing paths and nulls
+            """
+                    [{"a": null, "s": null}, {"b": 1}, {}, {"p": null}, {"p": {"q": null}}, {"p": 1}]""",
+            // zeros and numbers beyond long and double precision
+            """
+                    [{"a": 0}, {"a": 0.0}, {"a": -0.0}, {"a": -0}, {"a": 1e300}, {"a": 10000000000000000001}, {"a": 1.5e-320}]""",
+            // different types at the same path
+            """
+                    [{"a": "1"}, {"a": 1}, {"a": true}, {"a": [1, 2]}, {"a": {"x": 1}}, {"a": "ali"}]""",
+            // case folding beyond ASCII
+            """
+                    [{"s": "straße"}, {"s": "STRASSE"}, {"s": "İstanbul"}, {"s": "istanbul"}, {"s": "Σίσυφος"}, {"s": "ΣΊΣΥΦΟΣ"}, {"s": ""}]""",
+            // duplicate keys, the last one wins
+            """
+                    [{"a": 1, "a": 5}, {"p": {"q": 1}, "p": {"q": 7}}, {"s": "x", "s": "ali"}, {"a": 5, "a": "five"}]""",
+            // nested arrays
+            """
+                    [{"t": [{"a": 1}, {"a": 3}]}, {"t": []}, {"t": [{"a": "x"}]}, {"t": {"a": 1}}, {"t": [1, 2]}]""",
+            // elements that are not objects
+            """
+                    [1, 2.5, "a", null, true, [1], {"a": 1}]""");
+
+    private static final List<String> CLAUSES = List.of(
+            "filter -> a > 1",
+            "filter -> a >= 1",
+            "filter -> a < 0",
+            "filter -> a <= 0",
+            "filter -> a = 0",
+            "filter -> a == 0",
+            "filter -> a != 0",
+            "filter -> a !== 0",
+            "filter -> a = 1",
+            "filter -> a = 5",
+            "filter -> a > 10000000000000000000",
+            "filter -> 1 < a",
+            "filter -> a = null",
+            "filter -> a != null",
+            "filter -> a ~ \"1\"",
+            "filter -> a ~ 1",
+            "filter -> s = \"ali\"",
+            "filter -> s == \"ali\"",
+            "filter -> s != \"ALI\"",
+            "filter -> s !== \"Ali\"",
+            "filter -> \"ali\" = s",
+            "filter -> s ~ \"li\"",
+            "filter -> s !~ \"LI\"",
+            "filter -> s > \"b\"",
+            "filter -> s <= \"ALI\"",
+            "filter -> s = \"strasse\"",
+            "filter -> s = \"istanbul\"",
+            "filter -> s ~ \"σ\"",
+            "filter -> s = 1",
+            "filter -> p.q > 0",
+            "filter -> p.q = null",
+            "filter -> p.q = a",
+            "filter -> a > p.q",
+            "filter -> b = 1",
+            "filter -> x.y.z = 1",
+            "filter -> a > 1 and s = \"ali\"",
+            "filter -> a > 1 or s = \"bob\"",
+            "filter -> s = \"ali\" or a < 0",
+            "filter -> a > 0 filter -> a < 3",
+            "filter -> t.a > 1",
+            "filter -> t[a > 1]",
+            "filter -> t[0]",
+            "filter -> @ > 1",
+            "filter -> @ = \"a\"");
+
+    /* Paths the index backend indexes, every path compared with a literal above */
+    private static final List<String> INDEXED = List.of("a", "b", "s", "p.q", "x.y.z", "t.a");
+
+    enum Backend {
+        INDEX {
+            @Override
+            String filter(String document, String clause) {
+                JsonStream stream = JsonStream.of(document);
+                INDEXED.forEach(stream::index);
+                return stream.filter(clause).toString();
+            }
+        },
+        BYTECODE {
+            @Override
+            String filter(String document, String clause) {
+                JsonNode root = JsonStream.of(document).toJsonNode();
+                FilterEvalVisitor visitor = new FilterEvalVisitor(root);
+                JsonStream.compile(clause).filters().stream().map(BytecodeCompiler::compile).forEach(visitor::filter);
+                return JsonStream.of(root).toString();
+            }
+        },
+        COLUMNAR {
+            @Override
+            String filter(String document, String clause) {
+                return JsonStream.of(document).columnar().filter(clause).toString();
+            }
+        },
+        TAPE {
+            @Override
+            String filter(String document, String clause) {
+                return JsonStream.of(JsonTape.of(document)).filter(clause).toString();
+            }
+        };
+
+        abstract String filter(String document, String clause);
+    }
+
+    static Stream<Arguments> cases() {
+        return Stream.of(Backend.values()).flatMap(backend -> DOCUMENTS.stream()
+                .flatMap(document -> CLAUSES.stream().map(clause -> Arguments.of(backend, clause, document))));
+    }
+
+    @ParameterizedTest(name = "{0}: {1} over {2}")
+    @MethodSource("cases")
+    void matchesTree(Backend backend, String clause, String document) {
+        String expected = outcome(() -> JsonStream.of(document).filter(clause).toString());
+        assertEquals(expected, outcome(() -> backend.filter(document, clause)));
+    }
+
+    /**
+     * @return the json text of the result, or the type and message of the exception
+     */
+    private static String outcome(Supplier<String> evaluation) {
+        try {
+            return evaluation.get();
+        } catch (NullPointerException e) {
+            // once compiled, a hot path may throw a preallocated exception without the helpful message
+            return e.getClass().getName();
+        } catch (RuntimeException e) {
+            return e.getClass().getName() + ": " + e.getMessage();
+        }
+    }
+}
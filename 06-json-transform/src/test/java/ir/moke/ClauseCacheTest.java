@@ -0,0 +1,137 @@
+package ir.moke;
+
+import org.junit.jupiter.api.Test;
+
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.CyclicBarrier;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.Function;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNotSame;
+import static org.junit.jupiter.api.Assertions.assertSame;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+
+class ClauseCacheTest {
+    private static final String A = "filter -> a > 1";
+    private static final String B = "filter -> b > 1";
+    private static final String C = "map -> [].c = 1";
+
+    @Test
+    void leastRecentlyUsedIsEvictedAtCapacity() {
+        ClauseCache cache = new ClauseCache(2);
+        CompiledClause a = cache.get(A, CompiledClause::compile);
+        cache.get(B, CompiledClause::compile);
+        assertEquals(2, cache.size());
+        assertEquals(0, cache.evictionCount());
+
+        cache.get(C, CompiledClause::compile);
+        assertEquals(2, cache.size());
+        assertEquals(1, cache.evictionCount());
+        // a was the eldest and is compiled again
+        assertNotSame(a, cache.get(A, CompiledClause::compile));
+        assertEquals(4, cache.missCount());
+        assertEquals(0, cache.hitCount());
+        assertEquals(2, cache.evictionCount());
+    }
+
+    @Test
+    void lookupsRefreshTheAccessOrder() {
+        ClauseCache cache = new ClauseCache(2);
+        CompiledClause a = cache.get(A, CompiledClause::compile);
+        CompiledClause b = cache.get(B, CompiledClause::compile);
+        assertSame(a, cache.get(A, CompiledClause::compile));
+
+        cache.get(C, CompiledClause::compile);
+        assertSame(a, cache.get(A, CompiledClause::compile));
+        assertNotSame(b, cache.get(B, CompiledClause::compile));
+        assertEquals(2, cache.hitCount());
+        assertEquals(4, cache.missCount());
+        assertEquals(2, cache.evictionCount());
+    }
+
+    @Test
+    void countersAndClear() {
+        ClauseCache cache = new ClauseCache(ClauseCache.DEFAULT_CAPACITY);
+        AtomicInteger compiled = new AtomicInteger();
+        Function<String, CompiledClause> compiler = key -> {
+            compiled.incrementAndGet();
+            return CompiledClause.compile(key);
+        };
+        for (int i = 0; i < 3; i++) {
+            cache.get(A, compiler);
+            cache.get(B, compiler);
+        }
+        assertEquals(2, compiled.get());
+        assertEquals(2, cache.missCount());
+        assertEquals(4, cache.hitCount());
+        assertEquals(0, cache.evictionCount());
+        assertEquals("ClauseCache[size=2, capacity=256, hits=4, misses=2, evictions=0]", cache.toString());
+
+        cache.clear();
+        assertEquals(0, cache.size());
+        cache.get(A, compiler);
+        assertEquals(3, compiled.get());
+        // clearing is not an eviction, and the counters are kept
+        assertEquals(0, cache.evictionCount());
+        assertEquals(3, cache.missCount());
+    }
+
+    @Test
+    void equivalentClauseTextsShareOneEntry() {
+        ClauseCache cache = new ClauseCache(ClauseCache.DEFAULT_CAPACITY);
+        List<String> texts = List.of("filter -> a > 1", "FILTER->a > 1", "  Filter ->   a > 1  ", "filter ->\ta > 1\n");
+        CompiledClause first = cache.get(CompiledClause.normalize(texts.getFirst(), null), CompiledClause::compile);
+        for (String text : texts) {
+            assertSame(first, cache.get(CompiledClause.normalize(text, null), CompiledClause::compile));
+            assertSame(first, cache.get(CompiledClause.normalize(text, CompiledClause.Type.FILTER), CompiledClause::compile));
+        }
+        // a stage without its signature is the same clause too
+        assertSame(first, cache.get(CompiledClause.normalize("a > 1", CompiledClause.Type.FILTER), CompiledClause::compile));
+        assertEquals(1, cache.size());
+        assertEquals(1, cache.missCount());
+
+        assertSame(JsonStream.compile("filter -> a > 1"), JsonStream.compile("FILTER ->  a > 1 "));
+    }
+
+    @Test
+    void concurrentMissesOnOneClauseStoreTheFirstResult() throws Exception {
+        ClauseCache cache = new ClauseCache(ClauseCache.DEFAULT_CAPACITY);
+        int threads = 4;
+        CyclicBarrier barrier = new CyclicBarrier(threads);
+        AtomicInteger compiled = new AtomicInteger();
+        Function<String, CompiledClause> compiler = key -> {
+            compiled.incrementAndGet();
+            try {
+                // every thread has missed before any result is stored
+                barrier.await();
+            } catch (Exception e) {
+                throw new RuntimeException(e);
+            }
+            return CompiledClause.compile(key);
+        };
+
+        ExecutorService pool = Executors.newFixedThreadPool(threads);
+        try {
+            List<Future<CompiledClause>> results = pool.invokeAll(
+                    Collections.nCopies(threads, () -> cache.get(A, compiler)));
+            CompiledClause stored = cache.get(A, compiler);
+            for (Future<CompiledClause> result : results) assertSame(stored, result.get());
+        } finally {
+            pool.shutdownNow();
+        }
+        assertEquals(threads, compiled.get());
+        assertEquals(threads, cache.missCount());
+        assertEquals(1, cache.hitCount());
+        assertEquals(1, cache.size());
+    }
+
+    @Test
+    void capacityMustBePositive() {
+        assertThrows(IllegalArgumentException.class, () -> new ClauseCache(0));
+    }
+}
@@ -0,0 +1,170 @@
+package ir.moke;
+
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.node.ArrayNode;
+import com.fasterxml.jackson.databind.node.ObjectNode;
+import org.junit.jupiter.api.Test;
+
+import java.util.List;
+import java.util.Random;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+
+/**
+ * After every change the view must be what the pipeline gives over a copy of the source from scratch.
+ */
+class FilterViewTest {
+    private static final List<String> CLAUSES = List.of(
+            "filter -> a > 1",
+            "map -> [].b = a * 2",
+            "filter -> s != \"y\" or t[0] = 4",
+            "map -> [].t[].c = \"seen\"");
+
+    @Test
+    void randomChangesKeepTheViewCurrent() {
+        for (long seed = 0; seed < 20; seed++) {
+            Random random = new Random(seed);
+            FilterView view = FilterView.of(array(random, random.nextInt(6)), ClausePipeline.of(CLAUSES));
+            assertCurrent(view);
+            for (int step = 0; step < 300; step++) {
+                change(view, random);
+                assertCurrent(view);
+            }
+        }
+    }
+
+    @Test
+    void appendingThroughThePatchEnd() {
+        FilterView view = view("[{\"a\": 2, \"t\": []}]");
+        view.patch(tree("""
+                [{"op": "add", "path": "/-", "value": {"a": 3}},
+                 {"op": "add", "path": "/0/t/-", "value": 5},
+                 {"op": "add", "path": "/-", "value": {"a": 0}}]"""));
+        assertEquals(tree("[{\"a\": 2, \"t\": [5]}, {\"a\": 3}, {\"a\": 0}]"), view.source());
+        assertCurrent(view);
+
+        for (String op : List.of("remove", "replace", "test")) {
+            assertRejected(view, "{\"op\": \"" + op + "\", \"path\": \"/-\", \"value\": 1}");
+        }
+        assertRejected(view, "{\"op\": \"replace\", \"path\": \"/0/t/-\", \"value\": 1}");
+    }
+
+    @Test
+    void indexesWithLeadingZerosAreRejected() {
+        FilterView view = view("[{\"a\": 2, \"t\": [1, 2]}, {\"a\": 3, \"t\": []}]");
+        for (String path : List.of("/01", "/00", "/0/t/01", "/+1", "/-1", "/1.0", "/", "/99999999999")) {
+            assertRejected(view, "{\"op\": \"replace\", \"path\": \"" + path + "\", \"value\": {\"a\": 5}}");
+            assertRejected(view, "{\"op\": \"remove\", \"path\": \"" + path + "\"}");
+        }
+        view.patch(tree("[{\"op\": \"replace\", \"path\": \"/0/t/0\", \"value\": 4}]"));
+        assertEquals(tree("[4, 2]"), view.source().get(0).get("t"));
+        assertCurrent(view);
+    }
+
+    @Test
+    void movingIntoItselfIsRejected() {
+        FilterView view = view("[{\"a\": 2, \"t\": [1, {\"x\": 1}]}, {\"a\": 3}]");
+        assertRejected(view, "{\"op\": \"move\", \"from\": \"/0\", \"path\": \"/0/t/-\"}");
+        assertRejected(view, "{\"op\": \"move\", \"from\": \"/0/t\", \"path\": \"/0/t/1/t\"}");
+
+        view.patch(tree("""
+                [{"op": "move", "from": "/0/t", "path": "/0/t"},
+                 {"op": "move", "from": "/1", "path": "/0"},
+                 {"op": "move", "from": "/1/t/1", "path": "/0/moved"}]"""));
+        assertEquals(tree("[{\"a\": 3, \"moved\": {\"x\": 1}}, {\"a\": 2, \"t\": [1]}]"), view.source());
+        assertCurrent(view);
+    }
+
+    @Test
+    void failedTestStopsThePatchAfterTheOperationsBeforeIt() {
+        FilterView view = view("[{\"a\": 2}, {\"a\": 3}]");
+        IllegalArgumentException failure = assertThrows(IllegalArgumentException.class, () -> view.patch(tree("""
+                [{"op": "replace", "path": "/0/a", "value": 0},
+                 {"op": "test", "path": "/1/a", "value": 4},
+                 {"op": "remove", "path": "/1"}]""")));
+        assertEquals("Test failed at /1/a", failure.getMessage());
+        assertEquals(tree("[{\"a\": 0}, {\"a\": 3}]"), view.source());
+        assertCurrent(view);
+
+        // numbers compare by type, like JsonNode.equals
+        assertRejected(view, "{\"op\": \"test\", \"path\": \"/1/a\", \"value\": 3.0}");
+        assertRejected(view, "{\"op\": \"test\", \"path\": \"/1/missing\", \"value\": null}");
+        view.patch(tree("[{\"op\": \"test\", \"path\": \"/1\", \"value\": {\"a\": 3}}]"));
+    }
+
+    @Test
+    void clausesDependingOnOtherElementsAreRejected() {
+        ArrayNode source = (ArrayNode) tree("[{\"a\": 2}]");
+        for (String clause : List.of("map -> [0].b = 1", "filter -> a > 1 limit 2", "filter -> first")) {
+            assertThrows(IllegalArgumentException.class, () -> FilterView.of(source, JsonStream.compile(clause)));
+        }
+    }
+
+    private static void change(FilterView view, Random random) {
+        int size = view.size();
+        switch (random.nextInt(size == 0 ? 2 : 9)) {
+            case 0 -> view.add(element(random));
+            case 1 -> view.insert(random.nextInt(size + 1), element(random));
+            case 2 -> view.delete(random.nextInt(size));
+            case 3 -> view.update(random.nextInt(size), element(random));
+            case 4 -> patch(view, "{\"op\": \"replace\", \"path\": \"/" + random.nextInt(size) + "/a\", \"value\": "
+                    + random.nextInt(5) + "}");
+            case 5 -> patch(view, "{\"op\": \"add\", \"path\": \"/" + random.nextInt(size) + "/t/-\", \"value\": "
+                    + random.nextInt(5) + "}");
+            case 6 -> patch(view, "{\"op\": \"move\", \"from\": \"/" + random.nextInt(size) + "\", \"path\": \"/"
+                    + (random.nextBoolean() ? "-" : random.nextInt(size)) + "\"}");
+            case 7 -> patch(view, "{\"op\": \"copy\", \"from\": \"/" + random.nextInt(size) + "\", \"path\": \"/"
+                    + random.nextInt(size + 1) + "\"}");
+            default -> patch(view, "{\"op\": \"remove\", \"path\": \"/" + random.nextInt(size) + "/s\"}");
+        }
+    }
+
+    /**
+     * Apply a patch of one operation, or check that a failing one changed nothing.
+     */
+    private static void patch(FilterView view, String operation) {
+        JsonNode before = view.source().deepCopy();
+        try {
+            view.patch(tree("[" + operation + "]"));
+        } catch (IllegalArgumentException e) {
+            assertEquals(before, view.source(), operation);
+        }
+    }
+
+    private static void assertRejected(FilterView view, String operation) {
+        JsonNode before = view.source().deepCopy();
+        assertThrows(IllegalArgumentException.class, () -> view.patch(tree("[" + operation + "]")), operation);
+        assertEquals(before, view.source(), operation);
+        assertCurrent(view);
+    }
+
+    private static void assertCurrent(FilterView view) {
+        JsonNode expected = view.source().deepCopy();
+        view.pipeline().applyTo(expected, null);
+        assertEquals(expected, view.view());
+    }
+
+    private static FilterView view(String source) {
+        return FilterView.of((ArrayNode) tree(source), ClausePipeline.of(CLAUSES));
+    }
+
+    private static ArrayNode array(Random random, int size) {
+        ArrayNode array = JsonStream.mapper.createArrayNode();
+        for (int i = 0; i < size; i++) array.add(element(random));
+        return array;
+    }
+
+    private static JsonNode element(Random random) {
+        ObjectNode element = JsonStream.mapper.createObjectNode();
+        if (random.nextInt(8) != 0) element.put("a", random.nextInt(5));
+        if (random.nextBoolean()) element.put("s", random.nextBoolean() ? "x" : "y");
+        ArrayNode t = element.putArray("t");
+        for (int n = random.nextInt(3); n > 0; n--) t.add(random.nextInt(5));
+        return element;
+    }
+
+    private static JsonNode tree(String json) {
+        return JsonStream.of(json).toJsonNode();
+    }
+}
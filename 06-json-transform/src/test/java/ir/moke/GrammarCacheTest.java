@@ -0,0 +1,150 @@
+package ir.moke;
+
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class GrammarCacheTest {
+    private static final String DOCUMENT = """
+            [{"a": 1, "s": "ali", "t": [{"x": 2}]}, {"a": 7, "s": "bob", "t": []}, {"a": 4, "s": "ALI", "p": {"q": 3}}]""";
+    private static final List<String> CLAUSES = List.of(
+            "filter -> a > 2",
+            "filter -> s = \"ali\" or (a >= 4 and p.q != null)",
+            "filter -> t[x > 1]",
+            "filter -> s ~ \"l\" and a < 5 limit 1",
+            "map -> [].b = a * 2 + \"-\" + s",
+            "map -> [].t[x == 2].y = \"two\"",
+            "map -> [1].p.q = (a - 1) / 2");
+
+    @AfterEach
+    void unbound() {
+        GrammarCache.maxDfaStates(0);
+    }
+
+    @Test
+    void clausesCompileCorrectlyWhileTheDfasAreCleared() throws Exception {
+        List<String> expected = CLAUSES.stream().map(GrammarCacheTest::evaluate).toList();
+        long clearsBefore = GrammarCache.clearCount();
+
+        AtomicBoolean done = new AtomicBoolean();
+        Thread clearing = new Thread(() -> {
+            while (!done.get()) GrammarCache.clear();
+        });
+        ExecutorService pool = Executors.newFixedThreadPool(4);
+        try {
+            clearing.start();
+            List<Future<?>> compilers = new ArrayList<>();
+            for (int t = 0; t < 4; t++) {
+                compilers.add(pool.submit(() -> {
+                    for (int round = 0; round < 200; round++) {
+                        for (int i = 0; i < CLAUSES.size(); i++) assertEquals(expected.get(i), evaluate(CLAUSES.get(i)));
+                    }
+                    return null;
+                }));
+            }
+            for (Future<?> compiler : compilers) compiler.get();
+        } finally {
+            done.set(true);
+            clearing.join();
+            pool.shutdownNow();
+        }
+        assertTrue(GrammarCache.clearCount() > clearsBefore);
+    }
+
+    @Test
+    void clearWaitsForParsesInProgress() throws Exception {
+        CountDownLatch parsing = new CountDownLatch(1);
+        CountDownLatch release = new CountDownLatch(1);
+        ExecutorService pool = Executors.newFixedThreadPool(2);
+        try {
+            Future<CompiledClause> parse = pool.submit(() -> GrammarCache.parse(() -> {
+                parsing.countDown();
+                await(release);
+                return compile(CLAUSES.getFirst());
+            }));
+            parsing.await();
+            long clears = GrammarCache.clearCount();
+            Future<?> clear = pool.submit(GrammarCache::clear);
+            assertThrows(TimeoutException.class, () -> clear.get(200, TimeUnit.MILLISECONDS));
+            assertEquals(clears, GrammarCache.clearCount());
+
+            release.countDown();
+            clear.get(10, TimeUnit.SECONDS);
+            assertEquals(clears + 1, GrammarCache.clearCount());
+            assertEquals(evaluate(CLAUSES.getFirst()), JsonStream.of(DOCUMENT).apply(parse.get()).toString());
+        } finally {
+            release.countDown();
+            pool.shutdownNow();
+        }
+    }
+
+    @Test
+    void dfasAreClearedOnceTheBoundIsExceeded() {
+        GrammarCache.clear();
+        long clears = GrammarCache.clearCount();
+        compileAll();
+        int states = GrammarCache.dfaStates().total();
+        assertTrue(states > 0);
+        assertEquals(clears, GrammarCache.clearCount());
+
+        // a bound the clauses stay under changes nothing
+        GrammarCache.maxDfaStates(states * 10);
+        compileAll();
+        assertEquals(clears, GrammarCache.clearCount());
+
+        GrammarCache.maxDfaStates(1);
+        for (String clause : CLAUSES) {
+            long before = GrammarCache.clearCount();
+            compile(clause);
+            assertEquals(before + 1, GrammarCache.clearCount(), clause);
+            assertEquals(0, GrammarCache.dfaStates().total());
+        }
+
+        GrammarCache.maxDfaStates(0);
+        long unbounded = GrammarCache.clearCount();
+        compileAll();
+        assertEquals(unbounded, GrammarCache.clearCount());
+        assertEquals(states, GrammarCache.dfaStates().total());
+    }
+
+    @Test
+    void boundMustNotBeNegative() {
+        assertThrows(IllegalArgumentException.class, () -> GrammarCache.maxDfaStates(-1));
+    }
+
+    private static void await(CountDownLatch latch) {
+        try {
+            latch.await();
+        } catch (InterruptedException e) {
+            throw new RuntimeException(e);
+        }
+    }
+
+    private static void compileAll() {
+        CLAUSES.forEach(GrammarCacheTest::compile);
+    }
+
+    /**
+     * Compile past the clause cache, so every call lexes and parses.
+     */
+    private static CompiledClause compile(String clause) {
+        return CompiledClause.compile(CompiledClause.normalize(clause, null));
+    }
+
+    private static String evaluate(String clause) {
+        return JsonStream.of(DOCUMENT).apply(compile(clause)).toString();
+    }
+}
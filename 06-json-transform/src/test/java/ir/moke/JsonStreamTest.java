@@ -0,0 +1,287 @@
+package ir.moke;
+
+import com.fasterxml.jackson.databind.JsonNode;
+import ir.moke.tape.JsonTape;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.StringWriter;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertSame;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class JsonStreamTest {
+    private static final String USERS = """
+            [{"name": "ali", "age": 30}, {"name": "sara", "age": 20}, {"name": "reza", "age": 40}]""";
+    private static final List<String> CLAUSES = List.of("filter -> age > 25", "map -> [].adult = 1");
+    private static final List<String> DOCUMENTS = List.of(
+            USERS,
+            "[]",
+            "{\"name\": \"straße\", \"city\": \"تهران\", \"emoji\": \"😀\", \"n\": 10000000000000000001}",
+            "[1, 2.5, \"x\", null, true, [\"nested\"]]",
+            "\"text\"",
+            "  42  ");
+
+    @Test
+    void ofTreeLeavesTheCallersTreeUntouched() {
+        JsonNode users = tree(USERS);
+        JsonStream stream = JsonStream.of(users).apply(CLAUSES);
+        assertEquals(tree(USERS), users);
+        assertEquals(JsonStream.of(USERS).apply(CLAUSES).toString(), stream.toString());
+    }
+
+    @Test
+    void ofOwnedTreeIsChangedInPlace() {
+        JsonNode users = tree(USERS);
+        JsonStream stream = JsonStream.ofOwned(users).apply(CLAUSES);
+        assertSame(users, stream.toJsonNode());
+        assertEquals(tree("[{\"name\": \"ali\", \"age\": 30, \"adult\": 1}, {\"name\": \"reza\", \"age\": 40, \"adult\": 1}]"),
+                users);
+    }
+
+    @Test
+    void bytesReadLikeText() {
+        for (String document : DOCUMENTS) {
+            assertSameStream(document, JsonStream.of(document.getBytes(StandardCharsets.UTF_8)));
+            // encodings other than UTF-8 are detected from the first bytes
+            assertSameStream(document, JsonStream.of(document.getBytes(StandardCharsets.UTF_16BE)));
+            assertSameStream(document, JsonStream.of(document.getBytes(StandardCharsets.UTF_16LE)));
+        }
+    }
+
+    @Test
+    void buffersReadTheirRemainingBytes() {
+        for (String document : DOCUMENTS) {
+            byte[] bytes = document.getBytes(StandardCharsets.UTF_8);
+            byte[] padded = new byte[bytes.length + 7];
+            Arrays.fill(padded, (byte) '#');
+            System.arraycopy(bytes, 0, padded, 3, bytes.length);
+
+            ByteBuffer positioned = ByteBuffer.wrap(padded, 3, bytes.length);
+            assertSameStream(document, JsonStream.of(positioned));
+            assertEquals(3, positioned.position());
+            assertEquals(3 + bytes.length, positioned.limit());
+
+            // a slice has an array offset and a position of its own
+            ByteBuffer slice = ByteBuffer.wrap(padded).position(1).slice().position(2).limit(2 + bytes.length);
+            assertEquals(1, slice.arrayOffset());
+            assertSameStream(document, JsonStream.of(slice));
+            assertEquals(2, slice.position());
+
+            // no accessible array: read-only and direct buffers go through a stream
+            ByteBuffer readOnly = ByteBuffer.wrap(padded, 3, bytes.length).asReadOnlyBuffer();
+            assertSameStream(document, JsonStream.of(readOnly));
+            assertEquals(3, readOnly.position());
+
+            ByteBuffer direct = ByteBuffer.allocateDirect(padded.length).put(padded).position(3).limit(3 + bytes.length);
+            assertSameStream(document, JsonStream.of(direct));
+            assertEquals(3, direct.position());
+            assertEquals(3 + bytes.length, direct.limit());
+        }
+    }
+
+    @Test
+    void filesReadLikeText(@TempDir Path directory) throws IOException {
+        for (String document : DOCUMENTS) {
+            Path file = Files.writeString(directory.resolve("document.json"), document);
+            assertSameStream(document, JsonStream.of(file));
+        }
+
+        StringBuilder large = new StringBuilder("[");
+        for (int i = 0; i < 100_000; i++) {
+            large.append(i == 0 ? "" : ",").append("{\"name\": \"user ").append(i).append(" ü\", \"age\": ").append(i % 90).append('}');
+        }
+        String document = large.append(']').toString();
+        Path file = Files.writeString(directory.resolve("large.json"), document);
+        // many times the parser buffer, read through the mapping
+        assertTrue(Files.size(file) > 1 << 20);
+        assertSameStream(document, JsonStream.of(file));
+
+        assertThrows(RuntimeException.class, () -> JsonStream.of(directory.resolve("missing.json")));
+    }
+
+    @Test
+    void inputStreamsAreReadAndLeftOpen() {
+        for (String document : DOCUMENTS) {
+            AtomicBoolean closed = new AtomicBoolean();
+            InputStream in = new ByteArrayInputStream(document.getBytes(StandardCharsets.UTF_8)) {
+                @Override
+                public void close() {
+                    closed.set(true);
+                }
+            };
+            assertSameStream(document, JsonStream.of(in));
+            assertFalse(closed.get());
+        }
+    }
+
+    @Test
+    void writtenOutputIsTheTextOfTheStream(@TempDir Path directory) throws IOException {
+        List<String> documents = new ArrayList<>(DOCUMENTS);
+        documents.add("{\"d\": 1.0E-7, \"big\": 1.5e300, \"neg\": -0.0, \"esc\": \"a\\\"b\\\\c\\n\\u0001\", \"empty\": {}, \"list\": []}");
+        for (String document : documents) {
+            for (boolean pretty : List.of(false, true)) {
+                String expected = pretty ? JsonStream.of(document).prettyString() : JsonStream.of(document).toString();
+                assertWritten(expected, JsonStream.of(document), pretty, directory);
+                if (document.startsWith("[")) assertWritten(expected, JsonStream.of(JsonTape.of(document)), pretty, directory);
+            }
+        }
+    }
+
+    @Test
+    void tapeStreamsWriteTheBytesOfTreeStreams(@TempDir Path directory) throws IOException {
+        for (String document : List.of(USERS, "[]", "[1, 2.5, \"x\", null, true, [\"nested\"], {\"a\": {\"b\": [1e3, \"ü\"]}}]")) {
+            for (boolean pretty : List.of(false, true)) {
+                JsonStream tree = JsonStream.of(document);
+                JsonStream tape = JsonStream.of(JsonTape.of(document));
+                if (document.equals(USERS)) {
+                    // the tape one written from the elements it selected, without a tree
+                    tree.filter("filter -> age > 25");
+                    tape.filter("filter -> age > 25");
+                }
+                String expected = pretty ? tree.prettyString() : tree.toString();
+                assertEquals(expected, pretty ? tape.prettyString() : tape.toString());
+                assertWritten(expected, tape, pretty, directory);
+                assertWritten(expected, tree, pretty, directory);
+            }
+        }
+    }
+
+    @Test
+    void bytesEscapeCharactersOutsideTheBasicMultilingualPlane() {
+        JsonStream stream = JsonStream.of("[\"😀\"]");
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        stream.writeTo(out);
+        assertEquals("[\"\\uD83D\\uDE00\"]", out.toString(StandardCharsets.UTF_8));
+        assertEquals(stream.toJsonNode(), JsonStream.of(out.toByteArray()).toJsonNode());
+        StringWriter writer = new StringWriter();
+        stream.writeTo(writer);
+        assertEquals("[\"😀\"]", writer.toString());
+    }
+
+    /**
+     * The output written to a writer, a byte stream and a file is {@code expected}, and targets are flushed, not closed.
+     */
+    private static void assertWritten(String expected, JsonStream stream, boolean pretty, Path directory) throws IOException {
+        TrackedWriter writer = new TrackedWriter();
+        assertSame(stream, stream.writeTo(writer, pretty));
+        assertEquals(expected, writer.toString());
+        assertTrue(writer.flushed);
+        assertFalse(writer.closed);
+
+        if (expected.codePoints().allMatch(Character::isBmpCodePoint)) {
+            TrackedOutputStream out = new TrackedOutputStream();
+            assertSame(stream, stream.writeTo(out, pretty));
+            assertArrayEquals(expected.getBytes(StandardCharsets.UTF_8), out.toByteArray());
+            assertTrue(out.flushed);
+            assertFalse(out.closed);
+
+            Path file = directory.resolve("written.json");
+            stream.writeTo(file, pretty);
+            assertArrayEquals(expected.getBytes(StandardCharsets.UTF_8), Files.readAllBytes(file));
+        }
+        if (!pretty) {
+            TrackedOutputStream out = new TrackedOutputStream();
+            stream.writeTo(out);
+            assertEquals(stream.toJsonNode(), JsonStream.of(out.toByteArray()).toJsonNode());
+            TrackedWriter compact = new TrackedWriter();
+            stream.writeTo(compact);
+            assertEquals(expected, compact.toString());
+        }
+    }
+
+    /**
+     * Records whether the output was flushed after the last write, and whether it was closed.
+     */
+    private static final class TrackedOutputStream extends ByteArrayOutputStream {
+        boolean flushed;
+        boolean closed;
+
+        @Override
+        public synchronized void write(int b) {
+            flushed = false;
+            super.write(b);
+        }
+
+        @Override
+        public synchronized void write(byte[] b, int off, int len) {
+            flushed = false;
+            super.write(b, off, len);
+        }
+
+        @Override
+        public void flush() {
+            flushed = true;
+        }
+
+        @Override
+        public void close() {
+            closed = true;
+        }
+    }
+
+    private static final class TrackedWriter extends StringWriter {
+        boolean flushed;
+        boolean closed;
+
+        @Override
+        public void write(int c) {
+            flushed = false;
+            super.write(c);
+        }
+
+        @Override
+        public void write(char[] cbuf, int off, int len) {
+            flushed = false;
+            super.write(cbuf, off, len);
+        }
+
+        @Override
+        public void write(String str, int off, int len) {
+            flushed = false;
+            super.write(str, off, len);
+        }
+
+        @Override
+        public void flush() {
+            flushed = true;
+        }
+
+        @Override
+        public void close() {
+            closed = true;
+        }
+    }
+
+    /**
+     * Same tree, text and clause results as the stream read from the text.
+     */
+    private static void assertSameStream(String document, JsonStream stream) {
+        JsonStream expected = JsonStream.of(document);
+        assertEquals(expected.toJsonNode(), stream.toJsonNode());
+        assertEquals(expected.toString(), stream.toString());
+        if (stream.toJsonNode().isArray()) {
+            assertEquals(expected.apply(CLAUSES).toString(), stream.apply(CLAUSES).toString());
+        }
+    }
+
+    private static JsonNode tree(String json) {
+        return JsonStream.of(json).toJsonNode();
+    }
+}
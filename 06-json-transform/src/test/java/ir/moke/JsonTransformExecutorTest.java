@@ -0,0 +1,294 @@
+package ir.moke;
+
+import com.fasterxml.jackson.databind.JsonNode;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.Test;
+
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Executor;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.locks.LockSupport;
+import java.util.stream.IntStream;
+import java.util.stream.Stream;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertInstanceOf;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertSame;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTimeoutPreemptively;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class JsonTransformExecutorTest {
+    private static final ClausePipeline PIPELINE = ClausePipeline.of(List.of("filter -> a > 1", "map -> [].b = a * 2"));
+    private static final Duration TIMEOUT = Duration.ofSeconds(30);
+
+    private final ExecutorService threads = Executors.newVirtualThreadPerTaskExecutor();
+
+    @AfterEach
+    void shutdown() {
+        threads.shutdownNow();
+    }
+
+    @Test
+    void orderedDeliversInInputOrder() {
+        assertEquals(IntStream.range(0, 8).boxed().toList(), deliveredWhenCompletingInReverse(JsonTransformExecutor.Order.ORDERED));
+    }
+
+    @Test
+    void completionDeliversAsTasksComplete() {
+        assertEquals(IntStream.range(0, 8).map(i -> 7 - i).boxed().toList(),
+                deliveredWhenCompletingInReverse(JsonTransformExecutor.Order.COMPLETION));
+    }
+
+    @Test
+    void resultsAreTheTransformedDocuments() {
+        for (JsonTransformExecutor.Order order : JsonTransformExecutor.Order.values()) {
+            List<String> documents = IntStream.range(0, 200).mapToObj(JsonTransformExecutorTest::document).toList();
+            String[] results = new String[documents.size()];
+            try (JsonTransformExecutor executor = JsonTransformExecutor.of(PIPELINE, 5)) {
+                executor.transformText(documents.stream(), order, result -> {
+                    assertFalse(result.failed());
+                    results[(int) result.index()] = result.document().toString();
+                });
+            }
+            for (int i = 0; i < documents.size(); i++) assertEquals(PIPELINE.apply(documents.get(i)), results[i]);
+        }
+    }
+
+    @Test
+    void noMoreThanMaxInFlightDocumentsAreOutstanding() {
+        for (JsonTransformExecutor.Order order : JsonTransformExecutor.Order.values()) {
+            AtomicInteger outstanding = new AtomicInteger();
+            AtomicInteger highest = new AtomicInteger();
+            Executor counting = task -> {
+                highest.accumulateAndGet(outstanding.incrementAndGet(), Math::max);
+                threads.execute(() -> {
+                    sleep(ThreadLocalRandom.current().nextInt(3));
+                    task.run();
+                });
+            };
+            JsonTransformExecutor executor = JsonTransformExecutor.of(PIPELINE, counting, 4);
+            AtomicInteger delivered = new AtomicInteger();
+            assertTimeoutPreemptively(TIMEOUT, () -> executor.transformText(
+                    IntStream.range(0, 300).mapToObj(JsonTransformExecutorTest::document), order, result -> {
+                        outstanding.decrementAndGet();
+                        delivered.incrementAndGet();
+                    }));
+            assertEquals(300, delivered.get());
+            assertEquals(4, highest.get(), order.name());
+        }
+    }
+
+    @Test
+    void submitBlocksWhileMaxInFlightDocumentsAreOutstanding() throws Exception {
+        ControlledExecutor held = new ControlledExecutor(threads).hold();
+        JsonTransformExecutor executor = JsonTransformExecutor.of(PIPELINE, held, 2);
+        List<CompletableFuture<JsonNode>> futures = new ArrayList<>();
+        futures.add(executor.submit(tree(document(3))));
+        futures.add(executor.submit(tree(document(4))));
+
+        CompletableFuture<CompletableFuture<JsonNode>> third = CompletableFuture.supplyAsync(
+                () -> executor.submit(tree(document(5))), threads);
+        assertThrows(TimeoutException.class, () -> third.get(200, TimeUnit.MILLISECONDS));
+
+        held.runHeld(1, false);
+        futures.add(third.get(10, TimeUnit.SECONDS));
+        held.runHeld(2, false);
+        for (int i = 0; i < futures.size(); i++) {
+            assertEquals(PIPELINE.apply(document(i + 3)), futures.get(i).get().toString());
+        }
+    }
+
+    @Test
+    void failuresAreDeliveredPerDocument() {
+        List<String> documents = List.of(document(2), "{\"a\": ", document(3), "{\"a\": 5}", "not json", document(4));
+        for (JsonTransformExecutor.Order order : JsonTransformExecutor.Order.values()) {
+            JsonTransformExecutor.Result[] results = new JsonTransformExecutor.Result[documents.size()];
+            try (JsonTransformExecutor executor = JsonTransformExecutor.of(PIPELINE, 3)) {
+                executor.transformText(documents.stream(), order, result -> results[(int) result.index()] = result);
+            }
+            for (int i : List.of(0, 2, 5)) {
+                assertFalse(results[i].failed());
+                assertEquals(PIPELINE.apply(documents.get(i)), results[i].document().toString());
+            }
+            // parse errors: no document
+            for (int i : List.of(1, 4)) {
+                assertTrue(results[i].failed());
+                assertNull(results[i].document());
+            }
+            // clause error: the document as far as it got, a filter needs an array
+            assertInstanceOf(IllegalArgumentException.class, results[3].error());
+            assertEquals(tree("{\"a\": 5}"), results[3].document());
+        }
+    }
+
+    @Test
+    void submitCompletesExceptionallyWhenTheClausesFail() {
+        try (JsonTransformExecutor executor = JsonTransformExecutor.of(PIPELINE, 2)) {
+            ExecutionException failure = assertThrows(ExecutionException.class,
+                    () -> executor.submit(tree("{\"a\": 5}")).get());
+            assertInstanceOf(IllegalArgumentException.class, failure.getCause());
+        }
+    }
+
+    @Test
+    void permitsComeBackAfterTheSinkThrows() {
+        for (JsonTransformExecutor.Order order : JsonTransformExecutor.Order.values()) {
+            ControlledExecutor controlled = new ControlledExecutor(threads);
+            JsonTransformExecutor executor = JsonTransformExecutor.of(PIPELINE, controlled, 4);
+            IllegalStateException sinkFailure = new IllegalStateException("sink");
+            AtomicInteger delivered = new AtomicInteger();
+            IllegalStateException thrown = assertThrows(IllegalStateException.class, () -> executor.transformText(
+                    IntStream.range(0, 20).mapToObj(JsonTransformExecutorTest::document), order, result -> {
+                        if (delivered.incrementAndGet() == 2) throw sinkFailure;
+                    }));
+            assertSame(sinkFailure, thrown);
+            assertEquals(2, delivered.get());
+
+            assertAllPermitsAvailable(executor, controlled, order);
+        }
+    }
+
+    @Test
+    void rejectedTasksGiveTheirPermitBack() {
+        ControlledExecutor controlled = new ControlledExecutor(threads);
+        JsonTransformExecutor executor = JsonTransformExecutor.of(PIPELINE, controlled, 3);
+
+        controlled.acceptNext(2);
+        AtomicInteger delivered = new AtomicInteger();
+        RejectedExecutionException rejected = assertThrows(RejectedExecutionException.class, () -> executor.transformText(
+                IntStream.range(0, 10).mapToObj(JsonTransformExecutorTest::document), JsonTransformExecutor.Order.ORDERED,
+                result -> delivered.incrementAndGet()));
+        assertEquals("rejected", rejected.getMessage());
+        assertTrue(delivered.get() <= 2);
+
+        controlled.acceptNext(0);
+        assertTimeoutPreemptively(TIMEOUT, () -> {
+            for (int i = 0; i < 5; i++) {
+                assertThrows(RejectedExecutionException.class, () -> executor.submit(tree(document(2))));
+            }
+        });
+
+        controlled.acceptNext(Integer.MAX_VALUE);
+        assertAllPermitsAvailable(executor, controlled, JsonTransformExecutor.Order.COMPLETION);
+    }
+
+    /**
+     * Transform maxInFlight documents with their tasks held until all of them were submitted, which blocks for good
+     * when a permit was lost.
+     */
+    private static void assertAllPermitsAvailable(JsonTransformExecutor executor, ControlledExecutor controlled,
+                                                  JsonTransformExecutor.Order order) {
+        int count = executor.maxInFlight();
+        controlled.hold();
+        Thread releaser = Thread.ofPlatform().daemon().start(() -> controlled.runHeld(count, false));
+        AtomicInteger delivered = new AtomicInteger();
+        assertTimeoutPreemptively(TIMEOUT, () -> {
+            executor.transformText(IntStream.range(0, count).mapToObj(JsonTransformExecutorTest::document), order,
+                    result -> delivered.incrementAndGet());
+            releaser.join();
+        });
+        assertEquals(count, delivered.get());
+    }
+
+    /**
+     * Documents 0 to 7 with every task held until all were submitted and the caller waits for results, then run from
+     * last to first.
+     *
+     * @return indexes in delivery order
+     */
+    private List<Integer> deliveredWhenCompletingInReverse(JsonTransformExecutor.Order order) {
+        ControlledExecutor held = new ControlledExecutor(threads).hold();
+        List<Integer> delivered = Collections.synchronizedList(new ArrayList<>());
+        JsonTransformExecutor executor = JsonTransformExecutor.of(PIPELINE, held, 8);
+        assertTimeoutPreemptively(TIMEOUT, () -> {
+            Thread caller = Thread.currentThread();
+            Thread releaser = Thread.ofPlatform().daemon().start(() -> {
+                while (held.held.size() < 8 || caller.getState() != Thread.State.WAITING) {
+                    LockSupport.parkNanos(100_000);
+                }
+                held.runHeld(8, true);
+            });
+            executor.transformText(IntStream.range(0, 8).mapToObj(JsonTransformExecutorTest::document), order,
+                    result -> delivered.add((int) result.index()));
+            releaser.join();
+        });
+        return delivered;
+    }
+
+    private static String document(int n) {
+        return Stream.of(0, 1, 2, 3).map(i -> "{\"a\": " + ((n + i) % 4) + "}").toList().toString();
+    }
+
+    private static JsonNode tree(String json) {
+        return JsonStream.of(json).toJsonNode();
+    }
+
+    private static void sleep(long millis) {
+        try {
+            Thread.sleep(millis);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    /**
+     * Runs tasks on a delegate, or holds them until the test runs them, and rejects them once a given number was
+     * accepted.
+     */
+    private static final class ControlledExecutor implements Executor {
+        private final Executor delegate;
+        private final AtomicInteger accepted = new AtomicInteger(Integer.MAX_VALUE);
+        private final BlockingQueue<Runnable> held = new LinkedBlockingQueue<>();
+        private volatile boolean holding;
+
+        ControlledExecutor(Executor delegate) {
+            this.delegate = delegate;
+        }
+
+        ControlledExecutor hold() {
+            holding = true;
+            return this;
+        }
+
+        void acceptNext(int count) {
+            accepted.set(count);
+        }
+
+        @Override
+        public void execute(Runnable task) {
+            if (accepted.getAndDecrement() <= 0) throw new RejectedExecutionException("rejected");
+            if (holding) held.add(task);
+            else delegate.execute(task);
+        }
+
+        /**
+         * Wait for {@code count} held tasks, then run them one after the other.
+         */
+        void runHeld(int count, boolean reversed) {
+            List<Runnable> taken = new ArrayList<>();
+            try {
+                while (taken.size() < count) taken.add(held.take());
+            } catch (InterruptedException e) {
+                return;
+            }
+            if (reversed) Collections.reverse(taken);
+            taken.forEach(Runnable::run);
+        }
+    }
+}
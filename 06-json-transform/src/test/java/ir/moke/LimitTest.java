@@ -0,0 +1,138 @@
+package ir.moke;
+
+import ir.moke.tape.JsonTape;
+import org.junit.jupiter.api.Test;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.InputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+
+/**
+ * {@code limit N} and {@code first} keep the first matching elements, the same way on every path through a stream.
+ */
+class LimitTest {
+    private static final String NUMBERS = """
+            [{"a": 1}, {"a": 2}, {"a": 3}, {"a": 4}, {"a": 5}, {"a": 6}]""";
+
+    @Test
+    void limitKeepsTheFirstMatches() {
+        assertResult("[{\"a\":3},{\"a\":4}]", NUMBERS, "filter -> a > 2 limit 2");
+        assertResult("[{\"a\":1},{\"a\":2}]", NUMBERS, "filter -> limit 2");
+        assertResult(NUMBERS.replace(" ", ""), NUMBERS, "filter -> limit 10");
+        assertResult("[]", NUMBERS, "filter -> limit 0");
+        assertResult("[]", NUMBERS, "filter -> a > 9 limit 2");
+    }
+
+    @Test
+    void firstKeepsTheFirstMatch() {
+        assertResult("[{\"a\":1}]", NUMBERS, "filter -> first");
+        assertResult("[{\"a\":5}]", NUMBERS, "filter -> a >= 5 first");
+        assertResult("[]", "[]", "filter -> first");
+    }
+
+    @Test
+    void limitAndFirstAreFieldNamesInComparisons() {
+        String document = """
+                [{"limit": 1, "first": "x"}, {"limit": 4, "first": "y"}, {"limit": 5}, {"limit": 9, "first": "y"}]""";
+        assertResult("[{\"limit\":4,\"first\":\"y\"},{\"limit\":5},{\"limit\":9,\"first\":\"y\"}]", document,
+                "filter -> limit > 3");
+        assertResult("[{\"limit\":4,\"first\":\"y\"}]", document, "filter -> limit > 3 limit 1");
+        assertResult("[{\"limit\":4,\"first\":\"y\"}]", document, "filter -> first = \"y\" first");
+        assertResult("[{\"limit\":5}]", document, "filter -> limit != 4 and limit > 1 and limit < 9");
+    }
+
+    @Test
+    void limitsOfChainedClauses() {
+        // one program: the limit counts the elements passing all of its filters
+        assertResult("[{\"a\":2},{\"a\":3}]", NUMBERS, "filter -> a > 1 filter -> a < 5 limit 2");
+        // separate clauses: each limit counts the elements reaching its own clause
+        assertResult("[{\"a\":3}]", NUMBERS, "filter -> a > 0 limit 3", "filter -> a > 2");
+        assertResult("[{\"a\":3}]", NUMBERS, "filter -> a > 2", "filter -> first");
+        assertResult("[{\"a\":4},{\"a\":5}]", NUMBERS, "filter -> a > 1 limit 4", "filter -> a > 3 limit 3");
+        assertResult("[{\"a\":2},{\"a\":3}]", NUMBERS, "filter -> limit 3", "filter -> a > 1 limit 5");
+        assertResult("[]", NUMBERS, "filter -> a > 4 limit 1", "filter -> a < 5");
+        assertResult("[{\"a\":2,\"b\":1},{\"a\":3,\"b\":1}]", NUMBERS,
+                "filter -> a > 1", "map -> [].b = 1", "filter -> limit 2");
+    }
+
+    @Test
+    void streamingStopsReadingAtTheLimit() {
+        String document = largeArray(200_000);
+        assertEquals("[{\"a\":3},{\"a\":4}]", stream(document, "filter -> a > 2 limit 2"));
+        assertEquals("[{\"a\":0}]", stream(document, "filter -> first"));
+        assertEquals("[{\"a\":7}]", stream(document, "filter -> a > 4 limit 3", "filter -> a > 6"));
+
+        String lines = document.substring(1, document.length() - 1).replace(",{", "\n{");
+        assertEquals("{\"a\":3}\n{\"a\":4}\n", stream(lines, "filter -> a > 2 limit 2"));
+
+        // without a limit the whole input is read
+        assertThrows(IllegalStateException.class, () -> stream(document, "filter -> a < 0"));
+    }
+
+    /**
+     * Check the result of the clauses on the tree, the tape, with indexes and columns, as one pipeline and streamed.
+     */
+    private static void assertResult(String expected, String document, String... clauses) {
+        List<String> list = List.of(clauses);
+        assertEquals(expected, JsonStream.of(document).apply(list).toString(), "tree");
+        assertEquals(expected, JsonStream.of(JsonTape.of(document)).apply(list).toString(), "tape");
+        assertEquals(expected, JsonStream.of(document).columnar().apply(list).toString(), "columnar");
+        JsonStream indexed = JsonStream.of(document);
+        List.of("a", "limit", "first").forEach(indexed::index);
+        assertEquals(expected, indexed.apply(list).toString(), "index");
+        assertEquals(expected, ClausePipeline.of(list).apply(document), "pipeline");
+        assertEquals(expected, stream(document, clauses), "stream");
+    }
+
+    private static String stream(String document, String... clauses) {
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        JsonStream.stream(new BoundedInputStream(document.getBytes(StandardCharsets.UTF_8), 64 * 1024),
+                List.of(clauses), out);
+        return out.toString(StandardCharsets.UTF_8);
+    }
+
+    /**
+     * {@code [{"a":0},{"a":1},...]} with {@code a} counting up to 9 and over again.
+     */
+    private static String largeArray(int size) {
+        StringBuilder text = new StringBuilder("[");
+        for (int i = 0; i < size; i++) text.append(i == 0 ? "" : ",").append("{\"a\":").append(i % 10).append('}');
+        return text.append(']').toString();
+    }
+
+    /**
+     * Input that fails once more than {@code bound} bytes were read from it.
+     */
+    private static final class BoundedInputStream extends InputStream {
+        private final ByteArrayInputStream in;
+        private final int bound;
+        private int read;
+
+        BoundedInputStream(byte[] bytes, int bound) {
+            this.in = new ByteArrayInputStream(bytes);
+            this.bound = bound;
+        }
+
+        @Override
+        public int read() {
+            int b = in.read();
+            if (b >= 0) count(1);
+            return b;
+        }
+
+        @Override
+        public int read(byte[] buffer, int offset, int length) {
+            return count(in.read(buffer, offset, length));
+        }
+
+        private int count(int n) {
+            if (n > 0 && (read += n) > bound) throw new IllegalStateException("Read " + read + " bytes, past " + bound);
+            return n;
+        }
+    }
+}
@@ -0,0 +1,124 @@
+package ir.moke;
+
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.node.ArrayNode;
+import com.fasterxml.jackson.databind.node.ObjectNode;
+import ir.moke.visitor.FilterEvalVisitor;
+import ir.moke.visitor.ParallelOptions;
+import org.junit.jupiter.api.AfterAll;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.params.ParameterizedTest;
+import org.junit.jupiter.params.provider.Arguments;
+import org.junit.jupiter.params.provider.MethodSource;
+
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.ForkJoinWorkerThread;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.stream.IntStream;
+import java.util.stream.Stream;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+
+/**
+ * Parallel evaluation must give exactly the sequential result, in input order, on both sides of the threshold and of
+ * the chunk size (at least 256 elements per task), and must stay sequential for clauses that depend on order.
+ */
+class ParallelEquivalenceTest {
+    private static final ForkJoinPool POOL = new ForkJoinPool(4);
+
+    private static final List<Integer> SIZES = List.of(0, 1, 255, 256, 257, 512, 513, 1000, 4099);
+    private static final List<Integer> THRESHOLDS = List.of(0, 256, 513, 100_000);
+    private static final List<List<String>> PIPELINES = List.of(
+            List.of("filter -> a > 4"),
+            List.of("filter -> a = 3 or s = \"x\""),
+            List.of("filter -> s ~ \"X\" and i > 100"),
+            List.of("filter -> t[a > 1]"),
+            List.of("filter -> a > 2", "map -> [].b = a * 2", "filter -> b < 16"),
+            List.of("map -> [].label = s + \"-\" + a", "filter -> label ~ \"x-\""),
+            // clauses depending on order: evaluated sequentially whatever the options
+            List.of("filter -> a > 4 limit 7"),
+            List.of("filter -> a > 1", "filter -> first"),
+            List.of("map -> [3].marked = 1", "filter -> a > 2"),
+            List.of("filter -> a > 2", "map -> [0].marked = 1"));
+
+    @AfterAll
+    static void shutdown() {
+        POOL.shutdown();
+    }
+
+    static Stream<Arguments> cases() {
+        return SIZES.stream().flatMap(size -> THRESHOLDS.stream()
+                .flatMap(threshold -> PIPELINES.stream().map(clauses -> Arguments.of(size, threshold, clauses))));
+    }
+
+    @ParameterizedTest(name = "{2} over {0} elements, threshold {1}")
+    @MethodSource("cases")
+    void matchesSequential(int size, int threshold, List<String> clauses) {
+        String document = document(size).toString();
+        String expected = JsonStream.of(document).apply(clauses).toString();
+
+        assertEquals(expected, JsonStream.of(document).parallel(POOL, threshold).apply(clauses).toString());
+        JsonStream staged = JsonStream.of(document).parallel(POOL, threshold);
+        clauses.forEach(staged::apply);
+        assertEquals(expected, staged.toString());
+    }
+
+    @Test
+    void largeArraysAreSplitAcrossThePoolInInputOrder() {
+        ArrayNode array = document(4099);
+        List<Integer> expected = IntStream.range(0, array.size()).filter(i -> i % 3 != 0).boxed().toList();
+
+        AtomicInteger onWorkers = new AtomicInteger();
+        new FilterEvalVisitor(array, new ParallelOptions(POOL, 1000)).filter(element -> {
+            if (Thread.currentThread() instanceof ForkJoinWorkerThread) onWorkers.incrementAndGet();
+            return element.get("i").intValue() % 3 != 0;
+        });
+        assertEquals(4099, onWorkers.get());
+        assertEquals(expected, array.findValues("i").stream().map(JsonNode::intValue).toList());
+    }
+
+    @Test
+    void arraysBelowTheThresholdStaySequential() {
+        ArrayNode array = document(999);
+        AtomicInteger onWorkers = new AtomicInteger();
+        new FilterEvalVisitor(array, new ParallelOptions(POOL, 1000)).filter(element -> {
+            if (Thread.currentThread() instanceof ForkJoinWorkerThread) onWorkers.incrementAndGet();
+            return true;
+        });
+        assertEquals(0, onWorkers.get());
+        assertEquals(999, array.size());
+    }
+
+    @Test
+    void clausesDependingOnOrderStaySequential() {
+        for (List<String> clauses : List.of(List.of("filter -> a > 4 limit 7", "map -> [].b = 1"),
+                List.of("map -> [2].b = 1", "filter -> a > 0"))) {
+            ClausePipeline pipeline = ClausePipeline.of(clauses);
+            assertEquals(true, pipeline.clauses().stream().anyMatch(ClausePipeline::dependsOnOrder));
+            JsonNode sequential = document(2000);
+            JsonNode parallel = sequential.deepCopy();
+            pipeline.applyTo(sequential, null);
+            pipeline.applyTo(parallel, new ParallelOptions(POOL, 0));
+            assertEquals(sequential, parallel);
+        }
+    }
+
+    /**
+     * Objects numbered by {@code i}, with values drawn from a fixed seed.
+     */
+    private static ArrayNode document(int size) {
+        Random random = new Random(size);
+        ArrayNode array = JsonStream.mapper.createArrayNode();
+        for (int i = 0; i < size; i++) {
+            ObjectNode element = array.addObject();
+            element.put("i", i);
+            if (random.nextInt(10) != 0) element.put("a", random.nextInt(10));
+            element.put("s", random.nextBoolean() ? "x" : "y");
+            ArrayNode t = element.putArray("t");
+            for (int n = random.nextInt(3); n > 0; n--) t.addObject().put("a", random.nextInt(4));
+        }
+        return array;
+    }
+}
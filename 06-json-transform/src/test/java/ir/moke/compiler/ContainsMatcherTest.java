@@ -0,0 +1,90 @@
+package ir.moke.compiler;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.params.ParameterizedTest;
+import org.junit.jupiter.params.provider.ValueSource;
+
+import java.util.List;
+import java.util.Locale;
+import java.util.Random;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNull;
+
+/**
+ * The matcher must answer exactly like {@code text.toLowerCase().contains(literal.toLowerCase())}.
+ */
+class ContainsMatcherTest {
+    private static final List<String> TEXTS = List.of(
+            "", "a", "A", "ali", "ALI", "Ali Reza", "xxALIxx", "aaaab", "abababc", "li", "l",
+            "straße", "STRASSE", "İstanbul", "istanbul", "ISTANBUL", "ıi", "KELVIN", "Kelvin", "k",
+            "Σίσυφος", "ΣΊΣΥΦΟΣ", "ὈΔΥΣΣΕΎΣ", "ǅemal", "ǈ", "ﬁle", "FILE", "😀A😀", "ȧ", "İ");
+    private static final List<String> LITERALS = List.of(
+            "", "a", "A", "li", "LI", "ali", "Ali R", "ab", "abc", "aab", "x", "l",
+            "ss", "ß", "straße", "i", "I", "istanbul", "i̇", "ı", "k", "K", "K", "kelvin",
+            "σ", "ς", "Σ", "σίσυφος", "ǆ", "ǉ", "fi", "ﬁ", "😀a", "😀");
+    /* Characters with surprising case mappings next to plain ASCII ones, for the random texts */
+    private static final char[] ALPHABET = "abcikslABCIKSL İıKßΣσςǅ̇ﬁ😀"
+            .toCharArray();
+
+    @Test
+    void matchesLowercasedContains() {
+        for (String literal : LITERALS) {
+            for (String text : TEXTS) assertMatches(text, literal);
+        }
+    }
+
+    @Test
+    void matchesLowercasedContainsOnRandomTexts() {
+        Random random = new Random(42);
+        for (int i = 0; i < 20_000; i++) {
+            String literal = random.nextInt(4) == 0 ? randomText(random, 4) : asciiText(random, 5);
+            assertMatches(randomText(random, 24), literal);
+            assertMatches(asciiText(random, 24), literal);
+        }
+    }
+
+    @ParameterizedTest
+    @ValueSource(strings = {"tr", "az", "lt", "de", "el"})
+    void matchesLowercasedContainsInLocale(String language) {
+        Locale before = Locale.getDefault();
+        try {
+            Locale.setDefault(Locale.of(language));
+            for (String literal : LITERALS) {
+                for (String text : TEXTS) assertMatches(text, literal);
+            }
+        } finally {
+            Locale.setDefault(before);
+        }
+    }
+
+    @Test
+    void onlyContainsOperatorsHaveAMatcher() {
+        for (CompareOperator operator : CompareOperator.values()) {
+            if (operator != CompareOperator.CONTAINS && operator != CompareOperator.NOT_CONTAINS) {
+                assertNull(ContainsMatcher.of(operator, "a"));
+            }
+        }
+    }
+
+    private static void assertMatches(String text, String literal) {
+        boolean expected = text.toLowerCase().contains(literal.toLowerCase());
+        assertEquals(expected, ContainsMatcher.of(CompareOperator.CONTAINS, literal).test(text),
+                () -> "\"" + text + "\" ~ \"" + literal + "\"");
+        assertEquals(!expected, ContainsMatcher.of(CompareOperator.NOT_CONTAINS, literal).test(text),
+                () -> "\"" + text + "\" !~ \"" + literal + "\"");
+        assertEquals(expected, CompareOperator.CONTAINS.testString(text, literal));
+    }
+
+    private static String randomText(Random random, int maxLength) {
+        StringBuilder text = new StringBuilder();
+        for (int n = random.nextInt(maxLength + 1); n > 0; n--) text.append(ALPHABET[random.nextInt(ALPHABET.length)]);
+        return text.toString();
+    }
+
+    private static String asciiText(Random random, int maxLength) {
+        StringBuilder text = new StringBuilder();
+        for (int n = random.nextInt(maxLength + 1); n > 0; n--) text.append("abAB".charAt(random.nextInt(4)));
+        return text.toString();
+    }
+}
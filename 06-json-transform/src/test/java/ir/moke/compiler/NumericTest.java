@@ -0,0 +1,119 @@
+package ir.moke.compiler;
+
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.node.DecimalNode;
+import com.fasterxml.jackson.databind.node.DoubleNode;
+import com.fasterxml.jackson.databind.node.IntNode;
+import com.fasterxml.jackson.databind.node.LongNode;
+import com.fasterxml.jackson.databind.node.TextNode;
+import ir.moke.JsonStream;
+import org.junit.jupiter.api.Test;
+
+import java.math.BigDecimal;
+import java.math.MathContext;
+
+import static ir.moke.compiler.MapExpression.MathOperator.ADD;
+import static ir.moke.compiler.MapExpression.MathOperator.DIVIDE;
+import static ir.moke.compiler.MapExpression.MathOperator.MULTIPLY;
+import static ir.moke.compiler.MapExpression.MathOperator.SUBTRACT;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+
+class NumericTest {
+
+    @Test
+    void integersStayIntegers() {
+        assertEquals(IntNode.valueOf(90), compute(IntNode.valueOf(45), MULTIPLY, IntNode.valueOf(2)));
+        assertEquals(IntNode.valueOf(47), compute(IntNode.valueOf(45), ADD, IntNode.valueOf(2)));
+        assertEquals(IntNode.valueOf(-43), compute(IntNode.valueOf(2), SUBTRACT, IntNode.valueOf(45)));
+        // an int result of long operands is an int, like the same number parsed from json text
+        assertEquals(IntNode.valueOf(1), compute(LongNode.valueOf(5_000_000_000L), DIVIDE, LongNode.valueOf(5_000_000_000L)));
+        assertEquals(LongNode.valueOf(4_294_967_296L), compute(IntNode.valueOf(65_536), MULTIPLY, IntNode.valueOf(65_536)));
+    }
+
+    @Test
+    void overflowPromotesToDecimal() {
+        BigDecimal max = BigDecimal.valueOf(Long.MAX_VALUE);
+        BigDecimal min = BigDecimal.valueOf(Long.MIN_VALUE);
+        assertEquals(DecimalNode.valueOf(max.multiply(BigDecimal.TWO)),
+                compute(LongNode.valueOf(Long.MAX_VALUE), MULTIPLY, IntNode.valueOf(2)));
+        assertEquals(DecimalNode.valueOf(max.add(BigDecimal.ONE)),
+                compute(LongNode.valueOf(Long.MAX_VALUE), ADD, IntNode.valueOf(1)));
+        assertEquals(DecimalNode.valueOf(min.subtract(BigDecimal.ONE)),
+                compute(LongNode.valueOf(Long.MIN_VALUE), SUBTRACT, IntNode.valueOf(1)));
+        assertEquals(DecimalNode.valueOf(min.negate()),
+                compute(LongNode.valueOf(Long.MIN_VALUE), DIVIDE, IntNode.valueOf(-1)));
+        // decimals stay decimals even when the result would fit a long again
+        assertEquals(DecimalNode.valueOf(max),
+                compute(DecimalNode.valueOf(max.add(BigDecimal.ONE)), SUBTRACT, IntNode.valueOf(1)));
+    }
+
+    @Test
+    void division() {
+        assertEquals(IntNode.valueOf(5), compute(IntNode.valueOf(10), DIVIDE, IntNode.valueOf(2)));
+        assertEquals(IntNode.valueOf(-5), compute(IntNode.valueOf(10), DIVIDE, IntNode.valueOf(-2)));
+        assertEquals(DoubleNode.valueOf(3.5), compute(IntNode.valueOf(7), DIVIDE, IntNode.valueOf(2)));
+        assertEquals(DoubleNode.valueOf(-3.5), compute(IntNode.valueOf(-7), DIVIDE, IntNode.valueOf(2)));
+        assertEquals(DoubleNode.valueOf(Double.POSITIVE_INFINITY), compute(IntNode.valueOf(1), DIVIDE, IntNode.valueOf(0)));
+        assertEquals(DoubleNode.valueOf(Double.NaN), compute(IntNode.valueOf(0), DIVIDE, IntNode.valueOf(0)));
+
+        BigDecimal big = new BigDecimal("10000000000000000000");
+        assertEquals(DecimalNode.valueOf(new BigDecimal("5000000000000000000")),
+                compute(DecimalNode.valueOf(big), DIVIDE, IntNode.valueOf(2)));
+        assertEquals(DecimalNode.valueOf(big.divide(BigDecimal.valueOf(3), MathContext.DECIMAL128)),
+                compute(DecimalNode.valueOf(big), DIVIDE, IntNode.valueOf(3)));
+        assertEquals(DoubleNode.valueOf(Double.NEGATIVE_INFINITY),
+                compute(DecimalNode.valueOf(big.negate()), DIVIDE, IntNode.valueOf(0)));
+    }
+
+    @Test
+    void aDoubleOperandMakesTheResultDouble() {
+        assertEquals(DoubleNode.valueOf(5.0), compute(DoubleNode.valueOf(2.5), MULTIPLY, IntNode.valueOf(2)));
+        assertEquals(DoubleNode.valueOf(5.0), compute(IntNode.valueOf(2), MULTIPLY, DoubleNode.valueOf(2.5)));
+        assertEquals(DoubleNode.valueOf(0.5), compute(IntNode.valueOf(3), SUBTRACT, DoubleNode.valueOf(2.5)));
+        assertEquals(DoubleNode.valueOf(4.0), compute(DoubleNode.valueOf(10.0), DIVIDE, DoubleNode.valueOf(2.5)));
+        assertEquals(DoubleNode.valueOf(1e19 * 0.5),
+                compute(DecimalNode.valueOf(new BigDecimal("10000000000000000000")), MULTIPLY, DoubleNode.valueOf(0.5)));
+    }
+
+    @Test
+    void valuesThatAreNotNumbersCountAsZero() {
+        assertEquals(IntNode.valueOf(7), compute(TextNode.valueOf("7"), ADD, IntNode.valueOf(7)));
+        assertEquals(IntNode.valueOf(0), compute(IntNode.valueOf(7), MULTIPLY, TextNode.valueOf("x")));
+    }
+
+    @Test
+    void mapAssignsTheResultNode() {
+        JsonNode result = JsonStream.of("""
+                        [{"n": 45, "h": 7, "d": 2.5, "max": 9223372036854775807, "big": 10000000000000000000}]""")
+                .apply("""
+                        map -> [].product = n * 2 \
+                        map -> [].quotient = n / 5 \
+                        map -> [].half = h / 2 \
+                        map -> [].mixed = d * 2 \
+                        map -> [].overflow = max * 2 \
+                        map -> [].literal = 10000000000000000000 - 1 \
+                        map -> [].difference = big - n""")
+                .toJsonNode()
+                .get(0);
+        assertEquals(IntNode.valueOf(90), result.get("product"));
+        assertEquals(IntNode.valueOf(9), result.get("quotient"));
+        assertEquals(DoubleNode.valueOf(3.5), result.get("half"));
+        assertEquals(DoubleNode.valueOf(5.0), result.get("mixed"));
+        assertEquals(DecimalNode.valueOf(new BigDecimal("18446744073709551614")), result.get("overflow"));
+        assertEquals(DecimalNode.valueOf(new BigDecimal("9999999999999999999")), result.get("literal"));
+        assertEquals(new BigDecimal("9999999999999999955"), result.get("difference").decimalValue());
+        assertEquals("90", result.get("product").toString());
+    }
+
+    private static JsonNode compute(JsonNode left, MapExpression.MathOperator operator, JsonNode right) {
+        Numeric numeric = new Numeric();
+        numeric.load(left);
+        Numeric.Kind kind = numeric.kind();
+        long l = numeric.longValue();
+        double d = numeric.doubleValue();
+        BigDecimal b = numeric.decimalValue();
+        numeric.load(right);
+        numeric.apply(operator, kind, l, d, b);
+        return numeric.toNode();
+    }
+}
@@ -0,0 +1,217 @@
+package ir.moke.compiler;
+
+import com.fasterxml.jackson.core.JsonProcessingException;
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.databind.SerializationFeature;
+import com.fasterxml.jackson.databind.node.ArrayNode;
+import com.fasterxml.jackson.databind.node.ObjectNode;
+import ir.moke.JsonStream;
+import org.junit.jupiter.api.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CyclicBarrier;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNotSame;
+import static org.junit.jupiter.api.Assertions.assertSame;
+
+class SharedNodesTest {
+    private static final ObjectMapper MAPPER = new ObjectMapper();
+    private static final String SOURCE = """
+            {"n": 1, "s": "text", "o": {"k": [1, {"d": 2}], "e": {}}, "a": [{"x": 1}, [2, 3], null, true]}""";
+
+    @Test
+    void mapChangesToACopyStayInTheCopy() {
+        String result = JsonStream.of("""
+                        [{"profile": {"age": 30, "contact": {"city": "a"}, "tags": [{"t": "x"}]}}]""")
+                .apply(List.of(
+                        "map -> [].copy = profile",
+                        "map -> [].copy.age = 99",
+                        "map -> [].copy.contact.city = \"b\"",
+                        "map -> [].copy.tags[0].t = \"y\"",
+                        "map -> [].profile.contact.zip = 5"))
+                .toString();
+        assertEquals(tree("""
+                [{"profile": {"age": 30, "contact": {"city": "a", "zip": 5}, "tags": [{"t": "x"}]},
+                  "copy": {"age": 99, "contact": {"city": "b"}, "tags": [{"t": "y"}]}}]"""), tree(result));
+    }
+
+    @Test
+    void siblingsSharingAValueAreIndependent() {
+        String result = JsonStream.of("""
+                        [{"src": {"n": {"k": 1}, "list": [{"v": 1}, {"v": 2}]}}]""")
+                .apply(List.of(
+                        "map -> [].a = src",
+                        "map -> [].b = src",
+                        "map -> [].c = a",
+                        "map -> [].a.n.k = 2",
+                        "map -> [].b.list[1].v = 3",
+                        "map -> [].c.n.extra = \"c\"",
+                        "map -> [].src.list = null"))
+                .toString();
+        assertEquals(tree("""
+                [{"src": {"n": {"k": 1}},
+                  "a": {"n": {"k": 2}, "list": [{"v": 1}, {"v": 2}]},
+                  "b": {"n": {"k": 1}, "list": [{"v": 1}, {"v": 3}]},
+                  "c": {"n": {"k": 1, "extra": "c"}, "list": [{"v": 1}, {"v": 2}]}}]"""), tree(result));
+    }
+
+    @Test
+    void sharedValuesOfSeveralElementsAreIndependent() {
+        String result = JsonStream.of("""
+                        [{"p": {"v": 1}}, {"p": {"v": 2}}]""")
+                .apply(List.of("map -> [].q = p", "map -> [0].q.v = 10", "map -> [1].p.v = 20"))
+                .toString();
+        assertEquals(tree("""
+                [{"p": {"v": 1}, "q": {"v": 10}}, {"p": {"v": 20}, "q": {"v": 2}}]"""), tree(result));
+    }
+
+    @Test
+    void sharedNodesBehaveLikePlainOnes() throws JsonProcessingException {
+        ObjectNode parent = (ObjectNode) tree("{\"source\": " + SOURCE + "}");
+        JsonNode plain = tree(SOURCE);
+        JsonNode shared = SharedNodes.share(parent.get("source"), parent, "source", -1);
+        JsonNode current = parent.get("source");
+        assertNotSame(shared, current);
+
+        for (JsonNode node : List.of(shared, current)) {
+            assertBehavesLike(plain, node);
+            // reading nested containers hands out views, the answers must not change
+            node.get("o").get("k").get(1).get("d");
+            node.get("a").get(0).get("x");
+            assertBehavesLike(plain, node);
+        }
+    }
+
+    @Test
+    void changedSharedNodesBehaveLikeChangedPlainOnes() throws JsonProcessingException {
+        ObjectNode parent = (ObjectNode) tree("{\"source\": " + SOURCE + "}");
+        JsonNode shared = SharedNodes.share(parent.get("source"), parent, "source", -1);
+        JsonNode current = parent.get("source");
+
+        JsonNode plain = tree(SOURCE);
+        change(plain);
+        change(shared);
+        assertBehavesLike(plain, shared);
+        assertBehavesLike(tree(SOURCE), current);
+    }
+
+    @Test
+    void arraysAreSharedLikeObjects() throws JsonProcessingException {
+        ArrayNode parent = (ArrayNode) tree("[" + SOURCE + "]");
+        JsonNode shared = SharedNodes.share(parent.get(0).get("a"), (ObjectNode) parent.get(0), "a", -1);
+        JsonNode plain = tree(SOURCE).get("a");
+        assertBehavesLike(plain, shared);
+
+        ((ObjectNode) shared.get(0)).put("x", 5);
+        ((ArrayNode) shared.get(1)).add(4);
+        ((ArrayNode) shared).remove(2);
+        assertEquals(tree("[{\"x\": 5}, [2, 3, 4], true]"), shared);
+        assertBehavesLike(tree(SOURCE), parent.get(0));
+    }
+
+    @Test
+    void sharingAViewNobodyChangedReusesTheFrozenNodes() {
+        ObjectNode parent = (ObjectNode) tree("{\"source\": " + SOURCE + "}");
+        JsonNode first = SharedNodes.share(parent.get("source"), parent, "source", -1);
+        JsonNode current = parent.get("source");
+        JsonNode second = SharedNodes.share(current, parent, "source", -1);
+        assertSame(current, parent.get("source"));
+        assertEquals(first, second);
+        ((ObjectNode) second).put("n", 2);
+        assertEquals(1, first.get("n").intValue());
+        assertEquals(1, current.get("n").intValue());
+    }
+
+    @Test
+    void sharedNodesCanBeReadFromSeveralThreads() throws Exception {
+        int threads = 4;
+        JsonNode plain = tree(SOURCE);
+        CyclicBarrier start = new CyclicBarrier(threads);
+        ExecutorService pool = Executors.newFixedThreadPool(threads);
+        try {
+            for (int round = 0; round < 200; round++) {
+                ObjectNode parent = (ObjectNode) tree("{\"source\": " + SOURCE + "}");
+                JsonNode shared = SharedNodes.share(parent.get("source"), parent, "source", -1);
+                List<Future<List<JsonNode>>> readers = new ArrayList<>();
+                for (int t = 0; t < threads; t++) {
+                    readers.add(pool.submit(() -> {
+                        start.await();
+                        // the first reads copy the children of each level reached
+                        List<JsonNode> nested = List.of(shared.get("o").get("k").get(1), shared.get("a").get(1));
+                        assertBehavesLike(plain, shared);
+                        return nested;
+                    }));
+                }
+                List<JsonNode> first = readers.getFirst().get();
+                for (Future<List<JsonNode>> reader : readers) {
+                    List<JsonNode> nested = reader.get();
+                    // every reader got the views kept by the shared node, a change through any of them is not lost
+                    for (int i = 0; i < first.size(); i++) assertSame(first.get(i), nested.get(i));
+                }
+                ((ObjectNode) first.get(0)).put("d", round);
+                ((ArrayNode) first.get(1)).add(round);
+                assertEquals(round, shared.get("o").get("k").get(1).get("d").intValue());
+                assertEquals(3, shared.get("a").get(1).size());
+                assertBehavesLike(plain, parent.get("source"));
+            }
+        } finally {
+            pool.shutdownNow();
+        }
+    }
+
+    @Test
+    void scalarsAreNotWrapped() {
+        ObjectNode parent = (ObjectNode) tree(SOURCE);
+        JsonNode scalar = parent.get("s");
+        assertSame(scalar, SharedNodes.share(scalar, parent, "s", -1));
+    }
+
+    private static void change(JsonNode node) {
+        ObjectNode object = (ObjectNode) node;
+        object.put("n", 2);
+        object.remove("s");
+        ((ObjectNode) object.get("o")).put("added", "x");
+        ((ObjectNode) object.get("o").get("k").get(1)).put("d", 3);
+        ((ArrayNode) object.get("a")).insert(0, "first");
+        ((ArrayNode) object.get("a").get(2)).removeAll();
+    }
+
+    /**
+     * Compare a node with the plain tree it must be equal to, both ways, through deepCopy() and serialized.
+     */
+    private static void assertBehavesLike(JsonNode plain, JsonNode node) throws JsonProcessingException {
+        assertEquals(plain, node);
+        assertEquals(node, plain);
+        assertEquals(plain.hashCode(), node.hashCode());
+        assertEquals(plain.size(), node.size());
+
+        JsonNode copy = node.deepCopy();
+        assertEquals(plain, copy);
+        assertEquals(plain.getClass(), copy.getClass());
+        // a copy is not shared with the node it was taken from
+        if (copy instanceof ObjectNode object) object.put("copied", true);
+        else ((ArrayNode) copy).add("copied");
+        assertEquals(plain, node);
+
+        assertEquals(plain.toString(), node.toString());
+        assertEquals(plain.toPrettyString(), node.toPrettyString());
+        assertEquals(MAPPER.writeValueAsString(plain), MAPPER.writeValueAsString(node));
+        assertEquals(MAPPER.writer(SerializationFeature.INDENT_OUTPUT).writeValueAsString(plain),
+                MAPPER.writer(SerializationFeature.INDENT_OUTPUT).writeValueAsString(node));
+        assertEquals(MAPPER.valueToTree(plain), MAPPER.valueToTree(node));
+    }
+
+    private static JsonNode tree(String json) {
+        try {
+            return MAPPER.readTree(json);
+        } catch (JsonProcessingException e) {
+            throw new RuntimeException(e);
+        }
+    }
+}
@@ -0,0 +1,31 @@
+package ir.moke.benchmark;
+
+import org.openjdk.jmh.profile.GCProfiler;
+import org.openjdk.jmh.results.format.ResultFormatType;
+import org.openjdk.jmh.runner.Runner;
+import org.openjdk.jmh.runner.RunnerException;
+import org.openjdk.jmh.runner.options.Options;
+import org.openjdk.jmh.runner.options.OptionsBuilder;
+
+/**
+ * Run benchmarks with the GC profiler attached, so every score comes with its allocation rate
+ * ({@code gc.alloc.rate.norm} is bytes allocated per operation).
+ * <p>
+ * Arguments are benchmark name patterns, e.g. {@code EvaluationBenchmark.filter}; without arguments everything runs.
+ * Results are written to {@code jmh-result.json}. The shaded jar ({@code java -jar target/benchmarks.jar}) accepts
+ * the usual JMH options instead; add {@code -prof gc} there for the same allocation numbers.
+ */
+public class BenchmarkRunner {
+    public static void main(String[] args) throws RunnerException {
+        OptionsBuilder builder = new OptionsBuilder();
+        if (args.length == 0) builder.include(BenchmarkRunner.class.getPackageName() + ".*");
+        for (String pattern : args) builder.include(pattern);
+
+        Options options = builder
+                .addProfiler(GCProfiler.class)
+                .resultFormat(ResultFormatType.JSON)
+                .result("jmh-result.json")
+                .build();
+        new Runner(options).run();
+    }
+}
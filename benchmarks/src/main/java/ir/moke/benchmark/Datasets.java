@@ -0,0 +1,117 @@
+package ir.moke.benchmark;
+
+import com.fasterxml.jackson.databind.node.ArrayNode;
+import com.fasterxml.jackson.databind.node.JsonNodeFactory;
+import com.fasterxml.jackson.databind.node.ObjectNode;
+
+import java.util.Random;
+import java.util.StringJoiner;
+
+/**
+ * Seeded generators for benchmark inputs. The same arguments always produce the same data, so numbers from different
+ * runs and different commits are comparable.
+ */
+public final class Datasets {
+    public static final long SEED = 20240901L;
+
+    private static final String[] NAMES = {"Ali", "Mahdi", "Hossein", "Javad", "Zahra", "Sara", "Reza", "Maryam"};
+    private static final String[] CITIES = {"Tehran", "Pardis", "Eghlid", "Shiraz", "Tabriz", "Rasht"};
+    private static final String[] STATES = {"Tehran", "Hormozgan", "Mazanderan", "Khorasan", "Golestan", "Zanjan"};
+    private static final String[] COUNTRIES = {"IR", "IT", "OZ", "AF", "AR", "EN", "JP"};
+
+    private Datasets() {
+    }
+
+    /**
+     * A top-level array of user records shaped like the sample in {@code MainClass} of 06-json-transform.
+     */
+    public static ArrayNode users(int size) {
+        Random random = new Random(SEED);
+        JsonNodeFactory factory = JsonNodeFactory.instance;
+        ArrayNode users = factory.arrayNode(size);
+        for (int i = 0; i < size; i++) {
+            ObjectNode user = users.addObject();
+            user.put("username", "user" + i);
+            user.put("password", Integer.toString(1000 + random.nextInt(9000)));
+
+            ObjectNode profile = user.putObject("profile");
+            profile.put("name", pick(random, NAMES));
+            profile.put("family", pick(random, NAMES) + "i");
+            profile.put("age", 18 + random.nextInt(62));
+            profile.put("account", 1_000_000L + random.nextInt(1_000_000_000));
+
+            ObjectNode contact = profile.putObject("contact");
+            contact.put("city", pick(random, CITIES));
+            contact.put("zip", random.nextInt(100_000));
+
+            ArrayNode address = profile.putArray("address");
+            ArrayNode country = address.addObject().putArray("country");
+            for (int c = 0; c < 3; c++) country.add(pick(random, COUNTRIES));
+            address.addObject().put("state", pick(random, STATES));
+            address.addObject().put("state", pick(random, STATES));
+        }
+        return users;
+    }
+
+    /**
+     * Input text for one of the tutorial grammars, growing with {@code size}.
+     *
+     * @param grammar target grammar
+     * @param size    number of lines, pairs or comparisons
+     */
+    public static String grammarInput(Grammar grammar, int size) {
+        Random random = new Random(SEED);
+        return switch (grammar) {
+            case EXPR -> {
+                StringBuilder sb = new StringBuilder();
+                for (int i = 0; i < size; i++) {
+                    sb.append(random.nextInt(100)).append('+').append(random.nextInt(100)).append('*')
+                            .append('(').append(random.nextInt(100)).append('-').append(random.nextInt(100)).append(")\n");
+                }
+                yield sb.toString();
+            }
+            case CONFIG -> {
+                StringBuilder sb = new StringBuilder();
+                for (int i = 0; i < size; i++) {
+                    sb.append("key_").append(i).append(" = ");
+                    switch (random.nextInt(3)) {
+                        case 0 -> sb.append(random.nextInt(65536));
+                        case 1 -> sb.append(random.nextBoolean());
+                        default -> sb.append("host").append(i).append(".example.com");
+                    }
+                    sb.append('\n');
+                }
+                yield sb.toString();
+            }
+            case SQL -> {
+                StringJoiner columns = new StringJoiner(", ");
+                for (int i = 0; i < size; i++) columns.add("column_" + i);
+                yield "SELECT " + columns + " FROM users WHERE age > " + random.nextInt(100);
+            }
+            case CLAUSE -> {
+                StringJoiner clause = new StringJoiner(random.nextBoolean() ? " and " : " or ");
+                for (int i = 0; i < size; i++) clause.add("field_" + i + " = \"" + pick(random, NAMES) + "\"");
+                yield clause.toString();
+            }
+            case FILTER -> {
+                StringJoiner clause = new StringJoiner(" or ", "filter -> ", "");
+                for (int i = 0; i < size; i++) {
+                    clause.add("(profile.age > " + random.nextInt(80) + " and profile.name = \"" + pick(random, NAMES) + "\")");
+                }
+                yield clause.toString();
+            }
+            case MAP -> {
+                StringBuilder sb = new StringBuilder();
+                for (int i = 0; i < size; i++) {
+                    sb.append("map -> profile.field_").append(i).append(" = (age * ").append(random.nextInt(10))
+                            .append(") + \"-\" + name\n");
+                }
+                yield sb.toString();
+            }
+        };
+    }
+
+    private static String pick(Random random, String[] values) {
+        return values[random.nextInt(values.length)];
+    }
+}
@@ -0,0 +1,111 @@
+package ir.moke.benchmark;
+
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.node.ArrayNode;
+import ir.moke.CompiledClause;
+import ir.moke.JsonStream;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Filter and map evaluation over generated user arrays, from 1K to 10M elements.
+ * <p>
+ * Clauses change the tree in place, so every invocation gets a fresh copy of the dataset. Copying happens in an
+ * invocation level setup and is not part of the score. Clauses are compiled once: the score is evaluation only.
+ * The {@code backend} parameter has no effect on map clauses; the {@code columnar} score includes extracting the
+ * columns from the fresh copy, and uses the Vector API only when 06-json-transform is built with the {@code vector}
+ * profile.
+ * The 10M dataset needs a heap of several gigabytes.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(value = 1, jvmArgsAppend = {"-Xms8g", "-Xmx8g", "--add-modules", "jdk.incubator.vector"})
+public class EvaluationBenchmark {
+
+    @Param({"1000", "10000", "100000", "1000000", "10000000"})
+    private int size;
+
+    /* Filter evaluation by the predicate trees, by classes generated from them, or over columns */
+    @Param({"interpreter", "bytecode", "columnar"})
+    private String backend;
+
+    private ArrayNode users;
+    private JsonStream stream;
+
+    private CompiledClause filterEqual;
+    private CompiledClause filterRange;
+    private CompiledClause filterLogical;
+    private CompiledClause filterNested;
+    private CompiledClause mapAssign;
+    private CompiledClause mapExpression;
+    private CompiledClause mapConditional;
+
+    @Setup(Level.Trial)
+    public void generate() {
+        users = Datasets.users(size);
+        CompiledClause.bytecodeThreshold(backend.equals("bytecode") ? 0 : -1);
+        JsonStream.clauseCache().clear();
+        filterEqual = JsonStream.compile("filter -> profile.name = \"ali\"");
+        filterRange = JsonStream.compile("filter -> profile.age >= 30 and profile.age < 50");
+        filterLogical = JsonStream.compile("filter -> (profile.name = \"sara\" or profile.contact.city == \"Tehran\") and profile.account > 500000000");
+        filterNested = JsonStream.compile("filter -> profile.address[].state == \"Tehran\"");
+        mapAssign = JsonStream.compile("map -> profile.contact.country = \"IR\"");
+        mapExpression = JsonStream.compile("map -> profile.label = (age * 2) + \"-\" + name");
+        mapConditional = JsonStream.compile("map -> profile.address[state == \"Tehran\"].capital = \"yes\"");
+    }
+
+    @Setup(Level.Invocation)
+    public void copy() {
+        stream = JsonStream.ofOwned(users.deepCopy()).columnar(backend.equals("columnar"));
+    }
+
+    @Benchmark
+    public JsonNode filterEqual() {
+        return stream.apply(filterEqual).toJsonNode();
+    }
+
+    @Benchmark
+    public JsonNode filterRange() {
+        return stream.apply(filterRange).toJsonNode();
+    }
+
+    @Benchmark
+    public JsonNode filterLogical() {
+        return stream.apply(filterLogical).toJsonNode();
+    }
+
+    @Benchmark
+    public JsonNode filterNested() {
+        return stream.apply(filterNested).toJsonNode();
+    }
+
+    @Benchmark
+    public JsonNode mapAssign() {
+        return stream.apply(mapAssign).toJsonNode();
+    }
+
+    @Benchmark
+    public JsonNode mapExpression() {
+        return stream.apply(mapExpression).toJsonNode();
+    }
+
+    @Benchmark
+    public JsonNode mapConditional() {
+        return stream.apply(mapConditional).toJsonNode();
+    }
+}
@@ -0,0 +1,100 @@
+package ir.moke.benchmark;
+
+import ir.moke.antlr4.ClauseLexer;
+import ir.moke.antlr4.ClauseParser;
+import ir.moke.antlr4.ConfigLexer;
+import ir.moke.antlr4.ConfigParser;
+import ir.moke.antlr4.ExprLexer;
+import ir.moke.antlr4.ExprParser;
+import ir.moke.antlr4.FilterGrammerLexer;
+import ir.moke.antlr4.FilterGrammerParser;
+import ir.moke.antlr4.MapGrammerLexer;
+import ir.moke.antlr4.MapGrammerParser;
+import ir.moke.antlr4.SqlLexer;
+import ir.moke.antlr4.SqlParser;
+import ir.moke.common.TwoStageParser;
+import org.antlr.v4.runtime.CharStream;
+import org.antlr.v4.runtime.CharStreams;
+import org.antlr.v4.runtime.CommonTokenStream;
+import org.antlr.v4.runtime.Lexer;
+import org.antlr.v4.runtime.Parser;
+import org.antlr.v4.runtime.ParserRuleContext;
+import org.antlr.v4.runtime.TokenStream;
+import org.antlr.v4.runtime.tree.ParseTree;
+
+import java.util.function.Function;
+
+/**
+ * The grammars of the tutorial modules, each with its lexer, parser and start rule.
+ */
+public enum Grammar {
+    EXPR(ExprLexer::new, ExprParser::new) {
+        @Override
+        ParserRuleContext start(Parser parser) {
+            return ((ExprParser) parser).prog();
+        }
+    },
+    CONFIG(ConfigLexer::new, ConfigParser::new) {
+        @Override
+        ParserRuleContext start(Parser parser) {
+            return ((ConfigParser) parser).config();
+        }
+    },
+    SQL(SqlLexer::new, SqlParser::new) {
+        @Override
+        ParserRuleContext start(Parser parser) {
+            return ((SqlParser) parser).sql();
+        }
+    },
+    CLAUSE(ClauseLexer::new, ClauseParser::new) {
+        @Override
+        ParserRuleContext start(Parser parser) {
+            return ((ClauseParser) parser).expression();
+        }
+    },
+    FILTER(FilterGrammerLexer::new, FilterGrammerParser::new) {
+        @Override
+        ParserRuleContext start(Parser parser) {
+            return ((FilterGrammerParser) parser).program();
+        }
+    },
+    MAP(MapGrammerLexer::new, MapGrammerParser::new) {
+        @Override
+        ParserRuleContext start(Parser parser) {
+            return ((MapGrammerParser) parser).program();
+        }
+    };
+
+    private final Function<CharStream, Lexer> lexer;
+    private final Function<TokenStream, Parser> parser;
+
+    Grammar(Function<CharStream, Lexer> lexer, Function<TokenStream, Parser> parser) {
+        this.lexer = lexer;
+        this.parser = parser;
+    }
+
+    abstract ParserRuleContext start(Parser parser);
+
+    /**
+     * Lex and parse {@code input} from the start rule.
+     *
+     * @param cold drop the DFA cache shared by all lexers and parsers of this grammar first, so prediction starts
+     *             from the ATN again, like the first parse after class loading
+     */
+    public ParseTree parse(String input, boolean cold) {
+        Lexer lexer = this.lexer.apply(CharStreams.fromString(input));
+        Parser parser = this.parser.apply(new CommonTokenStream(lexer));
+        if (cold) {
+            lexer.getInterpreter().clearDFA();
+            parser.getInterpreter().clearDFA();
+        }
+        return start(parser);
+    }
+
+    /**
+     * Lex and parse {@code input} from the start rule, with SLL prediction first and full LL only if it fails.
+     */
+    public TwoStageParser.Result<Parser, ParserRuleContext> parseTwoStage(String input) {
+        return TwoStageParser.parse(CharStreams.fromString(input), lexer, parser, this::start);
+    }
+}
@@ -0,0 +1,71 @@
+package ir.moke.benchmark;
+
+import org.antlr.v4.runtime.tree.ParseTree;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Lexer and parser throughput of every grammar.
+ * <p>
+ * {@link #warm()} reuses the DFA built by earlier parses, which is the steady state of a long running service;
+ * {@link #warmTwoStage()} does the same with SLL prediction first and LL only as a fallback.
+ * {@link #coldDfa()} clears it before each parse, measuring adaptive prediction from the ATN with a warmed up JIT.
+ * {@link #coldStart()} is the first parse of a fresh JVM: class loading, ATN deserialization and interpretation.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(2)
+public class ParseBenchmark {
+
+    @Param({"EXPR", "CONFIG", "SQL", "CLAUSE", "FILTER", "MAP"})
+    private Grammar grammar;
+
+    /* Lines, pairs or comparisons in the generated input */
+    @Param({"1", "10", "100"})
+    private int size;
+
+    private String input;
+
+    @Setup
+    public void setUp() {
+        input = Datasets.grammarInput(grammar, size);
+    }
+
+    @Benchmark
+    public ParseTree warm() {
+        return grammar.parse(input, false);
+    }
+
+    @Benchmark
+    public ParseTree warmTwoStage() {
+        return grammar.parseTwoStage(input).tree();
+    }
+
+    @Benchmark
+    public ParseTree coldDfa() {
+        return grammar.parse(input, true);
+    }
+
+    @Benchmark
+    @BenchmarkMode(Mode.SingleShotTime)
+    @Warmup(iterations = 0)
+    @Measurement(iterations = 1)
+    @Fork(10)
+    public ParseTree coldStart() {
+        return grammar.parse(input, false);
+    }
+}
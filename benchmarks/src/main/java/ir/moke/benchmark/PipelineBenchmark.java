@@ -0,0 +1,98 @@
+package ir.moke.benchmark;
+
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.node.ArrayNode;
+import ir.moke.ClausePipeline;
+import ir.moke.CompiledClause;
+import ir.moke.JsonStream;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Chained filter and map clauses, applied clause by clause, fused into one pass, and streamed from serialized input.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(value = 1, jvmArgsAppend = {"-Xms4g", "-Xmx4g"})
+public class PipelineBenchmark {
+    private static final List<String> CLAUSES = List.of(
+            "filter -> profile.age > 25",
+            "map -> profile.label = name + \" \" + family",
+            "filter -> profile.contact.city != \"Rasht\"",
+            "map -> profile.contact.zone = zip / 1000",
+            "filter -> profile.address[].state ~ \"an\"",
+            "map -> profile.active = \"true\"",
+            "filter -> profile.contact.zone < 80",
+            "map -> profile.address[state == \"Tehran\"].capital = \"yes\"");
+
+    @Param({"10000", "1000000"})
+    private int size;
+
+    /* Number of clauses taken from the head of CLAUSES */
+    @Param({"2", "4", "8"})
+    private int stages;
+
+    private ArrayNode users;
+    private byte[] usersJson;
+    private List<CompiledClause> clauses;
+    private ClausePipeline pipeline;
+    private JsonStream stream;
+
+    @Setup(Level.Trial)
+    public void generate() {
+        users = Datasets.users(size);
+        usersJson = users.toString().getBytes(StandardCharsets.UTF_8);
+        clauses = CLAUSES.subList(0, stages).stream().map(JsonStream::compile).toList();
+        pipeline = ClausePipeline.of(clauses.toArray(CompiledClause[]::new));
+    }
+
+    @Setup(Level.Invocation)
+    public void copy() {
+        stream = JsonStream.ofOwned(users.deepCopy());
+    }
+
+    @Benchmark
+    public JsonNode clauseByClause() {
+        for (CompiledClause clause : clauses) stream.apply(clause);
+        return stream.toJsonNode();
+    }
+
+    @Benchmark
+    public JsonNode fused() {
+        return stream.apply(pipeline).toJsonNode();
+    }
+
+    @Benchmark
+    public long streamed() throws IOException {
+        return pipeline.stream(new ByteArrayInputStream(usersJson), OutputStream.nullOutputStream());
+    }
+
+    @Benchmark
+    public int parseTransformSerialize() {
+        ByteArrayOutputStream out = new ByteArrayOutputStream(usersJson.length);
+        out.writeBytes(JsonStream.of(new String(usersJson, StandardCharsets.UTF_8)).apply(pipeline).toString()
+                .getBytes(StandardCharsets.UTF_8));
+        return out.size();
+    }
+}
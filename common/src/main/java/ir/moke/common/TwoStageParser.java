@@ -0,0 +1,82 @@
+package ir.moke.common;
+
+import org.antlr.v4.runtime.BailErrorStrategy;
+import org.antlr.v4.runtime.CharStream;
+import org.antlr.v4.runtime.CommonTokenStream;
+import org.antlr.v4.runtime.ConsoleErrorListener;
+import org.antlr.v4.runtime.DefaultErrorStrategy;
+import org.antlr.v4.runtime.Lexer;
+import org.antlr.v4.runtime.Parser;
+import org.antlr.v4.runtime.ParserRuleContext;
+import org.antlr.v4.runtime.TokenStream;
+import org.antlr.v4.runtime.atn.PredictionMode;
+import org.antlr.v4.runtime.misc.ParseCancellationException;
+
+import java.util.function.Function;
+
+/**
+ * Two-stage parsing: try the fast {@link PredictionMode#SLL} mode with a {@link BailErrorStrategy} first and only
+ * reparse with full {@link PredictionMode#LL} and the {@link DefaultErrorStrategy} when that fails.
+ * <p>
+ * SLL prediction is much cheaper than LL and succeeds on almost every valid input. When it fails the input is either
+ * invalid or needs full context; the second stage then gives exactly the result, error messages and recovery of a
+ * plain LL parse. Tokens are lexed once, up front, and shared by both stages.
+ */
+public final class TwoStageParser {
+
+    public enum Stage {
+        SLL, LL
+    }
+
+    /**
+     * @param parser     parser that produced the tree, e.g. for {@code tree.toStringTree(parser)}
+     * @param tree       parse tree of the start rule
+     * @param stage      stage that produced the tree
+     * @param lexNanos   time spent lexing the whole input
+     * @param parseNanos time spent parsing, both stages included
+     */
+    public record Result<P extends Parser, T extends ParserRuleContext>(P parser, T tree, Stage stage, long lexNanos,
+                                                                        long parseNanos) {
+    }
+
+    private TwoStageParser() {
+    }
+
+    /**
+     * Lex and parse {@code input}.
+     *
+     * @param lexer     lexer constructor, e.g. {@code ExprLexer::new}
+     * @param parser    parser constructor, e.g. {@code ExprParser::new}
+     * @param startRule start rule, e.g. {@code ExprParser::prog}
+     */
+    public static <P extends Parser, T extends ParserRuleContext> Result<P, T> parse(CharStream input,
+                                                                                     Function<CharStream, ? extends Lexer> lexer,
+                                                                                     Function<TokenStream, P> parser,
+                                                                                     Function<P, T> startRule) {
+        long start = System.nanoTime();
+        CommonTokenStream tokens = new CommonTokenStream(lexer.apply(input));
+        tokens.fill();
+        long lexed = System.nanoTime();
+        P p = parser.apply(tokens);
+
+        // Stage 1: SLL, give up on the first syntax error without reporting it
+        p.getInterpreter().setPredictionMode(PredictionMode.SLL);
+        p.setErrorHandler(new BailErrorStrategy());
+        p.removeErrorListeners();
+        try {
+            T tree = startRule.apply(p);
+            return new Result<>(p, tree, Stage.SLL, lexed - start, System.nanoTime() - lexed);
+        } catch (ParseCancellationException e) {
+            // fall through to the full LL parse
+        }
+
+        // Stage 2: LL with the default error reporting and recovery
+        tokens.seek(0);
+        p.reset();
+        p.getInterpreter().setPredictionMode(PredictionMode.LL);
+        p.setErrorHandler(new DefaultErrorStrategy());
+        p.addErrorListener(ConsoleErrorListener.INSTANCE);
+        T tree = startRule.apply(p);
+        return new Result<>(p, tree, Stage.LL, lexed - start, System.nanoTime() - lexed);
+    }
+}